@@ -0,0 +1,28 @@
+package com.shyx.config;
+
+import com.shyx.utils.BinaryValueCodec;
+import com.shyx.utils.JsonValueCodec;
+import com.shyx.utils.ValueCodec;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * 缓存值编解码配置，按cache.codec创建其中一种实现
+ */
+@Configuration
+public class CacheCodecConfig {
+    // hutool JSON，默认实现
+    @Bean
+    @ConditionalOnProperty(prefix = "cache", name = "codec", havingValue = "json", matchIfMissing = true)
+    public ValueCodec jsonValueCodec() {
+        return new JsonValueCodec();
+    }
+
+    // 带schema版本的紧凑二进制，同时兼容读取JSON
+    @Bean
+    @ConditionalOnProperty(prefix = "cache", name = "codec", havingValue = "binary")
+    public ValueCodec binaryValueCodec() {
+        return new BinaryValueCodec();
+    }
+}
@@ -0,0 +1,190 @@
+package com.shyx.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 查询缓存相关配置类
+ * 绑定application.yaml中以cache为前缀的配置项，未配置时使用字段上的默认值
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "cache")
+public class CacheProperties {
+
+    /**
+     * 缓存值的编码方式：json(默认)、binary
+     */
+    private String codec = "json";
+
+    /**
+     * 缓存过期时间的随机增量比例，0.1表示在过期时间基础上随机增加0~10%，避免同时写入的key同时过期
+     */
+    private double ttlJitter = 0.1;
+
+    /**
+     * 进程内一级缓存配置
+     */
+    private Local local = new Local();
+
+    /**
+     * 缓存加载和重建配置
+     */
+    private Rebuild rebuild = new Rebuild();
+
+    /**
+     * 实体id布隆过滤器配置
+     */
+    private Bloom bloom = new Bloom();
+
+    /**
+     * 热点key统计和提前刷新配置
+     */
+    private Hot hot = new Hot();
+
+    /**
+     * 数据修改后异步删除缓存的配置
+     */
+    private Invalidate invalidate = new Invalidate();
+
+    /**
+     * 商户类型列表快照配置
+     */
+    private ShopType shopType = new ShopType();
+
+    /**
+     * 进程内一级缓存配置
+     */
+    @Data
+    public static class Local {
+        /**
+         * 是否开启
+         */
+        private boolean enabled = true;
+        /**
+         * 使用一级缓存的key前缀，不在列表中的key只使用Redis
+         */
+        private List<String> prefixes = new ArrayList<>(Arrays.asList("cache:shop:"));
+        /**
+         * 最多缓存的元素数量
+         */
+        private int maximumSize = 10000;
+        /**
+         * 一级缓存的过期时间，不超过Redis中的过期时间；失效消息丢失时最多读到这么久的旧数据
+         */
+        private Duration ttl = Duration.ofSeconds(60);
+    }
+
+    /**
+     * 缓存加载和重建配置
+     */
+    @Data
+    public static class Rebuild {
+        /**
+         * 逻辑过期重建线程数
+         */
+        private int threads = 4;
+        /**
+         * 重建任务队列容量，队列满时放弃重建，继续返回旧数据
+         */
+        private int queueCapacity = 1000;
+        /**
+         * 等待其他请求加载同一个key的最长时间
+         */
+        private Duration waitTimeout = Duration.ofSeconds(3);
+    }
+
+    /**
+     * 实体id布隆过滤器配置
+     */
+    @Data
+    public static class Bloom {
+        /**
+         * 是否开启
+         */
+        private boolean enabled = true;
+        /**
+         * 每个过滤器预期的元素数量，超出后误判率上升
+         */
+        private long expectedInsertions = 1000000;
+        /**
+         * 误判率
+         */
+        private double fpp = 0.01;
+        /**
+         * 构建时每批从数据库读取的id数量
+         */
+        private int buildBatch = 10000;
+        /**
+         * 其他节点正在构建时，检查构建完成的间隔
+         */
+        private Duration pollInterval = Duration.ofSeconds(10);
+    }
+
+    /**
+     * 热点key统计和提前刷新配置
+     */
+    @Data
+    public static class Hot {
+        /**
+         * 是否开启
+         */
+        private boolean enabled = true;
+        /**
+         * 统计访问频率的key前缀
+         */
+        private List<String> prefixes = new ArrayList<>(Arrays.asList("cache:shop:"));
+        /**
+         * 保留的热点key数量，提前刷新只处理这些key
+         */
+        private int topK = 100;
+        /**
+         * 统计窗口，访问次数累计到10倍该值后所有计数减半
+         */
+        private int sampleSize = 10000;
+        /**
+         * 检查热点key剩余过期时间的间隔
+         */
+        private Duration refreshInterval = Duration.ofSeconds(30);
+        /**
+         * 剩余过期时间小于该值的热点key在后台重新加载，需要大于refreshInterval
+         */
+        private Duration refreshAhead = Duration.ofMinutes(5);
+    }
+
+    /**
+     * 数据修改后异步删除缓存的配置
+     */
+    @Data
+    public static class Invalidate {
+        /**
+         * 待删除key的队列容量，队列满时在调用线程中同步删除
+         */
+        private int queueCapacity = 100000;
+        /**
+         * 一个pipeline最多删除的key数量
+         */
+        private int batchSize = 500;
+        /**
+         * 第一次删除后再次删除的延迟，覆盖事务提交前读到旧数据并在之后写回的缓存；为0时不再次删除
+         */
+        private Duration secondDeleteDelay = Duration.ofSeconds(1);
+    }
+
+    /**
+     * 商户类型列表快照配置
+     */
+    @Data
+    public static class ShopType {
+        /**
+         * 检查Redis中版本号的间隔，版本号变化后重新构建快照
+         */
+        private Duration refreshInterval = Duration.ofSeconds(5);
+    }
+}
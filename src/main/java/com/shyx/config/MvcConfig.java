@@ -2,6 +2,7 @@ package com.shyx.config;
 
 import com.shyx.utils.LoginInterception;
 import com.shyx.utils.RefreshTokenInterception;
+import com.shyx.utils.SeckillAdmissionInterception;
 import jakarta.annotation.Resource;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Configuration;
@@ -25,6 +26,8 @@ public class MvcConfig implements WebMvcConfigurer {
     private StringRedisTemplate stringRedisTemplate; // 注入StringRedisTemplate，用于操作Redis缓存*/
     @Autowired
     private RefreshTokenInterception refreshTokenInterception; // 注入刷新令牌拦截器，用于处理用户令牌刷新逻辑
+    @Autowired
+    private SeckillAdmissionInterception seckillAdmissionInterception; // 注入秒杀准入拦截器，用于秒杀接口的限流和降级
     /**
      * 添加拦截器到注册表中的方法实现
      * 该方法是WebMvcConfigurer接口中的方法，用于配置Spring MVC的拦截器
@@ -61,5 +64,7 @@ public class MvcConfig implements WebMvcConfigurer {
         // 添加刷新令牌拦截器，用于处理用户令牌刷新逻辑
 //        registry.addInterceptor(new RefreshTokenInterception(stringRedisTemplate)).addPathPatterns("/**").order(0);
         registry.addInterceptor(refreshTokenInterception).addPathPatterns("/**").order(0);
+        // 添加秒杀准入拦截器，在登录校验之后执行，未通过的请求直接返回429
+        registry.addInterceptor(seckillAdmissionInterception).addPathPatterns("/voucher-order/seckill/**").order(2);
     }
 }
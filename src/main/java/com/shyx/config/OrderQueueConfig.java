@@ -0,0 +1,40 @@
+package com.shyx.config;
+
+import com.shyx.utils.BlockingOrderQueue;
+import com.shyx.utils.MappedWalOrderQueue;
+import com.shyx.utils.OrderQueue;
+import com.shyx.utils.RedisStreamOrderQueue;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.nio.file.Paths;
+
+/**
+ * 秒杀订单队列配置，按seckill.order.queue创建其中一种实现
+ */
+@Configuration
+public class OrderQueueConfig {
+    // Redis Stream，订单由秒杀Lua脚本写入，默认实现
+    @Bean
+    @ConditionalOnProperty(prefix = "seckill.order", name = "queue", havingValue = "stream", matchIfMissing = true)
+    public OrderQueue redisStreamOrderQueue() {
+        return new RedisStreamOrderQueue();
+    }
+
+    // JVM内阻塞队列
+    @Bean
+    @ConditionalOnProperty(prefix = "seckill.order", name = "queue", havingValue = "blocking")
+    public OrderQueue blockingOrderQueue() {
+        return new BlockingOrderQueue();
+    }
+
+    // 本地内存映射预写日志，关闭时刷盘
+    @Bean(destroyMethod = "close")
+    @ConditionalOnProperty(prefix = "seckill.order", name = "queue", havingValue = "wal")
+    public OrderQueue mappedWalOrderQueue(SeckillProperties seckillProperties) {
+        SeckillProperties.Wal wal = seckillProperties.getWal();
+        return new MappedWalOrderQueue(Paths.get(wal.getDir(), "orders.wal"), wal.getCapacity(),
+                wal.getSyncInterval(), seckillProperties.getOrder());
+    }
+}
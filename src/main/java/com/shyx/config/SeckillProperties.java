@@ -0,0 +1,531 @@
+package com.shyx.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 秒杀相关配置类
+ * 绑定application.yaml中以seckill为前缀的配置项，未配置时使用字段上的默认值
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "seckill")
+public class SeckillProperties {
+
+    /**
+     * 订单消息队列(stream.orders)的消费配置
+     */
+    private Order order = new Order();
+
+    /**
+     * 订单消息队列的裁剪与归档配置
+     */
+    private Retention retention = new Retention();
+
+    /**
+     * Redis Cluster部署下的秒杀key布局配置
+     */
+    private Cluster cluster = new Cluster();
+
+    /**
+     * 秒杀库存的存储配置
+     */
+    private Stock stock = new Stock();
+
+    /**
+     * 节点本地库存租约配置
+     */
+    private Lease lease = new Lease();
+
+    /**
+     * 秒杀接口的本地过滤配置
+     */
+    private LocalFilter localFilter = new LocalFilter();
+
+    /**
+     * 秒杀接口的准入控制配置
+     */
+    private Admission admission = new Admission();
+
+    /**
+     * 订单状态查询配置
+     */
+    private Status status = new Status();
+
+    /**
+     * 订单id生成配置
+     */
+    private Id id = new Id();
+
+    /**
+     * 本地预写日志订单队列配置(seckill.order.queue=wal)
+     */
+    private Wal wal = new Wal();
+
+    /**
+     * Redis与数据库的秒杀数据核对配置
+     */
+    private Reconcile reconcile = new Reconcile();
+
+    /**
+     * 未支付订单超时取消配置
+     */
+    private Timeout timeout = new Timeout();
+
+    /**
+     * 下单用户记录方式配置
+     */
+    private Purchaser purchaser = new Purchaser();
+
+    /**
+     * 秒杀key的过期和归档配置
+     */
+    private Lifecycle lifecycle = new Lifecycle();
+
+    /**
+     * 虚拟等候室配置
+     */
+    private WaitingRoom waitingRoom = new WaitingRoom();
+
+    /**
+     * 订单消息队列消费配置
+     */
+    @Data
+    public static class Order {
+        /**
+         * 订单队列实现：stream(Redis Stream)、blocking(JVM内阻塞队列)、wal(本地内存映射预写日志)
+         */
+        private String queue = "stream";
+        /**
+         * 阻塞队列(queue=blocking)的容量
+         */
+        private int blockingCapacity = 1024 * 1024;
+        /**
+         * 每个节点常驻的消费者数量
+         */
+        private int consumers = 2;
+        /**
+         * 每个节点最多允许的消费者数量，消息积压时在consumers与该值之间扩容
+         */
+        private int maxConsumers = 8;
+        /**
+         * 每个消费者能承担的积压消息数，积压超过 消费者数 * 该值 时扩容
+         */
+        private long lagPerConsumer = 500;
+        /**
+         * 巡检周期，巡检时认领失联消费者的消息、清理失联消费者并调整消费者数量
+         */
+        private Duration monitorInterval = Duration.ofSeconds(5);
+        /**
+         * pending消息空闲超过该时间，视为原消费者已失联，由本节点认领重新处理
+         */
+        private Duration claimMinIdle = Duration.ofSeconds(60);
+        /**
+         * 每次巡检最多认领的消息数
+         */
+        private int claimBatch = 100;
+        /**
+         * 消费者空闲超过该时间且没有pending消息时，从消费者组中删除
+         */
+        private Duration consumerMaxIdle = Duration.ofHours(1);
+        /**
+         * 是否开启批量持久化：一次读取多条消息，合并扣减库存、批量插入订单、批量确认
+         */
+        private boolean batchEnabled = false;
+        /**
+         * 批量持久化时每批最多处理的消息数
+         */
+        private int batchSize = 100;
+        /**
+         * 批量持久化时凑批的最长等待时间，为0则有多少处理多少
+         */
+        private Duration batchLinger = Duration.ofMillis(50);
+        /**
+         * 本地缓存最近已持久化订单id的数量，用于跳过重复投递的消息
+         */
+        private int persistedCacheSize = 10000;
+        /**
+         * 单条消息的最大投递次数，超过后转入死信队列stream.orders.dlq
+         */
+        private int maxDeliveries = 5;
+        /**
+         * 失败消息的首次重试间隔，之后每次翻倍
+         */
+        private Duration retryBackoff = Duration.ofSeconds(1);
+        /**
+         * 失败消息的最大重试间隔
+         */
+        private Duration maxRetryBackoff = Duration.ofSeconds(30);
+        /**
+         * 允许查看和重新投递死信队列的用户id，为空时任何用户都不能访问
+         */
+        private List<Long> adminUserIds = new ArrayList<>();
+    }
+
+    /**
+     * 订单消息队列的裁剪与归档配置
+     */
+    @Data
+    public static class Retention {
+        /**
+         * 是否定期裁剪已被所有消费者组确认的消息
+         */
+        private boolean enabled = true;
+        /**
+         * 裁剪周期
+         */
+        private Duration interval = Duration.ofSeconds(30);
+        /**
+         * 裁剪前是否将消息归档到本地磁盘
+         */
+        private boolean archiveEnabled = true;
+        /**
+         * 归档目录，每个stream一个子目录
+         */
+        private String archiveDir = "archive";
+        /**
+         * 单个归档分段文件的大小上限
+         */
+        private DataSize segmentSize = DataSize.ofMegabytes(64);
+        /**
+         * 归档时每次从Redis读取的消息数
+         */
+        private int archiveBatch = 1000;
+    }
+
+    /**
+     * Redis Cluster部署下的秒杀key布局配置
+     */
+    @Data
+    public static class Cluster {
+        /**
+         * 是否开启集群模式：每个优惠券的库存key、下单用户key与所属的订单stream使用相同的hash tag，
+         * 保证seckill.lua访问的key都在同一个slot
+         */
+        private boolean enabled = false;
+        /**
+         * 订单stream的分片数，优惠券按id取模分配到分片，建议为集群主节点数的数倍；
+         * 活动进行中不能修改，否则优惠券的key会映射到新的slot
+         */
+        private int streams = 16;
+        /**
+         * 消费者负责多个stream时，一轮都没有读到消息后的休眠时间
+         */
+        private Duration pollInterval = Duration.ofMillis(50);
+    }
+
+    /**
+     * 秒杀库存的存储配置
+     */
+    @Data
+    public static class Stock {
+        /**
+         * 每个优惠券的库存分桶数，为1时使用单个库存key；
+         * 大于1时库存平均拆分到多个key，用户优先扣减按用户id选中的桶，该桶售罄再依次尝试其他桶。
+         * 只对之后新增的优惠券生效，活动进行中不能修改
+         */
+        private int buckets = 1;
+    }
+
+    /**
+     * 节点本地库存租约配置
+     */
+    @Data
+    public static class Lease {
+        /**
+         * 是否开启库存租约：节点每次从Redis租一批库存，在本地计数器上扣减，
+         * Redis只负责一人一单校验和订单入队
+         */
+        private boolean enabled = false;
+        /**
+         * 每次租用的库存数量
+         */
+        private int chunk = 50;
+        /**
+         * Redis库存已租完后，再次尝试租用的最短间隔，期间直接返回库存不足
+         */
+        private Duration retryInterval = Duration.ofMillis(500);
+        /**
+         * 检查优惠券是否结束的周期，结束的优惠券未售出的租约归还Redis
+         */
+        private Duration checkInterval = Duration.ofSeconds(5);
+    }
+
+    /**
+     * 秒杀接口的本地过滤配置
+     */
+    @Data
+    public static class LocalFilter {
+        /**
+         * 是否开启本地售罄标记：Lua脚本返回库存不足后，本节点直接拒绝该优惠券的请求，
+         * 直到收到补货消息或标记过期
+         */
+        private boolean soldOutEnabled = true;
+        /**
+         * 售罄标记的有效期，防止错过补货消息后一直拒绝
+         */
+        private Duration soldOutTtl = Duration.ofSeconds(10);
+        /**
+         * 是否开启本地已购用户布隆过滤器：命中的用户到Redis确认已购买后返回不能重复下单
+         */
+        private boolean purchasedEnabled = true;
+        /**
+         * 每个优惠券预计的购买用户数，用于计算布隆过滤器的大小
+         */
+        private int expectedPurchasers = 100000;
+        /**
+         * 布隆过滤器的误判率，误判的用户多一次Redis确认
+         */
+        private double fpp = 0.0001;
+        /**
+         * 布隆过滤器空闲超过该时间后删除，之后重新积累
+         */
+        private Duration purchasedIdle = Duration.ofMinutes(10);
+    }
+
+    /**
+     * 秒杀接口的准入控制配置
+     */
+    @Data
+    public static class Admission {
+        /**
+         * 是否开启准入控制，未通过的请求直接返回429
+         */
+        private boolean enabled = true;
+        /**
+         * 每个节点同时处理的秒杀请求上限，保证其他接口仍有可用的Tomcat线程和Redis连接
+         */
+        private int maxConcurrent = 50;
+        /**
+         * 本地令牌桶每秒发放的令牌数 = 剩余库存 * 该值，限制在minRate与maxRate之间
+         */
+        private double ratePerStock = 2;
+        /**
+         * 本地令牌桶每秒最少发放的令牌数，库存为0时仍放行少量请求
+         */
+        private int minRate = 10;
+        /**
+         * 本地令牌桶每秒最多发放的令牌数
+         */
+        private int maxRate = 1000;
+        /**
+         * 剩余库存的刷新周期
+         */
+        private Duration stockRefreshInterval = Duration.ofSeconds(1);
+        /**
+         * 全局滑动窗口内每个优惠券最多放行的请求数，为0则不做全局限流
+         */
+        private int globalLimit = 2000;
+        /**
+         * 全局滑动窗口的长度
+         */
+        private Duration window = Duration.ofSeconds(1);
+        /**
+         * 订单消息积压超过该值时拒绝新的秒杀请求，为0则不限制
+         */
+        private long maxLag = 10000;
+    }
+
+    /**
+     * 订单状态查询配置
+     */
+    @Data
+    public static class Status {
+        /**
+         * 订单状态在Redis中的保留时间
+         */
+        private Duration ttl = Duration.ofHours(1);
+        /**
+         * 长轮询的最长等待时间，客户端请求的等待时间超过该值时按该值处理
+         */
+        private Duration maxWait = Duration.ofSeconds(30);
+    }
+
+    /**
+     * 订单id生成配置
+     */
+    @Data
+    public static class Id {
+        /**
+         * 号段大小：每次用INCRBY从Redis租用一段序列号，在内存中分配；为1则每个id调用一次INCR
+         */
+        private int segmentSize = 1000;
+        /**
+         * 当前号段剩余比例低于该值时，异步预取下一个号段
+         */
+        private double prefetchRatio = 0.2;
+    }
+
+    /**
+     * 本地预写日志订单队列配置
+     */
+    @Data
+    public static class Wal {
+        /**
+         * 日志文件所在目录
+         */
+        private String dir = "wal";
+        /**
+         * 环形日志能容纳的未处理订单数，写满时下单请求等待消费者释放空间
+         */
+        private int capacity = 1 << 20;
+        /**
+         * 刷盘周期，进程崩溃不丢数据，操作系统崩溃最多丢失该时间内的订单
+         */
+        private Duration syncInterval = Duration.ofMillis(100);
+    }
+
+    /**
+     * Redis与数据库的秒杀数据核对配置
+     */
+    @Data
+    public static class Reconcile {
+        /**
+         * 是否开启后台核对
+         */
+        private boolean enabled = true;
+        /**
+         * 核对周期
+         */
+        private Duration interval = Duration.ofSeconds(60);
+        /**
+         * 是否修复发现的偏差；关闭时只记录日志和指标
+         */
+        private boolean repair = true;
+        /**
+         * 每次查询的订单数
+         */
+        private int batchSize = 1000;
+        /**
+         * 按下单时间增量检查订单时向前回看的时间，覆盖下单时间早于游标、提交晚于上次检查的事务
+         */
+        private Duration overlap = Duration.ofSeconds(10);
+        /**
+         * 每次核对最多查询的批数，剩余的订单下次继续
+         */
+        private int maxBatches = 20;
+        /**
+         * 是否在启动时预热库存和下单用户集合
+         */
+        private boolean preloadEnabled = true;
+        /**
+         * 启动预热的并行线程数
+         */
+        private int preloadThreads = 4;
+    }
+
+    /**
+     * 未支付订单超时取消配置
+     */
+    @Data
+    public static class Timeout {
+        /**
+         * 是否开启超时取消
+         */
+        private boolean enabled = true;
+        /**
+         * 支付超时时间，从下单时间开始计算
+         */
+        private Duration payTimeout = Duration.ofMinutes(15);
+        /**
+         * 时间轮的刻度
+         */
+        private Duration tick = Duration.ofMillis(100);
+        /**
+         * 时间轮每层的槽数，为2的幂
+         */
+        private int wheelSize = 64;
+        /**
+         * 每次从Redis加载到时间轮的时间范围，只加载该范围内到期的订单
+         */
+        private Duration horizon = Duration.ofSeconds(60);
+        /**
+         * 加载周期，应小于horizon
+         */
+        private Duration loadInterval = Duration.ofSeconds(10);
+        /**
+         * 每次从Redis读取的订单数
+         */
+        private int loadBatch = 10000;
+        /**
+         * 每批取消的订单数
+         */
+        private int batchSize = 500;
+        /**
+         * 认领到期订单后处理的最长时间，节点在此期间崩溃时订单重新到期，由其他节点处理
+         */
+        private Duration claimTimeout = Duration.ofSeconds(60);
+    }
+
+    /**
+     * 下单用户记录方式配置
+     */
+    @Data
+    public static class Purchaser {
+        /**
+         * 是否用bitmap记录下单用户：以用户id为偏移量SETBIT/GETBIT，用户id连续时比set节省一到两个数量级的内存；
+         * 用户id须小于2^32。活动进行中不能切换，两种方式使用不同的key
+         */
+        private boolean bitmap = false;
+    }
+
+    /**
+     * 秒杀key的过期和归档配置
+     */
+    @Data
+    public static class Lifecycle {
+        /**
+         * 是否开启
+         */
+        private boolean enabled = true;
+        /**
+         * 优惠券结束后key继续保留的时间，需大于支付超时时间，保证超时取消和核对还能使用
+         */
+        private Duration retention = Duration.ofDays(1);
+        /**
+         * 检查周期
+         */
+        private Duration interval = Duration.ofMinutes(5);
+        /**
+         * 是否在优惠券结束后把下单用户和剩余库存归档到本地磁盘，目录见seckill.retention.archive-dir
+         */
+        private boolean archiveEnabled = true;
+    }
+
+    /**
+     * 虚拟等候室配置
+     */
+    @Data
+    public static class WaitingRoom {
+        /**
+         * 是否开启，开启后voucherIds中的优惠券只接受已经轮到的排队号的秒杀请求
+         */
+        private boolean enabled = false;
+        /**
+         * 使用等候室的优惠券id，为空时所有秒杀优惠券都使用
+         */
+        private List<Long> voucherIds = new ArrayList<>();
+        /**
+         * 开始时间之前多久可以领取排队号
+         */
+        private Duration openBefore = Duration.ofMinutes(10);
+        /**
+         * 开始时间到达时立即放行的排队号数量
+         */
+        private long burst = 200;
+        /**
+         * 开始之后每秒放行的排队号数量，应与Lua脚本和订单消费者的处理能力相当
+         */
+        private double rate = 500;
+        /**
+         * 本地缓存的优惠券开始和结束时间的刷新周期
+         */
+        private Duration voucherCacheTtl = Duration.ofSeconds(10);
+    }
+}
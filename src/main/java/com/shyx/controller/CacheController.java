@@ -0,0 +1,33 @@
+package com.shyx.controller;
+
+import com.shyx.dto.Result;
+import com.shyx.utils.CacheClient;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.annotation.Resource;
+
+/**
+ * 缓存控制器类
+ * 提供缓存运行状态的查询接口
+ */
+@RestController
+@RequestMapping("/cache")
+public class CacheController {
+
+    @Resource
+    private CacheClient cacheClient; // 缓存客户端
+
+    /**
+     * 查询访问频率最高的缓存key
+     *
+     * @param limit 最多返回的数量
+     * @return 按频率从高到低排列的key和估计频率(最大为15)
+     */
+    @GetMapping("/hot-keys")
+    public Result queryHotKeys(@RequestParam(value = "limit", defaultValue = "20") Integer limit) {
+        return Result.ok(cacheClient.hotKeys(limit));
+    }
+}
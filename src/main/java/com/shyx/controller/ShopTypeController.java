@@ -1,15 +1,19 @@
 package com.shyx.controller;
 
 
-import com.shyx.dto.Result;
-import com.shyx.entity.ShopType;
+import com.shyx.dto.ShopTypeSnapshot;
 import com.shyx.service.IShopTypeService;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
 import javax.annotation.Resource;
-import java.util.List;
 
 /**
  * <p>
@@ -25,11 +29,75 @@ public class ShopTypeController {
     @Resource
     private IShopTypeService typeService;
 
+    /**
+     * 查询商户类型列表
+     * 直接返回快照中预先序列化的响应体，客户端支持gzip(q值大于0)时返回压缩后的字节；
+     * 两种编码使用各自的ETag，If-None-Match与本次返回的编码的ETag相同时返回304，不返回响应体，缓存相关的响应头与200相同
+     *
+     * @param ifNoneMatch    客户端缓存的ETag
+     * @param acceptEncoding 客户端支持的压缩方式
+     * @return JSON格式的Result
+     */
     @GetMapping("list")
-    public Result queryTypeList() {
+    public ResponseEntity<byte[]> queryTypeList(
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch,
+            @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding) {
        /* List<ShopType> typeList = typeService
                 .query().orderByAsc("sort").list();
         return Result.ok(typeList);*/
-        return typeService.getTypeList();
+        ShopTypeSnapshot snapshot = typeService.getTypeSnapshot();
+        boolean gzip = acceptsGzip(acceptEncoding);
+        String etag = gzip ? snapshot.getGzipEtag() : snapshot.getEtag();
+        if (ifNoneMatch != null && (ifNoneMatch.contains(etag) || ifNoneMatch.trim().equals("*"))) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                    .eTag(etag)
+                    .cacheControl(CacheControl.noCache())
+                    .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING)
+                    .build();
+        }
+        ResponseEntity.BodyBuilder builder = ResponseEntity.ok()
+                .eTag(etag)
+                .cacheControl(CacheControl.noCache())
+                .contentType(MediaType.APPLICATION_JSON)
+                .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        if (gzip) {
+            return builder.header(HttpHeaders.CONTENT_ENCODING, "gzip").body(snapshot.getGzipBody());
+        }
+        return builder.body(snapshot.getBody());
+    }
+
+    /**
+     * 按Accept-Encoding判断客户端是否接受gzip：gzip(或x-gzip)的q值大于0，没有列出gzip时看*的q值
+     *
+     * @param acceptEncoding 例如 gzip, deflate;q=0.5, *;q=0
+     * @return 是否返回gzip压缩的响应体
+     */
+    private static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        Boolean gzip = null;
+        boolean any = false;
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parts = coding.split(";");
+            String name = parts[0].trim().toLowerCase();
+            double q = 1;
+            for (int i = 1; i < parts.length; i++) {
+                String param = parts[i].trim();
+                if (param.startsWith("q=")) {
+                    try {
+                        q = Double.parseDouble(param.substring(2).trim());
+                    } catch (NumberFormatException e) {
+                        q = 0;
+                    }
+                }
+            }
+            if (name.equals("gzip") || name.equals("x-gzip")) {
+                gzip = q > 0;
+            } else if (name.equals("*")) {
+                any = q > 0;
+            }
+        }
+        return gzip != null ? gzip : any;
     }
 }
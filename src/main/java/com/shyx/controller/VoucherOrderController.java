@@ -3,10 +3,8 @@ package com.shyx.controller;
 
 import com.shyx.dto.Result;
 import com.shyx.service.IVoucherOrderService;
-import org.springframework.web.bind.annotation.PathVariable;
-import org.springframework.web.bind.annotation.PostMapping;
-import org.springframework.web.bind.annotation.RequestMapping;
-import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.DeferredResult;
 
 import javax.annotation.Resource;
 
@@ -32,4 +30,62 @@ public class VoucherOrderController {
     public Result seckillVoucher(@PathVariable("id") Long voucherId) {
         return voucherOrderService.seckillVoucher(voucherId);
     }
+
+    /**
+     * 领取秒杀优惠券的等候室排队号，开始时间之前即可领取
+     *
+     * @param voucherId 优惠券ID
+     * @return 排队号、已放行到的排队号、前面的人数和预计等待时间
+     */
+    @PostMapping("room/{id}")
+    public Result takeTicket(@PathVariable("id") Long voucherId) {
+        return voucherOrderService.takeTicket(voucherId);
+    }
+
+    /**
+     * 查询当前用户在等候室中的排队位置，position为0时可以发起秒杀
+     *
+     * @param voucherId 优惠券ID
+     * @return 排队号、已放行到的排队号、前面的人数和预计等待时间
+     */
+    @GetMapping("room/{id}")
+    public Result queryTicket(@PathVariable("id") Long voucherId) {
+        return voucherOrderService.queryTicket(voucherId);
+    }
+
+    /**
+     * 查询秒杀订单的持久化状态
+     * 订单尚未持久化时最多等待wait秒(长轮询)，状态变化后立即返回
+     *
+     * @param orderId 订单id
+     * @param wait    最长等待时间(秒)，默认0即立即返回
+     * @return 订单状态：queued、persisted、failed或unknown
+     */
+    @GetMapping("status/{id}")
+    public DeferredResult<Result> queryOrderStatus(@PathVariable("id") Long orderId,
+                                                   @RequestParam(value = "wait", defaultValue = "0") Long wait) {
+        return voucherOrderService.queryOrderStatus(orderId, wait);
+    }
+
+    /**
+     * 查询订单死信队列，仅seckill.order.admin-user-ids中的用户可以访问
+     *
+     * @param count 查询数量，默认20条
+     * @return 死信消息列表
+     */
+    @GetMapping("dlq")
+    public Result queryDeadLetters(@RequestParam(value = "count", defaultValue = "20") Integer count) {
+        return voucherOrderService.queryDeadLetters(count);
+    }
+
+    /**
+     * 将死信消息重新投递到订单消息队列，仅seckill.order.admin-user-ids中的用户可以访问
+     *
+     * @param id 死信消息id
+     * @return 处理结果
+     */
+    @PostMapping("dlq/{id}/replay")
+    public Result replayDeadLetter(@PathVariable("id") String id) {
+        return voucherOrderService.replayDeadLetter(id);
+    }
 }
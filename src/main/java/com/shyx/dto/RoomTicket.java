@@ -0,0 +1,19 @@
+package com.shyx.dto;
+
+import lombok.Data;
+
+/**
+ * 等候室排队号
+ * 用于返回用户的排队号、当前放行到的排队号和前面还有多少人
+ */
+@Data
+public class RoomTicket {
+    // 排队号，从1开始
+    private Long ticket;
+    // 已经放行到的排队号，小于等于该值的排队号可以参与秒杀
+    private Long admitted;
+    // 前面还需要等待的排队号数量，0表示已经轮到
+    private Long position;
+    // 预计等待时间(毫秒)
+    private Long waitMillis;
+}
@@ -0,0 +1,48 @@
+package com.shyx.dto;
+
+import com.shyx.entity.ShopType;
+import lombok.Getter;
+
+import java.util.List;
+
+/**
+ * 商户类型列表的不可变快照
+ * 构建时一次性生成完整的响应体及其gzip压缩结果，请求直接返回这些字节，不再访问Redis、不再序列化；
+ * 列表变化时整体替换为新的快照，已经发出的快照不会被修改
+ */
+@Getter
+public class ShopTypeSnapshot {
+    /**
+     * Redis中的版本号，修改商户类型后递增
+     */
+    private final long version;
+    /**
+     * 按sort排序的商户类型，不可修改
+     */
+    private final List<ShopType> types;
+    /**
+     * JSON格式的响应体
+     */
+    private final byte[] body;
+    /**
+     * gzip压缩后的响应体
+     */
+    private final byte[] gzipBody;
+    /**
+     * 响应体的ETag，版本号加内容摘要
+     */
+    private final String etag;
+    /**
+     * gzip响应体的ETag，同一内容的两种编码是不同的字节，使用不同的强ETag
+     */
+    private final String gzipEtag;
+
+    public ShopTypeSnapshot(long version, List<ShopType> types, byte[] body, byte[] gzipBody, String etag, String gzipEtag) {
+        this.version = version;
+        this.types = types;
+        this.body = body;
+        this.gzipBody = gzipBody;
+        this.etag = etag;
+        this.gzipEtag = gzipEtag;
+    }
+}
@@ -3,6 +3,9 @@ package com.shyx.mapper;
 import com.shyx.entity.SeckillVoucher;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
 
+import java.util.List;
+import java.util.Map;
+
 /**
  * <p>
  * 秒杀优惠券表，与优惠券是一对一关系 Mapper 接口
@@ -13,4 +16,9 @@ import com.baomidou.mybatisplus.core.mapper.BaseMapper;
  */
 public interface SeckillVoucherMapper extends BaseMapper<SeckillVoucher> {
 
+    /**
+     * 查询未结束的秒杀优惠券的剩余库存和已售数量(未取消的订单数)，一条语句读取，两者来自同一个快照
+     * @return 每个优惠券一行：voucherId、stock、sold
+     */
+    List<Map<String, Object>> queryActiveStock();
 }
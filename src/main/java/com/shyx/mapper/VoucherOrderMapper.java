@@ -2,6 +2,11 @@ package com.shyx.mapper;
 
 import com.shyx.entity.VoucherOrder;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Param;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
 
 /**
  * <p>
@@ -13,4 +18,47 @@ import com.baomidou.mybatisplus.core.mapper.BaseMapper;
  */
 public interface VoucherOrderMapper extends BaseMapper<VoucherOrder> {
 
+    /**
+     * 插入订单，(user_id, voucher_id)已存在时忽略
+     * @param order 订单
+     * @return 插入的行数，0表示用户已经购买过该优惠券
+     */
+    int insertIgnore(VoucherOrder order);
+
+    /**
+     * 批量插入订单，一条多行INSERT IGNORE语句完成，(user_id, voucher_id)已存在的行被忽略
+     * @param orders 订单列表，不能为空
+     * @return 实际插入的行数
+     */
+    int insertIgnoreBatch(@Param("orders") List<VoucherOrder> orders);
+
+    /**
+     * 按id游标查询指定优惠券的未取消订单，只查询id、user_id、voucher_id
+     * @param cursor     上次查询到的最大订单id
+     * @param maxId      订单id上限(包含)，为null时不限制
+     * @param voucherIds 优惠券id，不能为空
+     * @param limit      最多返回的行数
+     * @return 订单列表，按id升序
+     */
+    List<VoucherOrder> queryAfter(@Param("cursor") long cursor, @Param("maxId") Long maxId,
+                                  @Param("voucherIds") Collection<Long> voucherIds, @Param("limit") int limit);
+
+    /**
+     * 按(下单时间, id)游标查询指定优惠券的未取消订单，只查询id、user_id、voucher_id、create_time
+     * @param since      上次查询到的最后一个订单的下单时间，为null时从头查询
+     * @param lastId     上次查询到的最后一个订单的id，下单时间相同时只查询id更大的订单
+     * @param voucherIds 优惠券id，不能为空
+     * @param limit      最多返回的行数
+     * @return 订单列表，按下单时间和id升序
+     */
+    List<VoucherOrder> queryCreatedAfter(@Param("since") LocalDateTime since, @Param("lastId") long lastId,
+                                         @Param("voucherIds") Collection<Long> voucherIds, @Param("limit") int limit);
+
+    /**
+     * 删除这些订单的用户在对应优惠券上已取消的订单，已取消的订单占用(user_id, voucher_id)唯一索引，删除后才能重新购买；
+     * 与这些订单id相同的已取消订单(重复投递的消息)不删除，避免被重新写入
+     * @param orders 订单列表，不能为空
+     * @return 删除的行数
+     */
+    int deleteCancelled(@Param("orders") List<VoucherOrder> orders);
 }
@@ -29,4 +29,12 @@ public interface IShopService extends IService<Shop> {
      * @return 返回操作结果，可能包含成功/失败状态及相关信息
      */
     Result update(Shop shop);
+
+    /**
+     * 新增商铺
+     *
+     * @param shop 商铺数据
+     * @return 商铺id
+     */
+    Result saveShop(Shop shop);
 }
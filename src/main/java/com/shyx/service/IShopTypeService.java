@@ -1,6 +1,7 @@
 package com.shyx.service;
 
 import com.shyx.dto.Result;
+import com.shyx.dto.ShopTypeSnapshot;
 import com.shyx.entity.ShopType;
 import com.baomidou.mybatisplus.extension.service.IService;
 
@@ -16,4 +17,6 @@ import com.baomidou.mybatisplus.extension.service.IService;
  */
 public interface IShopTypeService extends IService<ShopType> {    // 定义服务接口，继承IService<ShopType>，泛型参数ShopType表示该服务处理的是ShopType实体类
     Result getTypeList();    // 定义一个show方法，返回Result类型的结果，用于展示店铺类型信息
+
+    ShopTypeSnapshot getTypeSnapshot();    // 获取商户类型列表的快照，包含预先序列化的响应体和ETag
 }
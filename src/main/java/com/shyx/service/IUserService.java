@@ -3,10 +3,13 @@ package com.shyx.service;
 import com.baomidou.mybatisplus.extension.service.IService;
 import com.shyx.dto.LoginFormDTO;
 import com.shyx.dto.Result;
+import com.shyx.dto.UserDTO;
 import com.shyx.entity.User;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpSession;
+import java.util.Collection;
+import java.util.Map;
 
 
 /**
@@ -41,4 +44,12 @@ public interface IUserService extends IService<User> {
      * @return 操作结果，包含退出成功/失败信息
      */
     Result logout(HttpSession session, HttpServletRequest request);
+
+    /**
+     * 批量查询用户的公开信息，优先读取缓存，未命中的用户一次查询数据库
+     *
+     * @param ids 用户id
+     * @return 用户id -> 用户信息，不存在的用户不包含在内
+     */
+    Map<Long, UserDTO> queryUserDTOs(Collection<Long> ids);
 }
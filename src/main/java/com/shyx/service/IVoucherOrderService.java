@@ -3,6 +3,10 @@ package com.shyx.service;
 import com.shyx.dto.Result;
 import com.shyx.entity.VoucherOrder;
 import com.baomidou.mybatisplus.extension.service.IService;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import java.util.List;
+import java.util.Set;
 
 /**
  * <p>
@@ -26,6 +30,66 @@ public interface IVoucherOrderService extends IService<VoucherOrder> {
      * 创建优惠券订单的方法
      *
      * @param voucherOrder 优惠券订单对象，包含创建订单所需的全部信息
+     * @return 订单是否写入成功，重复下单或库存不足时返回false
+     */
+    boolean createVoucherOrder(VoucherOrder voucherOrder);
+
+    /**
+     * 批量创建优惠券订单的方法
+     * 同一优惠券的订单合并扣减库存，所有订单一次批量插入，在同一个事务中完成
+     *
+     * @param voucherOrders 优惠券订单列表
+     * @return 写入成功的订单id，重复下单被忽略的订单不包含在内
+     */
+    Set<Long> createVoucherOrders(List<VoucherOrder> voucherOrders);
+
+    /**
+     * 取消超时未支付的订单，在同一个事务中把订单改为已取消并归还秒杀库存
+     * 之前已经取消过的订单(上次归还Redis库存前失败)也一并返回，由调用方重新归还Redis库存
+     *
+     * @param orderIds 到期的订单id
+     * @return 本次取消和之前已取消的订单(包含id、userId、voucherId、status)，已支付或不存在的订单不包含在内
+     */
+    List<VoucherOrder> cancelUnpaidOrders(List<Long> orderIds);
+
+    /**
+     * 查询订单死信队列
+     *
+     * @param count 查询数量
+     * @return 死信消息列表，每条包含id和消息内容
+     */
+    Result queryDeadLetters(Integer count);
+
+    /**
+     * 将死信消息重新投递到原订单消息队列
+     *
+     * @param id 死信消息id
+     * @return 操作结果
+     */
+    Result replayDeadLetter(String id);
+
+    /**
+     * 查询秒杀订单的持久化状态，只访问Redis
+     *
+     * @param orderId 订单id
+     * @param wait    最长等待时间(秒)，订单未进入最终状态时等待状态变化，为0则立即返回
+     * @return 异步返回订单状态：queued、persisted、failed或unknown
+     */
+    DeferredResult<Result> queryOrderStatus(Long orderId, Long wait);
+
+    /**
+     * 领取秒杀优惠券的等候室排队号，同一用户重复领取返回原来的排队号
+     *
+     * @param voucherId 优惠券id
+     * @return 排队号、已放行到的排队号和前面的人数
+     */
+    Result takeTicket(Long voucherId);
+
+    /**
+     * 查询当前用户在等候室中的排队位置
+     *
+     * @param voucherId 优惠券id
+     * @return 排队号、已放行到的排队号和前面的人数
      */
-    void createVoucherOrder(VoucherOrder voucherOrder);
+    Result queryTicket(Long voucherId);
 }
@@ -9,7 +9,6 @@ import com.shyx.dto.ScrollResult;
 import com.shyx.dto.UserDTO;
 import com.shyx.entity.Blog;
 import com.shyx.entity.Follow;
-import com.shyx.entity.User;
 import com.shyx.mapper.BlogMapper;
 import com.shyx.service.IBlogService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
@@ -18,6 +17,8 @@ import com.shyx.service.IUserService;
 import com.shyx.utils.SystemConstants;
 import com.shyx.utils.UserHolder;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.ZSetOperations;
 import org.springframework.stereotype.Service;
@@ -26,6 +27,7 @@ import javax.annotation.Resource;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.stream.Collectors;
 
@@ -62,11 +64,9 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
                 .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
         // 获取当前页数据
         List<Blog> records = page.getRecords();
-        // 查询用户
-        records.forEach(blog -> {
-            this.queryBlogUser(blog);    // 查询博客作者信息
-            this.isBlogLiked(blog);     // 检查当前用户是否点赞过该博客
-        });
+        // 批量查询博客作者信息和当前用户是否点赞，往返次数与博客数量无关
+        this.queryBlogUsers(records);
+        this.isBlogsLiked(records);
 //        records.forEach(this::queryBlogUser);
 //        records.forEach(blog -> queryBlogUser(blog));
         return Result.ok(records);
@@ -86,50 +86,59 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
             return Result.fail("博客不存在");
         }
         //查询blog有关的用户
-        queryBlogUser(blog);    // 查询博客作者信息
+        queryBlogUsers(Collections.singletonList(blog));    // 查询博客作者信息
         //查询blog是否被点赞过
-        isBlogLiked(blog);      // 检查当前用户是否点赞过该博客
+        isBlogsLiked(Collections.singletonList(blog));      // 检查当前用户是否点赞过该博客
         return Result.ok(blog);
     }
 
     /**
-     * 检查当前用户是否点赞过该博客
+     * 检查当前用户是否点赞过这些博客
+     * 所有博客的ZSCORE在一个pipeline中发送
      *
-     * @param blog 博客对象
+     * @param blogs 博客列表
      */
-    private void isBlogLiked(Blog blog) {
+    private void isBlogsLiked(List<Blog> blogs) {
         //1.获取登录用户
         UserDTO user = UserHolder.getUser();
-        if (user == null) {
+        if (user == null || blogs.isEmpty()) {
             //用户未登录，无需查询是否需要点赞
             return;
         }
-        Long userId = user.getId();
+        String userId = user.getId().toString();
         //2.判断当前用户是否已经点赞
-        String key = "blog:liked:" + blog.getId();
-        //Boolean isMember = stringRedisTemplate.opsForSet().isMember(key, userId.toString());
-        Double score = stringRedisTemplate.opsForZSet().score(key, userId.toString());
+        List<Object> scores = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            blogs.forEach(blog -> conn.zScore(BLOG_LIKED_KEY + blog.getId(), userId));
+            return null;
+        });
         //3.设置是否点赞过
-        //blog.setIsLike(BooleanUtil.isTrue(isMember));
-        blog.setIsLike(score != null);
+        for (int i = 0; i < blogs.size(); i++) {
+            blogs.get(i).setIsLike(scores.get(i) != null);
+        }
     }
 
 
     /**
      * 查询博客作者信息并设置到博客对象中
-     * 此方法通过博客ID获取用户信息，并将用户的昵称和头像设置到博客对象中
+     * 所有作者通过用户缓存批量查询，未命中的作者一次查询数据库
      *
-     * @param blog 博客对象，需要设置作者信息的博客实例
+     * @param blogs 博客列表，需要设置作者信息的博客实例
      */
-    private void queryBlogUser(Blog blog) {
-        // 从博客对象中获取用户ID
-        Long userId = blog.getUserId();
-        // 根据用户ID查询用户信息
-        User user = userService.getById(userId);
-        // 将用户的昵称设置到博客对象中
-        blog.setName(user.getNickName());
-        // 将用户的头像设置到博客对象中
-        blog.setIcon(user.getIcon());
+    private void queryBlogUsers(List<Blog> blogs) {
+        // 批量查询作者信息
+        Map<Long, UserDTO> users = userService.queryUserDTOs(
+                blogs.stream().map(Blog::getUserId).collect(Collectors.toList()));
+        for (Blog blog : blogs) {
+            UserDTO user = users.get(blog.getUserId());
+            if (user == null) {
+                continue;
+            }
+            // 将用户的昵称设置到博客对象中
+            blog.setName(user.getNickName());
+            // 将用户的头像设置到博客对象中
+            blog.setIcon(user.getIcon());
+        }
     }
 
     /**
@@ -190,13 +199,8 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
                 .stream()
                 .map(user -> BeanUtil.copyProperties(user, UserDTO.class))
                 .collect(Collectors.toList());*/
-        List<UserDTO> userDTOS = userService
-                .query().in("id", ids)
-                .last("ORDER BY FIELD(id," + StrUtil.join(",", ids) + ")")
-                .list()
-                .stream()
-                .map(user -> BeanUtil.copyProperties(user, UserDTO.class))
-                .collect(Collectors.toList());
+        // 通过用户缓存批量查询，结果按点赞时间排列
+        List<UserDTO> userDTOS = new ArrayList<>(userService.queryUserDTOs(ids).values());
         //返回
         return Result.ok(userDTOS);
     }
@@ -273,12 +277,10 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
         //根据id查询blog
         String idStr = StrUtil.join(",", ids);
         List<Blog> blogs = query().in("id", ids).last("ORDER BY FIELD(id," + idStr + ")").list();
-        for (Blog blog : blogs) {
-            //查询blog有关的用户
-            queryBlogUser(blog);
-            //查询blog是否被点赞
-            isBlogLiked(blog);
-        }
+        //查询blog有关的用户
+        queryBlogUsers(blogs);
+        //查询blog是否被点赞
+        isBlogsLiked(blogs);
         //封装blog对象，并返回
         ScrollResult r = new ScrollResult();
         r.setList(blogs);
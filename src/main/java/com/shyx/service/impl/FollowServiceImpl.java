@@ -1,11 +1,9 @@
 package com.shyx.service.impl;
 
-import cn.hutool.core.bean.BeanUtil;
 import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
 import com.shyx.dto.Result;
 import com.shyx.dto.UserDTO;
 import com.shyx.entity.Follow;
-import com.shyx.entity.User;
 import com.shyx.mapper.FollowMapper;
 import com.shyx.service.IFollowService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
@@ -15,6 +13,7 @@ import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.Resource;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Set;
@@ -100,7 +99,7 @@ public class FollowServiceImpl extends ServiceImpl<FollowMapper, Follow> impleme
         Long userId = UserHolder.getUser().getId();
 
         String key1 = "follows:" + userId;
-        String key2 = "follows:" + userId;
+        String key2 = "follows:" + id;
 
         //计算共同关注
         Set<String> intersect = stringRedisTemplate.opsForSet().intersect(key1, key2);
@@ -109,11 +108,8 @@ public class FollowServiceImpl extends ServiceImpl<FollowMapper, Follow> impleme
         }
         //解析id集合
         List<Long> ids = intersect.stream().map(Long::valueOf).collect(Collectors.toList());
-        //查询用户
-        List<UserDTO> userDTOS = userService.listByIds(ids)
-                .stream()
-                .map(user -> BeanUtil.copyProperties(user, UserDTO.class))
-                .collect(Collectors.toList());
+        //通过用户缓存批量查询
+        List<UserDTO> userDTOS = new ArrayList<>(userService.queryUserDTOs(ids).values());
         return Result.ok(userDTOS);
     }
 }
@@ -1,28 +1,25 @@
 package com.shyx.service.impl;
 
-import cn.hutool.bloomfilter.BloomFilter;
-import cn.hutool.core.util.BooleanUtil;
 import cn.hutool.core.util.StrUtil;
-import cn.hutool.json.JSONObject;
 import cn.hutool.json.JSONUtil;
 import com.shyx.dto.Result;
 import com.shyx.entity.Shop;
 import com.shyx.mapper.ShopMapper;
 import com.shyx.service.IShopService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
 import com.shyx.utils.CacheClient;
-import com.shyx.utils.RedisData;
+import com.shyx.utils.CacheInvalidator;
+import com.shyx.utils.RedisBloomFilter;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
 import java.nio.charset.Charset;
 import java.time.Duration;
-import java.time.LocalDateTime;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 
 import static com.shyx.utils.RedisConstants.*;
@@ -43,6 +40,22 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
     @Resource
     private CacheClient cacheClient;//注入缓存客户端，用于缓存操作
 
+    @Resource
+    private RedisBloomFilter bloomFilter;//注入布隆过滤器，拦截不存在的商铺id
+
+    @Resource
+    private CacheInvalidator cacheInvalidator;//注入缓存删除队列，事务提交后删除缓存
+
+    /**
+     * 初始化：注册商铺id的布隆过滤器，启动后从数据库按id分页读取全部商铺id构建
+     */
+    @PostConstruct
+    private void initBloomFilter() {
+        bloomFilter.register(BLOOM_SHOP, CACHE_SHOP_KEY, (lastId, limit) -> listObjs(
+                new QueryWrapper<Shop>().select("id").gt("id", lastId).orderByAsc("id").last("limit " + limit),
+                id -> ((Number) id).longValue()));
+    }
+
     /**
      * 根据ID查询商铺信息
      * 该方法提供了两种缓存策略：缓存穿透和缓存击穿
@@ -122,115 +135,29 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         return Result.ok(shop);
     }
 
-    /**
-     * 线程池
-     * 使用线程池来处理缓存重建任务，避免缓存重建任务阻塞主线程
-     */
-    private static final ExecutorService CACHE_REBUILD_EXECUTOR = Executors.newFixedThreadPool(10);
-
     /**
      * 根据商铺ID查询商铺信息，使用逻辑过期策略处理缓存
+     * 过期后返回旧数据，由CacheClient的重建线程池异步重建
      *
      * @param id 商铺ID
-     * @return 商铺信息对象，如果不存在或已过期则返回null
+     * @return 商铺信息对象，可能是逻辑过期的旧数据，不存在时返回null
      */
     public Shop queryWithLogicalExpire(Long id) {
-        String key = CACHE_SHOP_KEY + id; // 定义Redis缓存键，拼接商铺ID
-        //从redis查询商铺缓存
-        String shopJson = stringRedisTemplate.opsForValue().get(key);
-        //判断是否存在
-        if (StrUtil.isBlank(shopJson)) {
-            return null;
-        }
-        //命中，需要先把json反序列化为对象
-        RedisData redisData = JSONUtil.toBean(shopJson, RedisData.class);
-        Shop shop = JSONUtil.toBean((JSONObject) redisData.getData(), Shop.class);
-        LocalDateTime expireTime = redisData.getExpireTime();
-        //判断是否过期
-        if (expireTime.isAfter(LocalDateTime.now())) {
-            //1.未过期，直接返回店铺信息
-            return shop;
-        }
-        //2.过期，需要缓存重建
-        //3.缓存重建
-        //3.1.获取互斥锁
-        String lockKey = LOCK_SHOP_KEY + id;
-        boolean isLock = tryLock(lockKey);
-        //3.2.判断是否获取锁成功
-        if (isLock) {
-            //3.3成功，开启独立线程，实现缓存重建
-            CACHE_REBUILD_EXECUTOR.submit(() -> {
-                try {
-                    //重建缓存
-                    this.saveShop2Redis(id, 20L);
-                } catch (Exception e) {
-                    throw new RuntimeException(e);
-                } finally {
-                    //释放锁
-                    unLock(lockKey);
-                }
-            });
-        }
-        //4.返回过期的商铺信息
-
-        //返回数据
-        return shop;
+        return cacheClient.queryWithLogicalExpire(CACHE_SHOP_KEY, id, Shop.class, this::getById,
+                20L, TimeUnit.SECONDS);
     }
 
 
     /**
      * 使用互斥锁解决缓存击穿问题的方法
+     * 同时未命中的请求共享一次数据库查询，等待方通过future获取结果
      *
      * @param id 商铺ID
      * @return 商铺信息对象，如果不存在则返回null
      */
     public Shop queryWithMutex(Long id) {
-        String key = CACHE_SHOP_KEY + id; // 定义Redis缓存键，拼接商铺ID
-        //从redis查询商铺缓存查询结果
-        String shopJson = stringRedisTemplate.opsForValue().get(key);
-        //判断是否存在
-        if (StrUtil.isNotBlank(shopJson)) {
-            //存在，直接返回
-            return JSONUtil.toBean(shopJson, Shop.class);
-        }
-        //判断命中的是否是空值
-        if (shopJson != null) {
-            //存在，直接返回错误信息
-            return null;
-        }
-        //实现缓存重建
-        //1.尝试获取互斥锁
-        String lockKet = LOCK_SHOP_KEY + id;
-        Shop shop = null;
-        try {
-            boolean isLock = tryLock(lockKet);
-            //2.判断是否获取成功
-            if (!isLock) {
-                //3.失败，则休眠并重试
-                Thread.sleep(50);
-                return queryWithMutex(id);//递归
-            }
-            //4.成功，根据id查询数据库
-            shop = getById(id);
-            //模拟重建的延时
-            Thread.sleep(200);
-            //不存在，返回错误
-            if (shop == null) {
-                //将空值写入redis，防止缓存穿透
-                stringRedisTemplate.opsForValue().set(key, "", CACHE_NULL_TTL, TimeUnit.MINUTES);
-                //返回错误信息
-                return null;
-            }
-            //存在，将数据存入redis，设置缓存过期时间
-            stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(shop), CACHE_SHOP_TTL, TimeUnit.MINUTES);
-        } catch (InterruptedException e) {
-            throw new RuntimeException(e);
-        } finally {
-            //5.释放互斥锁
-            unLock(lockKet);
-        }
-        //返回数据
-        return shop;
+        return cacheClient.queryWithMutex(CACHE_SHOP_KEY, id, Shop.class, this::getById,
+                CACHE_SHOP_TTL, TimeUnit.MINUTES);
     }
 
     /**
@@ -270,49 +197,30 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
     }
 
     /**
-     * 尝试获取分布式锁
-     * 该方法用于在分布式系统中尝试获取锁，防止并发问题
-     *
-     * @param key 锁的键，用于标识不同的锁
-     * @return 如果获取锁成功返回true，否则返回false
-     */
-    private boolean tryLock(String key) {
-        // 使用Redis的setIfAbsent方法尝试设置键值对，如果键不存在则设置成功
-        // 同时设置过期时间，防止锁未被释放导致死锁
-        Boolean flag = stringRedisTemplate.opsForValue().setIfAbsent(key, "1", LOCK_SHOP_TTL, TimeUnit.SECONDS);
-        // 使用BooleanUtil工具类处理可能的null值，确保返回值为true或false
-        return BooleanUtil.isTrue(flag);
-    }
-
-    /**
-     * 根据键解锁（删除Redis中的键值对）
-     * 该方法用于释放之前获取的分布式锁
+     * 将店铺数据保存到Redis中，并设置逻辑过期时间，用于预热逻辑过期缓存
      *
-     * @param key Redis中存储的键，用于标识需要删除的锁
+     * @param id         店铺ID
+     * @param expireTime 过期时间（秒）
      */
-    private void unLock(String key) {
-        // 使用stringRedisTemplate删除指定键的值，实现解锁功能
-        stringRedisTemplate.delete(key);
+    public void saveShop2Redis(Long id, Long expireTime) {
+        //查询店铺数据，封装逻辑过期时间后写入redis
+        cacheClient.setWithLogicalExpire(CACHE_SHOP_KEY + id, getById(id), expireTime, TimeUnit.SECONDS);
     }
 
     /**
-     * 将店铺数据保存到Redis中，并设置逻辑过期时间
+     * 新增商铺，写入数据库后加入布隆过滤器
      *
-     * @param id         店铺ID
-     * @param expireTime 过期时间（秒）
-     * @throws InterruptedException 可能因线程休眠抛出的中断异常
+     * @param shop 商铺数据
+     * @return 商铺id
      */
-    public void saveShop2Redis(Long id, Long expireTime) throws InterruptedException {
-        //查询店铺数据
-        Shop shop = getById(id);
-        //模拟延迟
-        Thread.sleep(200);
-        //封装逻辑过期时间
-        RedisData redisData = new RedisData();
-        redisData.setData(shop);
-        redisData.setExpireTime(LocalDateTime.now().plusSeconds(expireTime));
-        //写入redis
-        stringRedisTemplate.opsForValue().set(CACHE_SHOP_KEY + id, JSONUtil.toJsonStr(redisData));
+    @Override
+    public Result saveShop(Shop shop) {
+        // 写入数据库
+        save(shop);
+        // 加入布隆过滤器，之后的查询不会被拦截
+        bloomFilter.add(BLOOM_SHOP, shop.getId());
+        // 返回店铺id
+        return Result.ok(shop.getId());
     }
 
     @Override
@@ -326,7 +234,8 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         updateById(shop);
         //删除缓存，保证数据一致性，当数据库更新后，删除对应的缓存
         //stringRedisTemplate.setEnableTransactionSupport(true);//打开redis回滚，确保在事务回滚时redis操作也能回滚
-        stringRedisTemplate.delete(CACHE_SHOP_KEY + shop.getId()); // 根据店铺ID删除对应的缓存
+        //事务提交后异步删除缓存并通知各节点删除一级缓存，稍后再删除一次；回滚时不删除
+        cacheInvalidator.invalidate(CACHE_SHOP_KEY + id);
         return Result.ok(); // 返回成功结果
     }
 }
@@ -1,24 +1,34 @@
 package com.shyx.service.impl;
 
 import cn.hutool.core.collection.CollectionUtil;
+import cn.hutool.core.thread.ThreadUtil;
 import cn.hutool.core.util.StrUtil;
-import cn.hutool.json.JSONUtil;
+import cn.hutool.core.util.ZipUtil;
+import cn.hutool.crypto.digest.DigestUtil;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.shyx.config.CacheProperties;
 import com.shyx.dto.Result;
+import com.shyx.dto.ShopTypeSnapshot;
 import com.shyx.entity.ShopType;
 import com.shyx.mapper.ShopTypeMapper;
 import com.shyx.service.IShopTypeService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
-import java.util.stream.Collectors;
 
-import static com.shyx.utils.RedisConstants.CACHE_SHOP_TYPE_KEY;
+import static com.shyx.utils.RedisConstants.CACHE_SHOP_TYPE_VERSION_KEY;
 
 /**
  * <p>
@@ -28,11 +38,28 @@ import static com.shyx.utils.RedisConstants.CACHE_SHOP_TYPE_KEY;
  * @author 虎哥
  * @since 2021-12-22
  */
+@Slf4j
 @Service
 public class ShopTypeServiceImpl extends ServiceImpl<ShopTypeMapper, ShopType> implements IShopTypeService {
+
+    /**
+     * 检查商户类型版本号的线程
+     */
+    private static final ScheduledExecutorService SHOP_TYPE_EXECUTOR =
+            Executors.newSingleThreadScheduledExecutor(ThreadUtil.newNamedThreadFactory("shop-type-refresh-", true));
+
     @Autowired
     private StringRedisTemplate stringRedisTemplate; // 自动注入StringRedisTemplate，用于操作Redis
 
+    @Resource
+    private ObjectMapper objectMapper; // MVC使用的JSON序列化器，预先生成响应体
+
+    @Resource
+    private CacheProperties cacheProperties; // 缓存相关配置
+
+    // 当前的快照，整体替换
+    private volatile ShopTypeSnapshot snapshot;
+
     /**
      * 获取商户类型列表的方法，基于String实现
      * <p>
@@ -66,43 +93,103 @@ public class ShopTypeServiceImpl extends ServiceImpl<ShopTypeMapper, ShopType> i
     }*/
 
     /**
-     * 获取商户类型列表的方法，基于List实现
-     * <p>
-     * 首先尝试从Redis缓存中获取数据，如果缓存中没有则从数据库查询
-     * 并将查询结果存入Redis缓存中，以提高后续查询效率
-     * 本实现使用Redis的List数据结构存储商户类型信息，相比String类型更节省内存
+     * 获取商户类型列表
+     * 直接返回内存中快照的列表，不访问Redis，列表不可修改
+     *
+     * @return 返回Result对象，包含商户类型列表或错误信息
      */
     @Override
     public Result getTypeList() {
-        //从redis中查找商户信息
-        String key = CACHE_SHOP_TYPE_KEY;
-        // 1. 从Redis查询 商铺类型缓存 , end:-1 表示取全部数据
-        List<String> shopTypeJson = stringRedisTemplate.opsForList().range(key, 0, -1);
-        // 2. 有就直接返回
-        if (CollectionUtil.isNotEmpty(shopTypeJson)) {
-            // JSON字符串转对象 排序后返回
-            List<ShopType> shopTypes = JSONUtil.toList(shopTypeJson.toString(), ShopType.class);
-            Collections.sort(shopTypes, ((o1, o2) -> o1.getSort() - o2.getSort()));
-            return Result.ok(shopTypes);
-        }
-        // 3. 没有就查询数据库
-        List<ShopType> shopTypes = query().orderByAsc("sort").list();
-        // 4. 数据库没有就返回错误
-        if (CollectionUtil.isEmpty(shopTypes)) {
+        List<ShopType> types = getTypeSnapshot().getTypes();
+        if (CollectionUtil.isEmpty(types)) {
             return Result.fail("没有查询到店铺类型");
         }
-        // 5. 存在， 写入Redis，这里使用Redis的List类型。String类型，就是直接所有都写在一起，对内存开销比较大。
-        // 要将List中的每个元素(元素类型ShopType) ，每个元素都要单独转成JSON，使用stream流的map映射
-        // Hutools里的 BeanUtil.copyToList 本来想模仿UserService中的写法，
-        // 传入一个CopyOptions的，但是setFieldValueEditor貌似只对beanToMap有效
-        // 改用流的形式转换每个list元素
-        List<String> shopTypesJson = shopTypes.stream().
-                map(shopType -> JSONUtil.toJsonStr(shopType)).collect(Collectors.toList());
-        // 因为从数据库读出来的时候已经是按照顺序读出来的，这里想要维持顺序必须从右边push，类似队列
-        stringRedisTemplate.opsForList().rightPushAll(key, shopTypesJson);
-        //设置其ttl
-        stringRedisTemplate.expire(key, 30L, TimeUnit.MINUTES);
-        // 5. 返回
-        return Result.ok(shopTypes);
+        return Result.ok(types);
+    }
+
+    /**
+     * 获取商户类型列表的快照，第一次调用时构建
+     * 快照包含预先序列化和gzip压缩的响应体，后台线程定期检查Redis中的版本号，变化后构建新的快照整体替换；
+     * 修改商户类型后执行INCR cache:shopType:version，各节点在cache.shop-type.refresh-interval内刷新；
+     * 数据库中没有商户类型时返回失败的响应但不保存快照，下次请求重新查询
+     *
+     * @return 当前的快照
+     */
+    @Override
+    public ShopTypeSnapshot getTypeSnapshot() {
+        ShopTypeSnapshot current = snapshot;
+        if (current != null) {
+            return current;
+        }
+        synchronized (this) {
+            if (snapshot != null) {
+                return snapshot;
+            }
+            ShopTypeSnapshot built = buildSnapshot(readVersion());
+            if (!built.getTypes().isEmpty()) {
+                snapshot = built;
+            }
+            return built;
+        }
+    }
+
+    /**
+     * 初始化：定期检查版本号
+     */
+    @PostConstruct
+    private void init() {
+        long interval = cacheProperties.getShopType().getRefreshInterval().toMillis();
+        SHOP_TYPE_EXECUTOR.scheduleWithFixedDelay(this::refreshIfChanged, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 销毁：停止检查版本号
+     */
+    @PreDestroy
+    private void destroy() {
+        SHOP_TYPE_EXECUTOR.shutdownNow();
+    }
+
+    /**
+     * 版本号与当前快照不同时重新构建；还没有快照时等到第一次请求再构建
+     */
+    private void refreshIfChanged() {
+        try {
+            ShopTypeSnapshot current = snapshot;
+            long version = readVersion();
+            if (current != null && current.getVersion() != version) {
+                ShopTypeSnapshot built = buildSnapshot(version);
+                if (built.getTypes().isEmpty()) {
+                    log.warn("版本 {} 没有查询到商户类型，保留当前快照", version);
+                    return;
+                }
+                snapshot = built;
+                log.info("商户类型快照已更新到版本 {}", version);
+            }
+        } catch (Exception e) {
+            log.error("刷新商户类型快照异常", e);
+        }
+    }
+
+    private long readVersion() {
+        String version = stringRedisTemplate.opsForValue().get(CACHE_SHOP_TYPE_VERSION_KEY);
+        return StrUtil.isBlank(version) ? 0 : Long.parseLong(version);
+    }
+
+    /**
+     * 从数据库查询按sort排序的商户类型，用MVC使用的ObjectMapper序列化响应体，保证与直接返回Result时的格式相同
+     * 先读取版本号再查询数据库，查询期间版本号递增时下一次检查会再次构建
+     */
+    private ShopTypeSnapshot buildSnapshot(long version) {
+        List<ShopType> types = Collections.unmodifiableList(query().orderByAsc("sort").list());
+        Result result = types.isEmpty() ? Result.fail("没有查询到店铺类型") : Result.ok(types);
+        try {
+            byte[] body = objectMapper.writeValueAsBytes(result);
+            byte[] gzipBody = ZipUtil.gzip(body);
+            String tag = version + "-" + DigestUtil.md5Hex(body).substring(0, 16);
+            return new ShopTypeSnapshot(version, types, body, gzipBody, "\"" + tag + "\"", "\"" + tag + "-gzip\"");
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("序列化商户类型列表失败", e);
+        }
     }
 }
@@ -4,6 +4,7 @@ import cn.hutool.core.bean.BeanUtil;
 import cn.hutool.core.bean.copier.CopyOptions;
 import cn.hutool.core.lang.UUID;
 import cn.hutool.core.util.RandomUtil;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.shyx.dto.LoginFormDTO;
 import com.shyx.dto.Result;
@@ -11,6 +12,8 @@ import com.shyx.dto.UserDTO;
 import com.shyx.entity.User;
 import com.shyx.mapper.UserMapper;
 import com.shyx.service.IUserService;
+import com.shyx.utils.CacheClient;
+import com.shyx.utils.RedisBloomFilter;
 import com.shyx.utils.RegexUtils;
 import jakarta.annotation.Resource;
 import lombok.extern.slf4j.Slf4j;
@@ -18,11 +21,14 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpSession;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 import static com.shyx.utils.RedisConstants.*;
 
@@ -41,6 +47,28 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
     @Autowired
     private StringRedisTemplate stringRedisTemplate;
 
+    /**
+     * 布隆过滤器，拦截不存在的用户id
+     */
+    @Autowired
+    private RedisBloomFilter bloomFilter;
+
+    /**
+     * 缓存客户端，用于批量查询用户信息
+     */
+    @Autowired
+    private CacheClient cacheClient;
+
+    /**
+     * 初始化：注册用户id的布隆过滤器，启动后从数据库按id分页读取全部用户id构建
+     */
+    @PostConstruct
+    private void initBloomFilter() {
+        bloomFilter.register(BLOOM_USER, CACHE_USER_KEY, (lastId, limit) -> listObjs(
+                new QueryWrapper<User>().select("id").gt("id", lastId).orderByAsc("id").last("limit " + limit),
+                id -> ((Number) id).longValue()));
+    }
+
     /**
      * 发送短信验证码
      * 该方法用于向指定手机号发送短信验证码，并进行相关校验和存储
@@ -199,6 +227,21 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
         return Result.ok(); // 返回操作结果，表示退出成功
     }
 
+    /**
+     * 批量查询用户的公开信息
+     * 缓存中只保存UserDTO(id、昵称、头像)，不包含手机号和密码
+     *
+     * @param ids 用户id
+     * @return 用户id -> 用户信息，不存在的用户不包含在内
+     */
+    @Override
+    public Map<Long, UserDTO> queryUserDTOs(Collection<Long> ids) {
+        return cacheClient.queryBatch(CACHE_USER_KEY, ids, UserDTO.class,
+                missing -> listByIds(missing).stream()
+                        .collect(Collectors.toMap(User::getId, user -> BeanUtil.copyProperties(user, UserDTO.class))),
+                CACHE_USER_TTL, TimeUnit.MINUTES);
+    }
+
     /**
      * 根据手机号创建新用户的方法
      * 当用户首次登录时，自动创建新用户并设置基本信息
@@ -215,6 +258,8 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
         user.setNickName("user_" + RandomUtil.randomString(10)); // 生成随机昵称
         //保存用户信息到数据库
         save(user);
+        //加入布隆过滤器
+        bloomFilter.add(BLOOM_USER, user.getId());
         //返回创建好的用户对象
         return user;
 
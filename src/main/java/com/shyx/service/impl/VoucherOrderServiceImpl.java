@@ -1,32 +1,41 @@
 package com.shyx.service.impl;
 
-import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.cache.CacheUtil;
+import cn.hutool.cache.impl.LRUCache;
+import com.shyx.config.SeckillProperties;
 import com.shyx.dto.Result;
+import com.shyx.dto.UserDTO;
 import com.shyx.entity.VoucherOrder;
 import com.shyx.mapper.VoucherOrderMapper;
 import com.shyx.service.ISeckillVoucherService;
 import com.shyx.service.IVoucherOrderService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.shyx.utils.OrderDeadLetterQueue;
+import com.shyx.utils.OrderQueue;
+import com.shyx.utils.OrderStatusTracker;
+import com.shyx.utils.OrderTimeoutScheduler;
 import com.shyx.utils.RedisIdWorker;
+import com.shyx.utils.SeckillKeys;
+import com.shyx.utils.SeckillLocalFilter;
+import com.shyx.utils.SeckillStockLease;
+import com.shyx.utils.SeckillWaitingRoom;
 import com.shyx.utils.UserHolder;
 import lombok.extern.slf4j.Slf4j;
-import org.redisson.api.RLock;
-import org.redisson.api.RedissonClient;
-import org.springframework.aop.framework.AopContext;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.core.io.ClassPathResource;
-import org.springframework.data.redis.connection.stream.*;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.interceptor.TransactionAspectSupport;
+import org.springframework.web.context.request.async.DeferredResult;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
-import java.time.Duration;
-import java.util.Collections;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
 import java.util.concurrent.*;
+import java.util.stream.Collectors;
+
 
 
 /**
@@ -48,10 +57,9 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     private RedisIdWorker redisIdWorker; // 注入Redis ID生成器，用于生成唯一订单ID，确保订单ID的全局唯一性
     @Resource
     private StringRedisTemplate stringRedisTemplate; // 注入Redis模板，用于操作Redis数据结构
-    @Resource
-    private RedissonClient redissonClient; // 注入Redisson客户端，用于分布式锁操作
 
     private static final DefaultRedisScript<Long> SECKILL_SCRIPT; // 定义秒杀脚本
+    private static final DefaultRedisScript<Long> SECKILL_LEASE_SCRIPT; // 租约模式的下单脚本
 
     static {
         // 初始化秒杀脚本
@@ -61,113 +69,64 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
         SECKILL_SCRIPT.setLocation(new ClassPathResource("seckill.lua"));
 // 设置脚本的返回结果类型为Long类型
         SECKILL_SCRIPT.setResultType(Long.class);
+        // 租约模式下库存在本地扣减，脚本只做一人一单校验和订单入队
+        SECKILL_LEASE_SCRIPT = new DefaultRedisScript<>();
+        SECKILL_LEASE_SCRIPT.setLocation(new ClassPathResource("seckill_lease.lua"));
+        SECKILL_LEASE_SCRIPT.setResultType(Long.class);
     }
 
 
+    @Resource
+    private SeckillProperties seckillProperties; // 秒杀相关配置
+    @Resource
+    private OrderDeadLetterQueue deadLetterQueue; // 订单死信队列
+    @Resource
+    private SeckillKeys seckillKeys; // 秒杀key布局
+    @Resource
+    private SeckillStockLease stockLease; // 节点本地库存租约
+    @Resource
+    private SeckillLocalFilter localFilter; // 本地售罄标记和已购用户过滤
+    @Resource
+    private OrderQueue orderQueue; // 订单队列，实现由seckill.order.queue选择
+    @Resource
+    private OrderStatusTracker orderStatus; // 订单持久化状态
+    @Resource
+    private OrderTimeoutScheduler orderTimeout; // 未支付订单超时取消
+    @Resource
+    private SeckillWaitingRoom waitingRoom; // 虚拟等候室
+
     /**
-     * 创建线程池，用于处理订单信息
+     * 最近已持久化的订单id，用于跳过重复投递的消息；容量见seckill.order.persisted-cache-size
      */
-    private static final ExecutorService SECKILL_ORDER_EXECUTOR = Executors.newSingleThreadExecutor();
+    private LRUCache<Long, Boolean> persistedOrders;
 
     /**
      * 初始化方法，使用@PostConstruct注解确保在Bean属性设置完成后执行
-     * 该方法用于提交一个优惠券订单处理器到线程池中执行
+     * 该方法启动订单队列的消费线程，订单交给handleVoucherOrder/handleVoucherOrders持久化
      *
      * @PostConstruct注解表示这是一个初始化方法，会在Bean创建完成后、依赖注入完成后自动调用
      */
     @PostConstruct
     private void init() {
-        // 将VoucherOrderHandler实例提交到SECKILL_ORDER_EXECUTOR线程池中执行
-        // SECKILL_ORDER_EXECUTOR是一个专门用于处理秒杀订单的线程池
-        // VoucherOrderHandler是一个实现了Runnable接口的类，用于处理优惠券订单的业务逻辑
-        SECKILL_ORDER_EXECUTOR.submit(new VoucherOrderHandler());
-    }
-
-    /**
-     * 优惠券订单处理器类
-     * 实现Runnable接口，用于处理优惠券订单相关的消息队列任务
-     */
-    private class VoucherOrderHandler implements Runnable {
-        // 定义消息队列的名称为"stream.orders"
-        String queueName = "stream.orders";
-
-        /**
-         * run方法，处理优惠券订单的主逻辑
-         */
-        @Override
-        public void run() {
-            // 无限循环，持续监听消息队列
-            while (true) {
-                try {
-                    //1.获取消息队列中的订单信息
-                    List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
-                            Consumer.from("g1", "c1"), //消费者组名称和消费者名称
-                            StreamReadOptions.empty().count(1).block(Duration.ofSeconds(2)), //读取配置
-                            StreamOffset.create(queueName, ReadOffset.lastConsumed())//从最新的消息开始读取
-                    );
-                    //2.判断消息获取是否成功
-                    if (list == null || list.isEmpty()) {
-                        //2.1如果获取失败，说明没有消息，继续下一次循环
-                        continue;
-                    }
-                    //解析消息中的订单信息
-                    MapRecord<String, Object, Object> record = list.get(0);
-                    Map<Object, Object> value = record.getValue();
-                    VoucherOrder voucherOrder = BeanUtil.fillBeanWithMap(value, new VoucherOrder(), true);
-                    //3.如果获取成功，可以下单
-                    handleVoucherOrder(voucherOrder);
-                    //4.ACK 确认消息
-                    stringRedisTemplate.opsForStream().acknowledge(queueName, "g1", record.getId());
-                } catch (Exception e) {
-                    log.error("处理订单异常", e);
-                    handlePendingList();
+        persistedOrders = CacheUtil.newLRUCache(seckillProperties.getOrder().getPersistedCacheSize());
+        orderQueue.start(new OrderQueue.Handler() {
+            @Override
+            public void handle(List<VoucherOrder> orders) {
+                if (orders.size() == 1) {
+                    handleVoucherOrder(orders.get(0));
+                } else {
+                    handleVoucherOrders(orders);
                 }
             }
 
-        }
-
-        /**
-         * 处理待处理订单列表的方法
-         * 该方法用于从Redis Stream的pending-list中获取异常订单并重新处理
-         * 使用无限循环确保所有异常订单都被处理完毕
-         */
-        private void handlePendingList() {
-            while (true) {
-                try {
-                    //1.获取pending-list中的订单信息
-                    List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
-                            Consumer.from("g1", "c1"), //消费者组名称和消费者名称
-                            StreamReadOptions.empty().count(1),  //读取配置
-                            StreamOffset.create(queueName, ReadOffset.from("0"))
-                    );
-                    //2.判断消息获取是否成功
-                    if (list == null || list.isEmpty()) {
-                        //2.1如果获取失败，说明pending-list没有异常消息，结束循环
-                        break;
-                    }
-                    //解析消息中的订单信息
-                    MapRecord<String, Object, Object> record = list.get(0);
-                    Map<Object, Object> value = record.getValue();
-                    VoucherOrder voucherOrder = BeanUtil.fillBeanWithMap(value, new VoucherOrder(), true);
-                    //3.如果获取成功，可以下单
-                    handleVoucherOrder(voucherOrder);
-                    //4.ACK 确认消息
-                    stringRedisTemplate.opsForStream().acknowledge(queueName, "g1", record.getId());
-                } catch (Exception e) {
-                    log.error("处理pending-list订单异常", e);
-                    try {
-                        Thread.sleep(20);
-                    } catch (InterruptedException ex) {
-                        ex.printStackTrace();
-                    }
-                }
+            @Override
+            public void dead(VoucherOrder order) {
+                deadVoucherOrder(order);
             }
-        }
+        });
+        orderTimeout.start(orderIds -> proxy.cancelUnpaidOrders(orderIds));
     }
 
-
-
-
     /*// 创建阻塞队列，用于存储订单信息
     private BlockingQueue<VoucherOrder> orderTasks = new ArrayBlockingQueue<>(1024 * 1024);
 
@@ -201,40 +160,90 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
 
     /**
      * 处理优惠券订单的方法
+     * 一人一单由Lua脚本预检 + 数据库(user_id, voucher_id)唯一索引保证，不再需要分布式锁；
+     * 最近持久化过的订单id缓存在本地，重复投递的消息直接跳过，不访问数据库
      *
      * @param voucherOrder 优惠券订单对象
      */
     private void handleVoucherOrder(VoucherOrder voucherOrder) {
-        //获取用户ID
-        Long userId = voucherOrder.getUserId();
-        // 1.创建锁对象
-        // 使用Redisson创建分布式锁，锁的键为"lock:order:"加上用户ID，确保每个用户的订单是独立的
-        RLock lock = redissonClient.getLock("lock:order:" + userId);
-        // 2.尝试获取锁
-        // 使用tryLock()方法尝试获取锁，不会阻塞
-        boolean isLock = lock.tryLock();
-        // 3.判断是否获取锁成功
-        if (!isLock) {
-            // 4.如果获取锁失败，则直接返回
-            // 记录错误日志，表示用户重复下单
-            log.error("不允许重复下单");
+        // 1.消息重复投递，订单已经持久化过，直接跳过
+        if (persistedOrders.containsKey(voucherOrder.getId())) {
             return;
         }
-        // 5.获取锁成功，执行后续逻辑
-        try {
-
-            // 调用代理对象的createVoucherOrder方法处理订单业务
-            proxy.createVoucherOrder(voucherOrder);
-        } finally {
-            // 6.释放锁
-            // 在finally块中确保锁一定会被释放，避免死锁
-            lock.unlock();
+        // 2.调用代理对象的createVoucherOrder方法处理订单业务
+        boolean created = proxy.createVoucherOrder(voucherOrder);
+        // 3.事务提交后再写入支付超时时间，超时任务到期时订单一定已在数据库中；
+        // 写入前崩溃时消息没有确认，重新投递后订单视为已持久化，再次写入
+        if (created) {
+            orderTimeout.schedule(Collections.singletonList(voucherOrder));
+        }
+        // 4.记录已持久化的订单，并更新订单状态
+        persistedOrders.put(voucherOrder.getId(), Boolean.TRUE);
+        List<Long> ids = Collections.singletonList(voucherOrder.getId());
+        if (created) {
+            orderStatus.markPersisted(ids);
+        } else {
+            orderStatus.markFailed(ids);
+        }
+    }
 
+    /**
+     * 放弃多次处理失败的订单(阻塞队列、预写日志队列)
+     * 1.数据库中已有该订单(上次提交成功但后续步骤异常)，标记为已持久化
+     * 2.数据库中没有该订单，归还Redis库存，用户可以重新购买，标记为失败
+     * 3.无法确认时(数据库或Redis不可用)保存到死信队列，问题修复后重新投递
+     *
+     * @param order 订单
+     */
+    private void deadVoucherOrder(VoucherOrder order) {
+        List<Long> ids = Collections.singletonList(order.getId());
+        try {
+            if (query().eq("id", order.getId()).count() > 0) {
+                persistedOrders.put(order.getId(), Boolean.TRUE);
+                orderStatus.markPersisted(ids);
+                return;
+            }
+            orderTimeout.returnStock(Collections.singletonList(order));
+            orderStatus.markFailed(ids);
+            log.error("订单 {} 多次处理失败，已归还库存", order.getId());
+        } catch (Exception e) {
+            log.error("订单 {} 多次处理失败且无法确认状态，转入死信队列", order.getId(), e);
+            try {
+                deadLetterQueue.add(order, seckillProperties.getOrder().getMaxDeliveries());
+            } catch (Exception ex) {
+                // 死信队列也不可用，只能留在日志中人工处理
+                log.error("订单转入死信队列失败: id={}, userId={}, voucherId={}",
+                        order.getId(), order.getUserId(), order.getVoucherId(), ex);
+            }
         }
+    }
 
+    /**
+     * 批量处理优惠券订单的方法
+     *
+     * @param voucherOrders 优惠券订单列表
+     */
+    private void handleVoucherOrders(List<VoucherOrder> voucherOrders) {
+        // 1.去掉最近已经持久化过的订单
+        List<VoucherOrder> orders = voucherOrders.stream()
+                .filter(order -> !persistedOrders.containsKey(order.getId()))
+                .collect(Collectors.toList());
+        if (orders.isEmpty()) {
+            return;
+        }
+        // 2.批量持久化，事务提交后再写入写入成功的订单的支付超时时间
+        Set<Long> created = proxy.createVoucherOrders(orders);
+        orderTimeout.schedule(orders.stream().filter(order -> created.contains(order.getId())).collect(Collectors.toList()));
+        // 3.记录已持久化的订单，并更新订单状态
+        orders.forEach(order -> persistedOrders.put(order.getId(), Boolean.TRUE));
+        orderStatus.markPersisted(created);
+        orderStatus.markFailed(orders.stream().map(VoucherOrder::getId)
+                .filter(id -> !created.contains(id)).collect(Collectors.toList()));
     }
 
-    //创建代理对象
+    //代理对象，用于调用事务方法；延迟注入自身，消费者线程启动时即可使用
+    @Lazy
+    @Resource
     private IVoucherOrderService proxy;
 
     /**
@@ -247,6 +256,21 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     public Result seckillVoucher(Long voucherId) {
         //获取用户
         Long userId = UserHolder.getUser().getId();
+        //本地过滤：已售罄的优惠券不再访问Redis，命中本地已购过滤的用户经Redis确认后拒绝
+        if (localFilter.isSoldOut(voucherId)) {
+            return Result.fail("库存不足");
+        }
+        if (localFilter.hasPurchased(voucherId, userId)) {
+            return Result.fail("不能重复下单");
+        }
+        //活动已结束，库存key可能已经过期删除，不再执行脚本
+        if (waitingRoom.hasEnded(voucherId)) {
+            return Result.fail("活动已结束");
+        }
+        //租约模式：库存在本地扣减
+        if (seckillProperties.getLease().isEnabled()) {
+            return seckillWithLease(voucherId, userId);
+        }
         //设置订单ID
         long orderId = redisIdWorker.nextId("order");
         //1.执行lua脚本
@@ -255,25 +279,168 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
         Long result = stringRedisTemplate.execute(
                 // 秒杀操作的Lua脚本
                 SECKILL_SCRIPT,
-                // 不需要绑定keys参数
-                Collections.emptyList(),
+                // 库存key、下单用户key和订单stream，集群模式下位于同一个slot
+                seckillKeys.scriptKeys(voucherId),
                 // 传入的参数：优惠券ID
                 voucherId.toString(),
                 // 传入的参数：用户ID
                 UserHolder.getUser().getId().toString(),
                 // 传入的参数：订单ID
-                String.valueOf(orderId));
+                String.valueOf(orderId),
+                // 传入的参数：是否由脚本写入订单stream
+                orderQueue.isWrittenByScript() ? "1" : "0",
+                // 传入的参数：下单用户记录方式
+                seckillKeys.purchaserFlag());
         //2.判断结果是否为0
         int r = result.intValue();
+        if (r == 1) {
+            //2.1 库存不足，本地标记售罄
+            localFilter.markSoldOut(voucherId);
+            return Result.fail("库存不足");
+        }
+        //2.2 下单成功或重复下单，都记录为已购用户
+        localFilter.markPurchased(voucherId, userId);
         if (r != 0) {
-            //2.1 不为0，代表没有购买资格
-            return Result.fail(r == 1 ? "库存不足" : "不能重复下单");
+            return Result.fail("不能重复下单");
         }
-        // 获取代理对象，用于调用事务方法
-        proxy = (IVoucherOrderService) AopContext.currentProxy();
-        //3.返回订单id
+        //3.订单写入队列，记录订单已入队，返回订单id
+        enqueue(orderId, voucherId, userId);
+        orderStatus.markQueued(orderId);
+        return Result.ok(orderId);
+    }
+
+    /**
+     * 租约模式的秒杀
+     * 先在本地租约上扣减库存，库存不足的请求不访问Redis；
+     * 扣减成功后由Lua脚本做一人一单校验并写入订单消息队列，重复下单时库存退回本地租约
+     *
+     * @param voucherId 代金券ID
+     * @param userId    用户ID
+     * @return 返回操作结果，包含订单ID或错误信息
+     */
+    private Result seckillWithLease(Long voucherId, Long userId) {
+        //1.扣减本地库存
+        if (!stockLease.tryAcquire(voucherId)) {
+            localFilter.markSoldOut(voucherId);
+            return Result.fail("库存不足");
+        }
+        //2.一人一单校验并入队，生成订单id也会访问Redis，失败时同样退回库存
+        long orderId;
+        Long result;
+        try {
+            orderId = redisIdWorker.nextId("order");
+            result = stringRedisTemplate.execute(SECKILL_LEASE_SCRIPT,
+                    Arrays.asList(seckillKeys.orderKey(voucherId), seckillKeys.streamKey(voucherId)),
+                    voucherId.toString(), userId.toString(), String.valueOf(orderId),
+                    orderQueue.isWrittenByScript() ? "1" : "0", seckillKeys.purchaserFlag());
+        } catch (RuntimeException e) {
+            stockLease.giveBack(voucherId);
+            throw e;
+        }
+        localFilter.markPurchased(voucherId, userId);
+        if (result == null || result != 0) {
+            //3.重复下单，退回库存
+            stockLease.giveBack(voucherId);
+            return Result.fail("不能重复下单");
+        }
+        //4.订单写入队列，记录订单已入队，返回订单id
+        enqueue(orderId, voucherId, userId);
+        orderStatus.markQueued(orderId);
         return Result.ok(orderId);
     }
+
+    /**
+     * 订单队列不是Redis Stream时，Lua脚本只完成库存扣减和一人一单校验，由这里写入订单队列
+     *
+     * @param orderId   订单ID
+     * @param voucherId 代金券ID
+     * @param userId    用户ID
+     */
+    private void enqueue(long orderId, Long voucherId, Long userId) {
+        if (orderQueue.isWrittenByScript()) {
+            return;
+        }
+        VoucherOrder voucherOrder = new VoucherOrder();
+        voucherOrder.setId(orderId);
+        voucherOrder.setUserId(userId);
+        voucherOrder.setVoucherId(voucherId);
+        orderQueue.add(voucherOrder);
+    }
+
+    /**
+     * 查询秒杀订单的持久化状态
+     *
+     * @param orderId 订单id
+     * @param wait    最长等待时间(秒)
+     * @return 异步返回订单状态
+     */
+    @Override
+    public DeferredResult<Result> queryOrderStatus(Long orderId, Long wait) {
+        long timeout = Math.min(TimeUnit.SECONDS.toMillis(Math.max(wait, 0)),
+                seckillProperties.getStatus().getMaxWait().toMillis());
+        return orderStatus.await(orderId, timeout);
+    }
+
+    /**
+     * 查询订单死信队列
+     *
+     * @param count 查询数量
+     * @return 死信消息列表
+     */
+    @Override
+    public Result queryDeadLetters(Integer count) {
+        if (!isOrderAdmin()) {
+            return Result.fail("无权限");
+        }
+        return Result.ok(deadLetterQueue.list(count));
+    }
+
+    /**
+     * 将死信消息重新投递到订单消息队列
+     *
+     * @param id 死信消息id
+     * @return 操作结果
+     */
+    @Override
+    public Result replayDeadLetter(String id) {
+        if (!isOrderAdmin()) {
+            return Result.fail("无权限");
+        }
+        if (!deadLetterQueue.replay(id)) {
+            return Result.fail("死信消息不存在");
+        }
+        return Result.ok();
+    }
+
+    /**
+     * 当前用户是否可以管理订单死信队列，见seckill.order.admin-user-ids
+     */
+    private boolean isOrderAdmin() {
+        UserDTO user = UserHolder.getUser();
+        return user != null && seckillProperties.getOrder().getAdminUserIds().contains(user.getId());
+    }
+
+    /**
+     * 领取等候室排队号
+     *
+     * @param voucherId 优惠券id
+     * @return 排队号和当前位置
+     */
+    @Override
+    public Result takeTicket(Long voucherId) {
+        return waitingRoom.takeTicket(voucherId, UserHolder.getUser().getId());
+    }
+
+    /**
+     * 查询等候室排队位置
+     *
+     * @param voucherId 优惠券id
+     * @return 排队号和当前位置
+     */
+    @Override
+    public Result queryTicket(Long voucherId) {
+        return waitingRoom.queryTicket(voucherId, UserHolder.getUser().getId());
+    }
     /*@Override
     public Result seckillVoucher(Long voucherId) {
         //获取用户
@@ -362,48 +529,117 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
 
     /**
      * 创建代金券订单
+     * 先插入订单，(user_id, voucher_id)唯一索引冲突时INSERT IGNORE不插入，保证重复消息幂等；
+     * 没有插入但同一个订单id已经存在时，说明是重复投递的消息，返回true；
+     * 插入成功再扣减库存，库存不足则回滚插入的订单
      *
-     * @param voucherOrder 代金券ID
+     * @param voucherOrder 代金券订单
      * @Transactional 使用注解保证事务的原子性，确保方法内的所有数据库操作要么全部成功，要么全部失败
      */
+    @Override
     @Transactional//保证事务的原子性
-    public void createVoucherOrder(VoucherOrder voucherOrder) {
-        //一人一单逻辑 - 获取当前用户ID
-        Long userId = voucherOrder.getUserId();
-        //1.查询订单 - 检查用户是否已购买过该代金券
-//        int count = query().eq("user_id", userId).eq("voucher_id", voucherOrder).count();
-        int count = query().eq("user_id", userId).eq("voucher_id", voucherOrder.getVoucherId()).count();
-        //2.判断是否存在 - 如果已存在则返回错误信息
-        if (count > 0) {
+    public boolean createVoucherOrder(VoucherOrder voucherOrder) {
+        //1.插入订单，用户已经购买过该代金券时不插入；已取消的订单先删除，用户可以重新购买
+        if (seckillProperties.getTimeout().isEnabled()) {
+            getBaseMapper().deleteCancelled(Collections.singletonList(voucherOrder));
+        }
+        int inserted = getBaseMapper().insertIgnore(voucherOrder);
+        //2.判断是否插入成功
+        if (inserted == 0) {
+            //同一个订单已经写入过(重复投递、重启后或其他消费者处理过)，视为已持久化
+            if (query().eq("id", voucherOrder.getId()).count() > 0) {
+                return true;
+            }
             //说明已经购买过了
-//            return Result.fail("不能重复购买！");
-            log.error("不允许重复下单");
-            return;
+            log.error("不允许重复下单, userId = {}, voucherId = {}", voucherOrder.getUserId(), voucherOrder.getVoucherId());
+            return false;
         }
-        //扣减库存 - 使用SQL语句直接更新数据库
+        //3.扣减库存 - 使用SQL语句直接更新数据库
         boolean success = seckillVoucherService.update()
                 .setSql("stock = stock - 1")//set stock = stock - 1
                 .eq("voucher_id", voucherOrder.getVoucherId())
                 .gt("stock", 0)//where voucher_id = ? and stock > 0
                 .update();
         if (!success) {
-            //扣减库存失败
-//            return Result.fail("库存不足");
-            log.error("库存不足");
-            return;
+            //扣减库存失败，回滚已插入的订单
+            log.error("库存不足, voucherId = {}", voucherOrder.getVoucherId());
+            TransactionAspectSupport.currentTransactionStatus().setRollbackOnly();
+            return false;
         }
-/*        //创建订单
-        VoucherOrder voucherOrder = new VoucherOrder();
-        //1.订单id
-        long orderId = redisIdWorker.nextId("order");
-        voucherOrder.setId(orderId);
-        //2.用户id
-        voucherOrder.setUserId(userId);
-        //3.代金券id
-        voucherOrder.setVoucherId(voucherId);*/
-        save(voucherOrder);
-/*        //返回订单id
-        return Result.ok(orderId);*/
+        return true;
+    }
 
+    /**
+     * 批量创建代金券订单
+     * 按优惠券分组：每个优惠券一条多行INSERT IGNORE写入订单，重复订单由唯一索引忽略，
+     * 再按实际插入的行数一次扣减库存，整批在同一个事务中完成
+     *
+     * @param voucherOrders 代金券订单列表
+     * @return 写入成功的订单id
+     */
+    @Override
+    @Transactional
+    public Set<Long> createVoucherOrders(List<VoucherOrder> voucherOrders) {
+        Set<Long> created = new HashSet<>();
+        Map<Long, List<VoucherOrder>> ordersOfVoucher = voucherOrders.stream()
+                .collect(Collectors.groupingBy(VoucherOrder::getVoucherId));
+        for (Map.Entry<Long, List<VoucherOrder>> entry : ordersOfVoucher.entrySet()) {
+            Long voucherId = entry.getKey();
+            List<VoucherOrder> orders = entry.getValue();
+            //1.批量插入订单，已经存在的(user_id, voucher_id)被忽略，已取消的订单先删除
+            if (seckillProperties.getTimeout().isEnabled()) {
+                getBaseMapper().deleteCancelled(orders);
+            }
+            int inserted = getBaseMapper().insertIgnoreBatch(orders);
+            List<Long> ids = orders.stream().map(VoucherOrder::getId).collect(Collectors.toList());
+            if (inserted == orders.size()) {
+                created.addAll(ids);
+            } else {
+                log.error("不允许重复下单, voucherId = {}, 忽略 {} 条", voucherId, orders.size() - inserted);
+                //有订单被忽略时查出已经存在的订单，包括本次写入的和之前已经写入过的同一个订单(重复投递)
+                query().select("id").in("id", ids).list().forEach(order -> created.add(order.getId()));
+            }
+            if (inserted == 0) {
+                continue;
+            }
+            //2.合并扣减库存：set stock = stock - k where voucher_id = ? and stock >= k
+            boolean success = seckillVoucherService.update()
+                    .setSql("stock = stock - " + inserted)
+                    .eq("voucher_id", voucherId)
+                    .ge("stock", inserted)
+                    .update();
+            if (!success) {
+                //库存不够一次扣减，整批回滚，由pending-list逐条处理
+                throw new RuntimeException("库存不足, voucherId = " + voucherId);
+            }
+        }
+        return created;
+    }
+
+    @Override
+    @Transactional
+    public List<VoucherOrder> cancelUnpaidOrders(List<Long> orderIds) {
+        //1.锁定仍未支付的订单，与支付更新订单状态互斥；已取消的订单说明上次归还Redis库存前失败，一并返回重新归还
+        List<VoucherOrder> orders = query().select("id", "user_id", "voucher_id", "status")
+                .in("id", orderIds)
+                .in("status", 1, 4)
+                .last("FOR UPDATE")
+                .list();
+        List<VoucherOrder> unpaid = orders.stream().filter(order -> order.getStatus() == 1).collect(Collectors.toList());
+        if (unpaid.isEmpty()) {
+            return orders;
+        }
+        //2.改为已取消
+        update().set("status", 4)
+                .in("id", unpaid.stream().map(VoucherOrder::getId).collect(Collectors.toList()))
+                .eq("status", 1)
+                .update();
+        //3.按优惠券合并归还库存：set stock = stock + k where voucher_id = ?
+        unpaid.stream().collect(Collectors.groupingBy(VoucherOrder::getVoucherId, Collectors.counting()))
+                .forEach((voucherId, count) -> seckillVoucherService.update()
+                        .setSql("stock = stock + " + count)
+                        .eq("voucher_id", voucherId)
+                        .update());
+        return orders;
     }
 }
@@ -7,15 +7,16 @@ import com.shyx.mapper.VoucherMapper;
 import com.shyx.entity.SeckillVoucher;
 import com.shyx.service.ISeckillVoucherService;
 import com.shyx.service.IVoucherService;
+import com.shyx.utils.SeckillKeyLifecycle;
+import com.shyx.utils.SeckillKeys;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import javax.annotation.Resource;
+import java.util.HashMap;
 import java.util.List;
-
-import static com.shyx.utils.RedisConstants.SECKILL_STOCK_KEY;
-
+import java.util.Map;
 
 /**
  * 优惠券服务实现类
@@ -29,6 +30,10 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
     private ISeckillVoucherService seckillVoucherService;  // 秒杀优惠券服务接口
     @Resource
     private StringRedisTemplate stringRedisTemplate;       // Redis字符串操作模板
+    @Resource
+    private SeckillKeys seckillKeys;                       // 秒杀key布局
+    @Resource
+    private SeckillKeyLifecycle seckillKeyLifecycle;       // 秒杀key的过期时间
 
     /**
      * 查询指定店铺的优惠券列表
@@ -62,7 +67,16 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
         seckillVoucher.setBeginTime(voucher.getBeginTime());
         seckillVoucher.setEndTime(voucher.getEndTime());
         seckillVoucherService.save(seckillVoucher);
-        //保存秒杀库存到Redis中，便于快速读取和扣减
-        stringRedisTemplate.opsForValue().set(SECKILL_STOCK_KEY + voucher.getId(), voucher.getStock().toString());
+        //保存秒杀库存到Redis中，便于快速读取和扣减；分桶时库存平均拆分到各个桶，余数分给前面的桶
+        List<String> stockKeys = seckillKeys.stockKeys(voucher.getId());
+        int buckets = stockKeys.size();
+        Map<String, String> stocks = new HashMap<>(buckets * 2);
+        for (int i = 0; i < buckets; i++) {
+            int stock = voucher.getStock() / buckets + (i < voucher.getStock() % buckets ? 1 : 0);
+            stocks.put(stockKeys.get(i), String.valueOf(stock));
+        }
+        stringRedisTemplate.opsForValue().multiSet(stocks);
+        //库存key在优惠券结束后过期
+        seckillKeyLifecycle.expire(voucher.getId(), voucher.getEndTime());
     }
 }
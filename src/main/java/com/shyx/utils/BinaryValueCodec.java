@@ -0,0 +1,409 @@
+package com.shyx.utils;
+
+import com.shyx.dto.UserDTO;
+import com.shyx.entity.Blog;
+import com.shyx.entity.Shop;
+import com.shyx.entity.User;
+import com.shyx.entity.Voucher;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+
+/**
+ * 带schema版本的紧凑二进制编解码
+ * 格式：魔数(1字节) + schema id(1字节) + schema版本(1字节) + 按schema顺序排列的字段，字段不带名称；
+ * 整数为zigzag变长编码，字符串为变长长度 + UTF-8，可以为null的字段用0表示null；
+ * 读取时按写入时的版本解析，新版本只在末尾追加字段，旧版本的缓存缺少的字段保持默认值。
+ * 解码直接读取字节数组，不经过中间字符串，也不使用反射；没有注册schema的类型和非二进制格式的缓存退回JSON
+ */
+public class BinaryValueCodec implements ValueCodec {
+
+    // 魔数，JSON的第一个字节不会是0xB7(UTF-8的后续字节)
+    private static final byte MAGIC = (byte) 0xB7;
+    // 逻辑过期的外层结构
+    private static final int LOGICAL_ID = 0;
+
+    private final JsonValueCodec json = new JsonValueCodec();
+    private final Map<Class<?>, Schema<?>> schemas = new HashMap<>();
+    private final Schema<?>[] schemasById = new Schema<?>[16];
+
+    public BinaryValueCodec() {
+        register(1, 1, Shop.class, (shop, w) -> {
+            w.writeLong(shop.getId());
+            w.writeString(shop.getName());
+            w.writeLong(shop.getTypeId());
+            w.writeString(shop.getImages());
+            w.writeString(shop.getArea());
+            w.writeString(shop.getAddress());
+            w.writeDouble(shop.getX());
+            w.writeDouble(shop.getY());
+            w.writeLong(shop.getAvgPrice());
+            w.writeInt(shop.getSold());
+            w.writeInt(shop.getComments());
+            w.writeInt(shop.getScore());
+            w.writeString(shop.getOpenHours());
+            w.writeTime(shop.getCreateTime());
+            w.writeTime(shop.getUpdateTime());
+        }, (r, version) -> new Shop()
+                .setId(r.readLong())
+                .setName(r.readString())
+                .setTypeId(r.readLong())
+                .setImages(r.readString())
+                .setArea(r.readString())
+                .setAddress(r.readString())
+                .setX(r.readDouble())
+                .setY(r.readDouble())
+                .setAvgPrice(r.readLong())
+                .setSold(r.readInt())
+                .setComments(r.readInt())
+                .setScore(r.readInt())
+                .setOpenHours(r.readString())
+                .setCreateTime(r.readTime())
+                .setUpdateTime(r.readTime()));
+        register(2, 1, User.class, (user, w) -> {
+            w.writeLong(user.getId());
+            w.writeString(user.getPhone());
+            w.writeString(user.getPassword());
+            w.writeString(user.getNickName());
+            w.writeString(user.getIcon());
+            w.writeTime(user.getCreateTime());
+            w.writeTime(user.getUpdateTime());
+        }, (r, version) -> new User()
+                .setId(r.readLong())
+                .setPhone(r.readString())
+                .setPassword(r.readString())
+                .setNickName(r.readString())
+                .setIcon(r.readString())
+                .setCreateTime(r.readTime())
+                .setUpdateTime(r.readTime()));
+        register(3, 1, UserDTO.class, (user, w) -> {
+            w.writeLong(user.getId());
+            w.writeString(user.getNickName());
+            w.writeString(user.getIcon());
+        }, (r, version) -> {
+            UserDTO user = new UserDTO();
+            user.setId(r.readLong());
+            user.setNickName(r.readString());
+            user.setIcon(r.readString());
+            return user;
+        });
+        register(4, 1, Blog.class, (blog, w) -> {
+            w.writeLong(blog.getId());
+            w.writeLong(blog.getShopId());
+            w.writeLong(blog.getUserId());
+            w.writeString(blog.getTitle());
+            w.writeString(blog.getImages());
+            w.writeString(blog.getContent());
+            w.writeInt(blog.getLiked());
+            w.writeInt(blog.getComments());
+            w.writeTime(blog.getCreateTime());
+            w.writeTime(blog.getUpdateTime());
+        }, (r, version) -> new Blog()
+                .setId(r.readLong())
+                .setShopId(r.readLong())
+                .setUserId(r.readLong())
+                .setTitle(r.readString())
+                .setImages(r.readString())
+                .setContent(r.readString())
+                .setLiked(r.readInt())
+                .setComments(r.readInt())
+                .setCreateTime(r.readTime())
+                .setUpdateTime(r.readTime()));
+        register(5, 1, Voucher.class, (voucher, w) -> {
+            w.writeLong(voucher.getId());
+            w.writeLong(voucher.getShopId());
+            w.writeString(voucher.getTitle());
+            w.writeString(voucher.getSubTitle());
+            w.writeString(voucher.getRules());
+            w.writeLong(voucher.getPayValue());
+            w.writeLong(voucher.getActualValue());
+            w.writeInt(voucher.getType());
+            w.writeInt(voucher.getStatus());
+            w.writeInt(voucher.getStock());
+            w.writeTime(voucher.getBeginTime());
+            w.writeTime(voucher.getEndTime());
+            w.writeTime(voucher.getCreateTime());
+            w.writeTime(voucher.getUpdateTime());
+        }, (r, version) -> new Voucher()
+                .setId(r.readLong())
+                .setShopId(r.readLong())
+                .setTitle(r.readString())
+                .setSubTitle(r.readString())
+                .setRules(r.readString())
+                .setPayValue(r.readLong())
+                .setActualValue(r.readLong())
+                .setType(r.readInt())
+                .setStatus(r.readInt())
+                .setStock(r.readInt())
+                .setBeginTime(r.readTime())
+                .setEndTime(r.readTime())
+                .setCreateTime(r.readTime())
+                .setUpdateTime(r.readTime()));
+    }
+
+    /**
+     * 注册一个类型的schema
+     *
+     * @param id      schema id，写入缓存后不能再修改
+     * @param version 当前版本，追加字段时加1，reader按版本判断是否读取新字段
+     */
+    private <T> void register(int id, int version, Class<T> type, BiConsumer<T, Writer> writer, BiFunction<Reader, Integer, T> reader) {
+        Schema<T> schema = new Schema<>(id, version, type, writer, reader);
+        schemas.put(type, schema);
+        schemasById[id] = schema;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public byte[] encode(Object value) {
+        Schema<Object> schema = (Schema<Object>) schemas.get(value.getClass());
+        if (schema == null) {
+            return json.encode(value);
+        }
+        Writer w = new Writer(128);
+        writeValue(schema, value, w);
+        return w.toByteArray();
+    }
+
+    @Override
+    public <T> T decode(byte[] bytes, Class<T> type) {
+        if (bytes.length == 0 || bytes[0] != MAGIC) {
+            return json.decode(bytes, type);
+        }
+        return readValue(new Reader(bytes, 0), type);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public byte[] encodeLogical(RedisData data) {
+        Schema<Object> schema = (Schema<Object>) schemas.get(data.getData().getClass());
+        if (schema == null) {
+            return json.encodeLogical(data);
+        }
+        Writer w = new Writer(136);
+        w.writeByte(MAGIC);
+        w.writeByte(LOGICAL_ID);
+        w.writeByte(1);
+        w.writeTime(data.getExpireTime());
+        writeValue(schema, data.getData(), w);
+        return w.toByteArray();
+    }
+
+    @Override
+    public <T> RedisData decodeLogical(byte[] bytes, Class<T> type) {
+        if (bytes.length < 3 || bytes[0] != MAGIC || bytes[1] != LOGICAL_ID) {
+            return json.decodeLogical(bytes, type);
+        }
+        Reader r = new Reader(bytes, 3);
+        RedisData redisData = new RedisData();
+        redisData.setExpireTime(r.readTime());
+        redisData.setData(readValue(r, type));
+        return redisData;
+    }
+
+    private static void writeValue(Schema<Object> schema, Object value, Writer w) {
+        w.writeByte(MAGIC);
+        w.writeByte(schema.id);
+        w.writeByte(schema.version);
+        schema.writer.accept(value, w);
+    }
+
+    private <T> T readValue(Reader r, Class<T> type) {
+        r.readByte();
+        int id = r.readByte();
+        int version = r.readByte();
+        Schema<?> schema = id > 0 && id < schemasById.length ? schemasById[id] : null;
+        if (schema == null || schema.type != type) {
+            throw new IllegalArgumentException("缓存的schema " + id + " 与类型 " + type.getName() + " 不匹配");
+        }
+        if (version > schema.version) {
+            // 新版本节点写入的缓存，只读取本节点认识的字段
+            version = schema.version;
+        }
+        return type.cast(schema.reader.apply(r, version));
+    }
+
+    /**
+     * 一个类型的编解码逻辑
+     */
+    private static class Schema<T> {
+        final int id;
+        final int version;
+        final Class<T> type;
+        final BiConsumer<T, Writer> writer;
+        final BiFunction<Reader, Integer, T> reader;
+
+        Schema(int id, int version, Class<T> type, BiConsumer<T, Writer> writer, BiFunction<Reader, Integer, T> reader) {
+            this.id = id;
+            this.version = version;
+            this.type = type;
+            this.writer = writer;
+            this.reader = reader;
+        }
+    }
+
+    /**
+     * 写入字段，字节数组不足时扩容
+     */
+    static class Writer {
+        private byte[] buf;
+        private int pos;
+
+        Writer(int capacity) {
+            buf = new byte[capacity];
+        }
+
+        void writeByte(int b) {
+            ensure(1);
+            buf[pos++] = (byte) b;
+        }
+
+        /**
+         * 可以为null的整数：0表示null，其余为zigzag编码加1
+         */
+        void writeLong(Long value) {
+            writeVarLong(value == null ? 0 : ((value << 1) ^ (value >> 63)) + 1);
+        }
+
+        void writeInt(Integer value) {
+            writeLong(value == null ? null : value.longValue());
+        }
+
+        void writeDouble(Double value) {
+            if (value == null) {
+                writeByte(0);
+                return;
+            }
+            writeByte(1);
+            long bits = Double.doubleToLongBits(value);
+            ensure(8);
+            for (int i = 0; i < 8; i++) {
+                buf[pos++] = (byte) (bits >>> (i << 3));
+            }
+        }
+
+        /**
+         * 字符串：长度加1(0表示null) + UTF-8字节
+         */
+        void writeString(String value) {
+            if (value == null) {
+                writeVarLong(0);
+                return;
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarLong(bytes.length + 1L);
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, buf, pos, bytes.length);
+            pos += bytes.length;
+        }
+
+        /**
+         * 时间：按UTC的秒数 + 纳秒
+         */
+        void writeTime(LocalDateTime value) {
+            if (value == null) {
+                writeLong(null);
+                return;
+            }
+            writeLong(value.toEpochSecond(ZoneOffset.UTC));
+            writeVarLong(value.getNano());
+        }
+
+        private void writeVarLong(long value) {
+            ensure(10);
+            while ((value & ~0x7FL) != 0) {
+                buf[pos++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buf[pos++] = (byte) value;
+        }
+
+        private void ensure(int n) {
+            if (pos + n > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length * 2, pos + n));
+            }
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buf, pos);
+        }
+    }
+
+    /**
+     * 按写入顺序读取字段
+     */
+    static class Reader {
+        private final byte[] buf;
+        private int pos;
+
+        Reader(byte[] buf, int pos) {
+            this.buf = buf;
+            this.pos = pos;
+        }
+
+        int readByte() {
+            return buf[pos++] & 0xFF;
+        }
+
+        Long readLong() {
+            long v = readVarLong();
+            if (v == 0) {
+                return null;
+            }
+            v--;
+            return (v >>> 1) ^ -(v & 1);
+        }
+
+        Integer readInt() {
+            Long v = readLong();
+            return v == null ? null : v.intValue();
+        }
+
+        Double readDouble() {
+            if (readByte() == 0) {
+                return null;
+            }
+            long bits = 0;
+            for (int i = 0; i < 8; i++) {
+                bits |= (buf[pos++] & 0xFFL) << (i << 3);
+            }
+            return Double.longBitsToDouble(bits);
+        }
+
+        String readString() {
+            long len = readVarLong();
+            if (len == 0) {
+                return null;
+            }
+            int n = (int) (len - 1);
+            String value = new String(buf, pos, n, StandardCharsets.UTF_8);
+            pos += n;
+            return value;
+        }
+
+        LocalDateTime readTime() {
+            Long seconds = readLong();
+            if (seconds == null) {
+                return null;
+            }
+            return LocalDateTime.ofEpochSecond(seconds, (int) readVarLong(), ZoneOffset.UTC);
+        }
+
+        private long readVarLong() {
+            long value = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte b = buf[pos++];
+                value |= (long) (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+        }
+    }
+}
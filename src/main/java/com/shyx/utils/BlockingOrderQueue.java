@@ -0,0 +1,154 @@
+package com.shyx.utils;
+
+import cn.hutool.core.thread.ThreadUtil;
+import com.shyx.config.SeckillProperties;
+import com.shyx.entity.VoucherOrder;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 基于JVM阻塞队列的订单队列
+ * 订单只保存在内存中，进程退出时未处理的订单丢失，仅用于单节点测试和性能对比
+ */
+@Slf4j
+public class BlockingOrderQueue implements OrderQueue {
+
+    /**
+     * 订单消费线程池
+     */
+    private static final ExecutorService SECKILL_ORDER_EXECUTOR =
+            Executors.newCachedThreadPool(ThreadUtil.newNamedThreadFactory("seckill-order-", true));
+
+    @Resource
+    private SeckillProperties seckillProperties; // 秒杀相关配置
+
+    // 创建阻塞队列，用于存储订单信息
+    private BlockingQueue<VoucherOrder> orderTasks;
+
+    @Override
+    public boolean isWrittenByScript() {
+        return false;
+    }
+
+    /**
+     * 写入一个订单，队列已满时等待
+     *
+     * @param order 订单
+     */
+    @Override
+    public void add(VoucherOrder order) {
+        try {
+            orderTasks.put(order);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("订单入队被中断", e);
+        }
+    }
+
+    /**
+     * 启动consumers个消费线程
+     *
+     * @param handler 订单处理逻辑
+     */
+    @Override
+    public void start(Handler handler) {
+        orderTasks = new ArrayBlockingQueue<>(seckillProperties.getOrder().getBlockingCapacity());
+        for (int i = 0; i < seckillProperties.getOrder().getConsumers(); i++) {
+            SECKILL_ORDER_EXECUTOR.submit(() -> consume(handler));
+        }
+    }
+
+    @Override
+    public long lag() {
+        return orderTasks == null ? 0 : orderTasks.size();
+    }
+
+    /**
+     * 销毁方法，停止消费线程
+     */
+    @PreDestroy
+    private void destroy() {
+        SECKILL_ORDER_EXECUTOR.shutdownNow();
+    }
+
+    /**
+     * 消费线程：取出订单并处理，批量模式下一次取出一批
+     */
+    private void consume(Handler handler) {
+        SeckillProperties.Order config = seckillProperties.getOrder();
+        int batchSize = config.isBatchEnabled() ? config.getBatchSize() : 1;
+        List<VoucherOrder> orders = new ArrayList<>(batchSize);
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                //1.获取队列中的订单信息，没有订单时阻塞
+                orders.add(orderTasks.take());
+                //2.批量模式下在凑批时间内继续获取
+                if (batchSize > 1) {
+                    long deadline = System.nanoTime() + config.getBatchLinger().toNanos();
+                    while (orders.size() < batchSize) {
+                        VoucherOrder order = orderTasks.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                        if (order == null) {
+                            break;
+                        }
+                        orders.add(order);
+                    }
+                }
+                //3.处理订单，失败时按退避间隔重试
+                handle(handler, orders);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                orders.clear();
+            }
+        }
+    }
+
+    /**
+     * 处理一批订单，整批失败后逐个处理，一个订单的异常不会拖累同批的其他订单
+     */
+    private void handle(Handler handler, List<VoucherOrder> orders) throws InterruptedException {
+        if (orders.size() > 1) {
+            try {
+                handler.handle(orders);
+                return;
+            } catch (Exception e) {
+                log.error("批量处理 {} 个订单异常，逐个处理", orders.size(), e);
+            }
+        }
+        for (VoucherOrder order : orders) {
+            handle(handler, order);
+        }
+    }
+
+    /**
+     * 处理一个订单，失败时按退避间隔重试，达到最大投递次数后放弃
+     */
+    private void handle(Handler handler, VoucherOrder order) throws InterruptedException {
+        SeckillProperties.Order config = seckillProperties.getOrder();
+        List<VoucherOrder> single = Collections.singletonList(order);
+        for (int deliveries = 1; ; deliveries++) {
+            try {
+                handler.handle(single);
+                return;
+            } catch (Exception e) {
+                log.error("处理订单 {} 异常, 第{}次", order.getId(), deliveries, e);
+                if (deliveries >= config.getMaxDeliveries()) {
+                    handler.dead(order);
+                    return;
+                }
+                long backoff = config.getRetryBackoff().toMillis() << Math.min(deliveries - 1, 20);
+                Thread.sleep(Math.min(backoff, config.getMaxRetryBackoff().toMillis()));
+            }
+        }
+    }
+}
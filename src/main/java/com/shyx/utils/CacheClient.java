@@ -1,28 +1,113 @@
 package com.shyx.utils;
 
-import cn.hutool.core.util.StrUtil;
-import cn.hutool.json.JSONUtil;
-import com.shyx.entity.Shop;
+import cn.hutool.core.thread.ThreadUtil;
+import cn.hutool.core.util.BooleanUtil;
+import com.shyx.config.CacheProperties;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.types.Expiration;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.data.redis.serializer.RedisSerializer;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
 import static com.shyx.utils.RedisConstants.*;
 
 /**
  * 缓存客户端类，提供Redis缓存操作的相关功能
- * 使用StringRedisTemplate进行Redis操作，支持JSON序列化和反序列化
+ * 缓存值通过ValueCodec编码为字节数组写入Redis，读取时直接从字节数组解码，编码方式由cache.codec选择；
+ * 空值为空字节数组，无法解码的值(切换编码方式之前写入的缓存)视为未命中
+ * 配置了一级缓存的key前缀在Redis之前先查询进程内的LocalCache，命中时不访问Redis也不需要反序列化；
+ * 数据修改后通过invalidate删除Redis中的key，并在Redis频道cache:invalidate上通知所有节点删除一级缓存
+ * 提供缓存穿透(空值)、缓存击穿(单飞加载)和逻辑过期(异步重建)三种查询策略；
+ * 注册了布隆过滤器的key前缀，过滤器判定不存在的id直接返回null；
+ * 写入的过期时间带有随机增量，同时写入的key不会同时过期；
+ * 配置了热点统计的key前缀记录每次访问的频率，后台定期把即将过期的热点key提前重新加载，热点key不会出现未命中
  */
 @Slf4j
 @Component
-public class CacheClient {
+public class CacheClient implements MessageListener {
+
+    // 一级缓存中表示数据不存在的值
+    private static final Object NULL = new Object();
+    // Redis中表示数据不存在的值
+    private static final byte[] EMPTY = new byte[0];
+
+    /**
+     * 检查热点key剩余过期时间的线程
+     */
+    private static final ScheduledExecutorService WARM_EXECUTOR =
+            Executors.newSingleThreadScheduledExecutor(ThreadUtil.newNamedThreadFactory("cache-warmer-", true));
+
     // Redis操作的模板类，用于执行Redis操作
     private StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    private CacheProperties cacheProperties; // 缓存相关配置
+    @Resource
+    private RedisMessageListenerContainer listenerContainer; // Redis频道监听容器
+    @Resource
+    private MeterRegistry meterRegistry; // 指标注册表
+    @Resource
+    private RedisBloomFilter bloomFilter; // 实体id布隆过滤器
+    @Resource
+    private ValueCodec valueCodec; // 缓存值编解码
+
+    // 进程内一级缓存
+    private LocalCache<Object> localCache;
+    // 热点key统计，附带刷新该key所需的加载逻辑
+    private HotKeyTracker<Refresher> hotKeys;
+    // 逻辑过期的重建线程池，有界，队列满时放弃重建
+    private ExecutorService rebuildExecutor;
+    // 正在加载的key，同时未命中的请求共享同一个future
+    private final Map<String, CompletableFuture<Object>> loading = new ConcurrentHashMap<>();
+    // 已经提交重建任务的key
+    private final Set<String> rebuilding = ConcurrentHashMap.newKeySet();
+    // 失效次数，查询Redis期间发生过失效时不写入一级缓存，避免写入失效之前读到的旧数据
+    private final AtomicLong invalidations = new AtomicLong();
+    // 两级缓存的命中和未命中次数，用于计算命中率
+    private final LongAdder localHits = new LongAdder();
+    private final LongAdder localMisses = new LongAdder();
+    private final LongAdder redisHits = new LongAdder();
+    private final LongAdder redisMisses = new LongAdder();
+
     /**
      * CacheClient的构造函数，用于初始化StringRedisTemplate实例
      *
@@ -33,19 +118,110 @@ public class CacheClient {
         this.stringRedisTemplate = stringRedisTemplate;
     }
 
+    /**
+     * 初始化：创建一级缓存和重建线程池，订阅失效频道，注册命中率指标，启动热点key的提前刷新
+     */
+    @PostConstruct
+    private void init() {
+        localCache = new LocalCache<>(cacheProperties.getLocal().getMaximumSize());
+        CacheProperties.Hot hot = cacheProperties.getHot();
+        hotKeys = new HotKeyTracker<>(hot.getTopK(), hot.getSampleSize());
+        if (hot.isEnabled()) {
+            long interval = hot.getRefreshInterval().toMillis();
+            WARM_EXECUTOR.scheduleWithFixedDelay(this::refreshHotKeys, interval, interval, TimeUnit.MILLISECONDS);
+        }
+        CacheProperties.Rebuild rebuild = cacheProperties.getRebuild();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(rebuild.getThreads(), rebuild.getThreads(),
+                60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(rebuild.getQueueCapacity()),
+                ThreadUtil.newNamedThreadFactory("cache-rebuild-", true));
+        executor.allowCoreThreadTimeOut(true);
+        // 记录线程池的排队数、活跃线程数和任务耗时
+        rebuildExecutor = ExecutorServiceMetrics.monitor(meterRegistry, executor, "cache.rebuild");
+        listenerContainer.addMessageListener(this, new ChannelTopic(CACHE_INVALIDATE_CHANNEL));
+        meterRegistry.gauge("cache.local.size", localCache, LocalCache::size);
+        meterRegistry.gauge("cache.local.hit.ratio", this, c -> ratio(c.localHits, c.localMisses));
+        meterRegistry.gauge("cache.redis.hit.ratio", this, c -> ratio(c.redisHits, c.redisMisses));
+    }
+
+    /**
+     * 销毁：停止提前刷新和重建线程池
+     */
+    @PreDestroy
+    private void destroy() {
+        WARM_EXECUTOR.shutdownNow();
+        rebuildExecutor.shutdownNow();
+    }
+
+    /**
+     * 删除缓存：删除Redis中的key和本节点的一级缓存，并通知其他节点删除一级缓存
+     * 数据库修改后调用
+     *
+     * @param key 缓存键
+     */
+    public void invalidate(String key) {
+        stringRedisTemplate.delete(key);
+        evictLocal(key);
+        stringRedisTemplate.convertAndSend(CACHE_INVALIDATE_CHANNEL, key);
+    }
+
+    /**
+     * 批量删除缓存：一个pipeline删除Redis中的key并发布失效消息，再删除本节点的一级缓存
+     * 由CacheInvalidator在事务提交后调用
+     *
+     * @param keys 缓存键
+     */
+    public void invalidateAll(Collection<String> keys) {
+        if (keys.isEmpty()) {
+            return;
+        }
+        byte[][] rawKeys = keys.stream().map(CacheClient::raw).toArray(byte[][]::new);
+        byte[] channel = raw(CACHE_INVALIDATE_CHANNEL);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            connection.keyCommands().del(rawKeys);
+            for (byte[] key : rawKeys) {
+                connection.publish(channel, key);
+            }
+            return null;
+        });
+        keys.forEach(this::evictLocal);
+    }
+
+    /**
+     * 收到失效消息，删除一级缓存
+     */
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        evictLocal(new String(message.getBody(), StandardCharsets.UTF_8));
+    }
+
+    private void evictLocal(String key) {
+        invalidations.incrementAndGet();
+        localCache.remove(key);
+    }
+
     /**
      * 设置键值对并指定过期时间
      *
      * @param key   键
-     * @param value 值，将被转换为JSON字符串存储
-     * @param time  过期时间
+     * @param value 值，由ValueCodec编码后存储
+     * @param time  过期时间，实际过期时间随机增加0~cache.ttl-jitter比例
      * @param unit  时间单位
      */
     public void set(String key, Object value, long time, TimeUnit unit) {
-        // 使用StringRedisTemplate的值操作API设置键值对
-        // 将value对象转换为JSON字符串后存储
-        // 同时设置指定的过期时间
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(value), time, unit);
+        byte[] bytes = valueCodec.encode(value);
+        long millis = jitter(unit.toMillis(time));
+        stringRedisTemplate.execute((RedisCallback<Object>) connection -> connection.stringCommands()
+                .set(raw(key), bytes, Expiration.milliseconds(millis), RedisStringCommands.SetOption.upsert()));
+    }
+
+    /**
+     * 访问频率最高的key
+     *
+     * @param limit 最多返回的数量
+     * @return 按频率从高到低排列的key和估计频率
+     */
+    public List<HotKeyTracker.HotKey<?>> hotKeys(int limit) {
+        return new ArrayList<>(hotKeys.top(limit));
     }
 
     /**
@@ -61,7 +237,8 @@ public class CacheClient {
         RedisData redisData = new RedisData();
         redisData.setData(value);
         redisData.setExpireTime(LocalDateTime.now().plusSeconds(unit.toSeconds(time)));
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(redisData));
+        byte[] bytes = valueCodec.encodeLogical(redisData);
+        stringRedisTemplate.execute((RedisCallback<Object>) connection -> connection.stringCommands().set(raw(key), bytes));
     }
 
     /**
@@ -78,32 +255,555 @@ public class CacheClient {
     public <R, ID> R queryWithPassThrough(String keyPrefix, ID id,
                                           Class<R> type, Function<ID, R> dbFallback,
                                           long time, TimeUnit unit) {
+        return query(keyPrefix, id, type, dbFallback, time, unit, false);
+    }
+
+    /**
+     * 带缓存击穿防护的查询方法：同一个key同时未命中的请求只有一个查询数据库，其余请求等待它的结果
+     * 等待通过future完成，不需要休眠重试；单飞只在JVM内，每个节点对同一个key同时最多查询一次数据库
+     *
+     * @param keyPrefix  Redis键前缀
+     * @param id         数据ID
+     * @param type       返回值类型
+     * @param dbFallback 数据库查询函数
+     * @param time       缓存过期时间
+     * @param unit       时间单位
+     * @return 查询结果
+     */
+    public <R, ID> R queryWithMutex(String keyPrefix, ID id,
+                                    Class<R> type, Function<ID, R> dbFallback,
+                                    long time, TimeUnit unit) {
+        return query(keyPrefix, id, type, dbFallback, time, unit, true);
+    }
+
+    /**
+     * 带逻辑过期的查询方法：缓存不设置过期时间，逻辑过期后返回旧数据，由重建线程池异步重建
+     * 同一个key在JVM内同时只提交一个重建任务，跨节点通过Redis互斥锁保证只有一个节点重建；
+     * 缓存中没有数据时(未预热)同步查询数据库并写入，同时未命中的请求共享一次查询
+     *
+     * @param keyPrefix  Redis键前缀
+     * @param id         数据ID
+     * @param type       返回值类型
+     * @param dbFallback 数据库查询函数
+     * @param time       逻辑过期时间
+     * @param unit       时间单位
+     * @return 查询结果，可能是逻辑过期的旧数据
+     */
+    public <R, ID> R queryWithLogicalExpire(String keyPrefix, ID id,
+                                            Class<R> type, Function<ID, R> dbFallback,
+                                            long time, TimeUnit unit) {
+        String key = keyPrefix + id;
+        //1.先查询一级缓存，一级缓存中保存已经反序列化的RedisData
+        boolean local = isLocalEnabled(keyPrefix);
+        RedisData redisData = null;
+        if (local) {
+            Object cached = localCache.get(key);
+            if (cached == NULL) {
+                hit(localHits, "cache.local.hit", keyPrefix);
+                return null;
+            }
+            if (cached instanceof RedisData) {
+                hit(localHits, "cache.local.hit", keyPrefix);
+                redisData = (RedisData) cached;
+            } else {
+                hit(localMisses, "cache.local.miss", keyPrefix);
+            }
+        }
+        //2.查询Redis
+        if (redisData == null) {
+            long version = invalidations.get();
+            byte[] bytes = get(keyPrefix, id, key);
+            if (bytes != null && bytes.length == 0) {
+                //2.1 空值，数据不存在
+                hit(redisHits, "cache.redis.hit", keyPrefix);
+                putLocal(local, version, key, NULL, TimeUnit.MINUTES.toMillis(CACHE_NULL_TTL));
+                return null;
+            }
+            redisData = bytes == null ? null : decodeLogical(key, bytes, type);
+            if (redisData == null) {
+                //2.2 未预热或无法解码，同步查询数据库并写入逻辑过期缓存
+                hit(redisMisses, "cache.redis.miss", keyPrefix);
+                return singleFlight(key, () -> rebuild(key, id, dbFallback, time, unit));
+            }
+            hit(redisHits, "cache.redis.hit", keyPrefix);
+            putLocal(local, version, key, redisData, cacheProperties.getLocal().getTtl().toMillis());
+        }
+        R r = type.cast(redisData.getData());
+        //3.未过期，直接返回
+        if (redisData.getExpireTime().isAfter(LocalDateTime.now())) {
+            return r;
+        }
+        //4.已过期，提交重建任务后返回旧数据
+        rebuildAsync(key, () -> rebuild(key, id, dbFallback, time, unit));
+        return r;
+    }
+
+    /**
+     * 查询数据库并写入逻辑过期缓存，数据不存在时写入空值；写入后通知各节点删除一级缓存中的旧数据
+     */
+    private <R, ID> R rebuild(String key, ID id, Function<ID, R> dbFallback, long time, TimeUnit unit) {
+        R r = dbFallback.apply(id);
+        if (r == null) {
+            stringRedisTemplate.opsForValue().set(key, "", CACHE_NULL_TTL, TimeUnit.MINUTES);
+        } else {
+            setWithLogicalExpire(key, r, time, unit);
+        }
+        evictLocal(key);
+        stringRedisTemplate.convertAndSend(CACHE_INVALIDATE_CHANNEL, key);
+        return r;
+    }
+
+    /**
+     * 先查询一级缓存和Redis，都未命中时查询数据库并写回
+     *
+     * @param mutex 是否让同一个key同时未命中的请求共享一次数据库查询
+     */
+    private <R, ID> R query(String keyPrefix, ID id,
+                            Class<R> type, Function<ID, R> dbFallback,
+                            long time, TimeUnit unit, boolean mutex) {
         String key = keyPrefix + id; // 定义Redis缓存键，拼接商铺ID
-        //从redis查询商铺缓存
-        String json = stringRedisTemplate.opsForValue().get(key);
-        //判断是否存在
-        if (StrUtil.isNotBlank(json)) {
-            //存在，直接返回
-            return JSONUtil.toBean(json, type);
+        //记录访问频率，成为热点后由后台在过期前刷新
+        if (isHotEnabled(keyPrefix)) {
+            hotKeys.record(key, new Refresher(() -> dbFallback.apply(id), time, unit));
+        }
+        //先查询一级缓存
+        boolean local = isLocalEnabled(keyPrefix);
+        if (local) {
+            Object cached = localCache.get(key);
+            if (cached != null) {
+                hit(localHits, "cache.local.hit", keyPrefix);
+                return cached == NULL ? null : type.cast(cached);
+            }
+            hit(localMisses, "cache.local.miss", keyPrefix);
         }
+        long version = invalidations.get();
+        //从redis查询商铺缓存，布隆过滤器判定不存在时视为空值
+        byte[] bytes = get(keyPrefix, id, key);
         //判断命中的是否是空值
-        if (json != null) {
+        if (bytes != null && bytes.length == 0) {
             //存在，直接返回错误信息
+            hit(redisHits, "cache.redis.hit", keyPrefix);
+            putLocal(local, version, key, NULL, TimeUnit.MINUTES.toMillis(CACHE_NULL_TTL));
             return null;
         }
+        //判断是否存在，无法解码时视为不存在
+        R cachedValue = bytes == null ? null : decode(key, bytes, type);
+        if (cachedValue != null) {
+            //存在，直接返回
+            hit(redisHits, "cache.redis.hit", keyPrefix);
+            putLocal(local, version, key, cachedValue, unit.toMillis(time));
+            return cachedValue;
+        }
+        hit(redisMisses, "cache.redis.miss", keyPrefix);
+        if (!mutex) {
+            return load(key, id, dbFallback, time, unit, local, version);
+        }
+        return singleFlight(key, () -> {
+            //等待前一次加载期间可能已经写入Redis，再检查一次
+            byte[] again = stringRedisTemplate.execute((RedisCallback<byte[]>) connection -> connection.stringCommands().get(raw(key)));
+            if (again != null && again.length == 0) {
+                return null;
+            }
+            R r = again == null ? null : decode(key, again, type);
+            if (r != null) {
+                return r;
+            }
+            return load(key, id, dbFallback, time, unit, local, version);
+        });
+    }
+
+    /**
+     * 查询数据库并写入Redis和一级缓存，数据不存在时写入空值
+     */
+    private <R, ID> R load(String key, ID id, Function<ID, R> dbFallback, long time, TimeUnit unit,
+                           boolean local, long version) {
         //不存在，根据id查询数据库
         R r = dbFallback.apply(id);
         //不存在，返回错误
         if (r == null) {
             //将空值写入redis，防止缓存穿透
             stringRedisTemplate.opsForValue().set(key, "", CACHE_NULL_TTL, TimeUnit.MINUTES);
+            putLocal(local, version, key, NULL, TimeUnit.MINUTES.toMillis(CACHE_NULL_TTL));
             //返回错误信息
             return null;
         }
         //存在，将数据存入redis，设置缓存过期时间
         this.set(key, r, time, unit);
+        putLocal(local, version, key, r, unit.toMillis(time));
         //返回数据
         return r;
     }
 
+    /**
+     * 同一个key同时只执行一次loader，其余调用等待同一个future的结果
+     *
+     * @param key    缓存键
+     * @param loader 加载逻辑
+     * @return loader的结果
+     */
+    @SuppressWarnings("unchecked")
+    private <R> R singleFlight(String key, Supplier<R> loader) {
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        CompletableFuture<Object> running = loading.putIfAbsent(key, future);
+        if (running != null) {
+            //已有请求在加载，等待它的结果
+            meterRegistry.counter("cache.load.shared").increment();
+            try {
+                return (R) running.get(cacheProperties.getRebuild().getWaitTimeout().toMillis(), TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("等待缓存加载被中断", e);
+            } catch (TimeoutException e) {
+                throw new IllegalStateException("等待缓存加载超时: " + key, e);
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof RuntimeException
+                        ? (RuntimeException) e.getCause() : new IllegalStateException(e.getCause());
+            }
+        }
+        try {
+            R r = loader.get();
+            future.complete(r);
+            return r;
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            loading.remove(key, future);
+        }
+    }
+
+    /**
+     * 提交异步重建任务：JVM内同一个key只提交一次，执行前获取Redis互斥锁，获取失败说明其他节点正在重建
+     * 线程池队列已满时放弃，下一次读到过期数据时重新提交
+     */
+    private void rebuildAsync(String key, Runnable rebuild) {
+        if (!rebuilding.add(key)) {
+            return;
+        }
+        try {
+            rebuildExecutor.execute(() -> {
+                String lockKey = LOCK_CACHE_KEY + key;
+                try {
+                    Boolean locked = stringRedisTemplate.opsForValue().setIfAbsent(lockKey, "1", LOCK_CACHE_TTL, TimeUnit.SECONDS);
+                    if (!BooleanUtil.isTrue(locked)) {
+                        return;
+                    }
+                    try {
+                        rebuild.run();
+                    } finally {
+                        stringRedisTemplate.delete(lockKey);
+                    }
+                } catch (Exception e) {
+                    log.error("重建缓存 {} 异常", key, e);
+                } finally {
+                    rebuilding.remove(key);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            rebuilding.remove(key);
+            meterRegistry.counter("cache.rebuild.rejected").increment();
+        }
+    }
+
+    /**
+     * 批量查询：一级缓存之后，所有id的缓存在一个pipeline中读取(MGET，有布隆过滤器时同时发送各个id的BITFIELD)，
+     * 未命中的id一次交给dbBatchFallback查询，查询结果和不存在的id(空值)在一个pipeline中写回Redis；
+     * 无论多少个id，访问Redis和数据库的次数都是常数
+     *
+     * @param keyPrefix       Redis键前缀
+     * @param ids             数据ID
+     * @param type            返回值类型
+     * @param dbBatchFallback 批量查询数据库的函数，返回id -> 数据，不存在的id不包含在内
+     * @param time            缓存过期时间
+     * @param unit            时间单位
+     * @return id -> 数据，按ids的顺序排列，不存在的id不包含在内
+     */
+    public <R, ID> Map<ID, R> queryBatch(String keyPrefix, Collection<ID> ids,
+                                         Class<R> type, Function<List<ID>, Map<ID, R>> dbBatchFallback,
+                                         long time, TimeUnit unit) {
+        Map<ID, R> result = new LinkedHashMap<>();
+        List<ID> distinct = ids.stream().distinct().collect(Collectors.toList());
+        if (distinct.isEmpty()) {
+            return result;
+        }
+        //1.查询一级缓存
+        boolean local = isLocalEnabled(keyPrefix);
+        List<ID> remaining = new ArrayList<>(distinct.size());
+        Map<ID, R> found = new HashMap<>();
+        for (ID id : distinct) {
+            Object cached = local ? localCache.get(keyPrefix + id) : null;
+            if (cached == null) {
+                remaining.add(id);
+            } else if (cached != NULL) {
+                found.put(id, type.cast(cached));
+            }
+        }
+        if (local) {
+            hit(localHits, "cache.local.hit", keyPrefix, distinct.size() - remaining.size());
+            hit(localMisses, "cache.local.miss", keyPrefix, remaining.size());
+        }
+        //2.一个pipeline查询Redis
+        List<ID> misses = new ArrayList<>();
+        if (!remaining.isEmpty()) {
+            long version = invalidations.get();
+            List<byte[]> values = multiGet(keyPrefix, remaining);
+            for (int i = 0; i < remaining.size(); i++) {
+                ID id = remaining.get(i);
+                byte[] bytes = values.get(i);
+                if (bytes != null && bytes.length == 0) {
+                    putLocal(local, version, keyPrefix + id, NULL, TimeUnit.MINUTES.toMillis(CACHE_NULL_TTL));
+                    continue;
+                }
+                R r = bytes == null ? null : decode(keyPrefix + id, bytes, type);
+                if (r == null) {
+                    misses.add(id);
+                } else {
+                    found.put(id, r);
+                    putLocal(local, version, keyPrefix + id, r, unit.toMillis(time));
+                }
+            }
+            hit(redisHits, "cache.redis.hit", keyPrefix, remaining.size() - misses.size());
+            hit(redisMisses, "cache.redis.miss", keyPrefix, misses.size());
+            //3.未命中的id一次查询数据库，在一个pipeline中写回
+            if (!misses.isEmpty()) {
+                Map<ID, R> loaded = dbBatchFallback.apply(misses);
+                found.putAll(loaded);
+                long nullSeconds = TimeUnit.MINUTES.toSeconds(CACHE_NULL_TTL);
+                stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                    for (ID id : misses) {
+                        R r = loaded.get(id);
+                        if (r == null) {
+                            connection.stringCommands().setEx(raw(keyPrefix + id), nullSeconds, EMPTY);
+                        } else {
+                            connection.stringCommands().pSetEx(raw(keyPrefix + id), jitter(unit.toMillis(time)), valueCodec.encode(r));
+                        }
+                    }
+                    return null;
+                });
+                for (ID id : misses) {
+                    R r = loaded.get(id);
+                    putLocal(local, version, keyPrefix + id, r == null ? NULL : r,
+                            r == null ? TimeUnit.MINUTES.toMillis(CACHE_NULL_TTL) : unit.toMillis(time));
+                }
+            }
+        }
+        //4.按ids的顺序返回
+        for (ID id : distinct) {
+            R r = found.get(id);
+            if (r != null) {
+                result.put(id, r);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 一个pipeline读取多个id的缓存：有布隆过滤器时先发送过滤器ready标记和bitmap的EXISTS和各个id的BITFIELD，再发送一个MGET；
+     * 过滤器判定不存在的id返回空字节数组，ready标记或bitmap不存在时不过滤
+     */
+    private <ID> List<byte[]> multiGet(String keyPrefix, List<ID> ids) {
+        byte[][] rawKeys = ids.stream().map(id -> raw(keyPrefix + id)).toArray(byte[][]::new);
+        RedisBloomFilter.Filter filter = bloomFilter.filterOf(keyPrefix);
+        boolean filtered = filter != null && ids.stream().allMatch(id -> id instanceof Number);
+        if (!filtered) {
+            List<byte[]> values = stringRedisTemplate.execute((RedisCallback<List<byte[]>>) connection -> connection.stringCommands().mGet(rawKeys));
+            return values == null ? Collections.nCopies(ids.size(), null) : values;
+        }
+        byte[] filterKey = raw(filter.getKey());
+        // 结果保持为字节数组，不经过StringRedisTemplate的字符串反序列化
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            connection.keyCommands().exists(filter.getExistsKeys());
+            ids.forEach(id -> connection.stringCommands().bitField(filterKey, filter.getCommands(((Number) id).longValue())));
+            connection.stringCommands().mGet(rawKeys);
+            return null;
+        }, RedisSerializer.byteArray());
+        @SuppressWarnings("unchecked")
+        List<byte[]> values = new ArrayList<>((List<byte[]>) results.get(ids.size() + 1));
+        if (!filter.isIntact(results.get(0))) {
+            bloomFilter.onMissing(filter);
+            return values;
+        }
+        int rejected = 0;
+        for (int i = 0; i < ids.size(); i++) {
+            if (!filter.mightContain((List<?>) results.get(i + 1))) {
+                values.set(i, EMPTY);
+                rejected++;
+            }
+        }
+        if (rejected > 0) {
+            meterRegistry.counter("cache.bloom.rejected", "prefix", keyPrefix).increment(rejected);
+        }
+        return values;
+    }
+
+    /**
+     * 读取Redis缓存：key前缀有布隆过滤器时，过滤器ready标记和bitmap的EXISTS、BITFIELD和GET在同一个pipeline中发送，
+     * 过滤器判定id不存在时返回空字节数组，与缓存的空值相同处理，不查询数据库也不写入空值key；
+     * ready标记或bitmap不存在说明数据已经丢失，不过滤并通知重新构建
+     */
+    private byte[] get(String keyPrefix, Object id, String key) {
+        RedisBloomFilter.Filter filter = bloomFilter.filterOf(keyPrefix);
+        if (filter == null || !(id instanceof Number)) {
+            return stringRedisTemplate.execute((RedisCallback<byte[]>) connection -> connection.stringCommands().get(raw(key)));
+        }
+        long value = ((Number) id).longValue();
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            connection.keyCommands().exists(filter.getExistsKeys());
+            connection.stringCommands().bitField(raw(filter.getKey()), filter.getCommands(value));
+            connection.stringCommands().get(raw(key));
+            return null;
+        }, RedisSerializer.byteArray());
+        if (!filter.isIntact(results.get(0))) {
+            bloomFilter.onMissing(filter);
+        } else if (!filter.mightContain((List<?>) results.get(1))) {
+            meterRegistry.counter("cache.bloom.rejected", "prefix", keyPrefix).increment();
+            return EMPTY;
+        }
+        return (byte[]) results.get(2);
+    }
+
+    /**
+     * 解码缓存值，失败时(编码方式切换或schema不匹配)返回null，由调用方视为未命中并重新加载
+     */
+    private <R> R decode(String key, byte[] bytes, Class<R> type) {
+        try {
+            return valueCodec.decode(bytes, type);
+        } catch (RuntimeException e) {
+            log.warn("缓存 {} 无法解码为 {}，视为未命中", key, type.getSimpleName(), e);
+            meterRegistry.counter("cache.decode.failed").increment();
+            return null;
+        }
+    }
+
+    private RedisData decodeLogical(String key, byte[] bytes, Class<?> type) {
+        try {
+            return valueCodec.decodeLogical(bytes, type);
+        } catch (RuntimeException e) {
+            log.warn("逻辑过期缓存 {} 无法解码为 {}，视为未命中", key, type.getSimpleName(), e);
+            meterRegistry.counter("cache.decode.failed").increment();
+            return null;
+        }
+    }
+
+    private static byte[] raw(String key) {
+        return key.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 检查热点key的剩余过期时间，即将过期或已经过期的在重建线程池中重新加载
+     * 重新加载与逻辑过期重建共用Redis互斥锁，多个节点同时检查时只有一个节点查询数据库；
+     * 没有过期时间的key(逻辑过期)由查询时的异步重建处理
+     */
+    private void refreshHotKeys() {
+        try {
+            CacheProperties.Hot hot = cacheProperties.getHot();
+            List<HotKeyTracker.HotKey<Refresher>> top = hotKeys.top(hot.getTopK());
+            if (top.isEmpty()) {
+                return;
+            }
+            List<Object> ttls = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                top.forEach(hotKey -> connection.keyCommands().pTtl(raw(hotKey.getKey())));
+                return null;
+            });
+            long refreshAhead = hot.getRefreshAhead().toMillis();
+            for (int i = 0; i < top.size(); i++) {
+                Long ttl = (Long) ttls.get(i);
+                if (ttl == null || ttl == -1 || ttl > refreshAhead) {
+                    continue;
+                }
+                String key = top.get(i).getKey();
+                Refresher refresher = top.get(i).getAttachment();
+                rebuildAsync(key, () -> refresh(key, refresher));
+            }
+        } catch (Exception e) {
+            log.error("刷新热点缓存异常", e);
+        }
+    }
+
+    /**
+     * 重新加载热点key并写入Redis，通知各节点删除一级缓存中的旧数据；数据已不存在时写入空值并不再跟踪
+     */
+    private void refresh(String key, Refresher refresher) {
+        Object value = refresher.loader.get();
+        if (value == null) {
+            stringRedisTemplate.opsForValue().set(key, "", CACHE_NULL_TTL, TimeUnit.MINUTES);
+            hotKeys.remove(key);
+        } else {
+            set(key, value, refresher.time, refresher.unit);
+        }
+        evictLocal(key);
+        stringRedisTemplate.convertAndSend(CACHE_INVALIDATE_CHANNEL, key);
+        meterRegistry.counter("cache.refresh.ahead").increment();
+    }
+
+    /**
+     * 过期时间随机增加0~cache.ttl-jitter比例
+     */
+    private long jitter(long millis) {
+        long bound = (long) (millis * cacheProperties.getTtlJitter());
+        return bound <= 0 ? millis : millis + ThreadLocalRandom.current().nextLong(bound + 1);
+    }
+
+    /**
+     * key前缀是否统计访问频率
+     */
+    private boolean isHotEnabled(String keyPrefix) {
+        CacheProperties.Hot config = cacheProperties.getHot();
+        return config.isEnabled() && config.getPrefixes().contains(keyPrefix);
+    }
+
+    /**
+     * key前缀是否使用一级缓存
+     */
+    private boolean isLocalEnabled(String keyPrefix) {
+        CacheProperties.Local config = cacheProperties.getLocal();
+        return config.isEnabled() && config.getPrefixes().contains(keyPrefix);
+    }
+
+    /**
+     * 写入一级缓存，过期时间不超过Redis中的过期时间；查询期间发生过失效时不写入
+     * 一级缓存中的对象由所有请求共享，调用方不能修改
+     */
+    private void putLocal(boolean local, long version, String key, Object value, long ttlMillis) {
+        if (!local || invalidations.get() != version) {
+            return;
+        }
+        localCache.put(key, value, Math.min(ttlMillis, cacheProperties.getLocal().getTtl().toMillis()));
+    }
+
+    /**
+     * 记录一次命中或未命中
+     */
+    private void hit(LongAdder adder, String name, String keyPrefix) {
+        hit(adder, name, keyPrefix, 1);
+    }
+
+    private void hit(LongAdder adder, String name, String keyPrefix, int count) {
+        if (count <= 0) {
+            return;
+        }
+        adder.add(count);
+        meterRegistry.counter(name, "prefix", keyPrefix).increment(count);
+    }
+
+    private static double ratio(LongAdder hits, LongAdder misses) {
+        long h = hits.sum();
+        long total = h + misses.sum();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    /**
+     * 刷新一个热点key所需的加载逻辑和过期时间
+     */
+    static class Refresher {
+        final Supplier<Object> loader;
+        final long time;
+        final TimeUnit unit;
+
+        Refresher(Supplier<Object> loader, long time, TimeUnit unit) {
+            this.loader = loader;
+            this.time = time;
+            this.unit = unit;
+        }
+    }
 }
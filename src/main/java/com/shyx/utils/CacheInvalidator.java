@@ -0,0 +1,248 @@
+package com.shyx.utils;
+
+import cn.hutool.core.thread.ThreadUtil;
+import com.shyx.config.CacheProperties;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 数据修改后的缓存删除队列
+ * 1.在事务中调用时，key在事务提交后才加入队列，回滚时不删除；提交前删除会让并发的读请求把未提交前的旧数据写回缓存
+ * 2.单个线程从队列中取出一批key，合并重复的key后在一个pipeline中删除并发布失效消息，写请求不再同步等待Redis
+ * 3.第一次删除后延迟cache.invalidate.second-delete-delay再删除一次，覆盖删除前读到旧数据、删除后才写回的缓存
+ * 队列满时(包括重试时)在当前线程中按batch-size分批同步删除；Redis异常时稍后重试，
+ * 同步删除也失败的key只能等待过期，记录日志和cache.invalidate.dropped
+ * 指标：cache.invalidate.queue(排队的key数)、cache.invalidate.lag(提交到删除完成的耗时)
+ */
+@Slf4j
+@Component
+public class CacheInvalidator {
+
+    /**
+     * 删除缓存的线程
+     */
+    private static final ExecutorService INVALIDATE_EXECUTOR =
+            Executors.newSingleThreadExecutor(ThreadUtil.newNamedThreadFactory("cache-invalidator-", true));
+    /**
+     * 延迟再次删除和失败重试的线程
+     */
+    private static final ScheduledExecutorService DELAY_EXECUTOR =
+            Executors.newSingleThreadScheduledExecutor(ThreadUtil.newNamedThreadFactory("cache-invalidator-delay-", true));
+
+    @Resource
+    private CacheClient cacheClient; // 缓存客户端，执行批量删除
+    @Resource
+    private CacheProperties cacheProperties; // 缓存相关配置
+    @Resource
+    private MeterRegistry meterRegistry; // 指标注册表
+
+    // 待删除的key
+    private BlockingQueue<Pending> queue;
+    // 提交到删除完成的耗时
+    private Timer lag;
+
+    /**
+     * 初始化：创建队列，注册指标，启动删除线程
+     */
+    @PostConstruct
+    private void init() {
+        queue = new LinkedBlockingQueue<>(cacheProperties.getInvalidate().getQueueCapacity());
+        meterRegistry.gauge("cache.invalidate.queue", queue, BlockingQueue::size);
+        lag = meterRegistry.timer("cache.invalidate.lag");
+        INVALIDATE_EXECUTOR.submit(this::consume);
+    }
+
+    /**
+     * 销毁：停止删除线程，队列中剩余的key同步删除，尚未执行的再次删除放弃
+     */
+    @PreDestroy
+    private void destroy() throws InterruptedException {
+        DELAY_EXECUTOR.shutdownNow();
+        INVALIDATE_EXECUTOR.shutdownNow();
+        INVALIDATE_EXECUTOR.awaitTermination(1, TimeUnit.SECONDS);
+        List<Pending> remaining = new ArrayList<>();
+        queue.drainTo(remaining);
+        if (!remaining.isEmpty()) {
+            cacheClient.invalidateAll(coalesce(remaining).keySet());
+        }
+    }
+
+    /**
+     * 删除缓存：当前线程有事务时在提交后加入删除队列，没有事务时立即加入
+     * 写入数据库的方法在修改数据后调用，不需要关心是否在事务中
+     *
+     * @param keys 缓存键
+     */
+    public void invalidate(String... keys) {
+        invalidate(Arrays.asList(keys));
+    }
+
+    /**
+     * 删除缓存：当前线程有事务时在提交后加入删除队列，没有事务时立即加入
+     *
+     * @param keys 缓存键
+     */
+    public void invalidate(Collection<String> keys) {
+        List<String> copy = new ArrayList<>(keys);
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            enqueue(copy, false);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                enqueue(copy, false);
+            }
+        });
+    }
+
+    /**
+     * 加入删除队列，队列满时同步删除
+     *
+     * @param second 是否是延迟的再次删除
+     */
+    private void enqueue(Collection<String> keys, boolean second) {
+        long now = System.nanoTime();
+        List<String> overflow = new ArrayList<>();
+        for (String key : keys) {
+            if (!queue.offer(new Pending(key, now, second))) {
+                overflow.add(key);
+            }
+        }
+        if (!overflow.isEmpty()) {
+            meterRegistry.counter("cache.invalidate.overflow").increment(overflow.size());
+            invalidateNow(overflow);
+        }
+    }
+
+    /**
+     * 队列已满时在当前线程中删除，每个pipeline最多batch-size个key，失败后不再继续，剩余的key记为丢弃
+     * 不抛出异常，事务提交后的回调中调用也不会影响请求
+     */
+    private void invalidateNow(List<String> keys) {
+        int batchSize = cacheProperties.getInvalidate().getBatchSize();
+        for (int i = 0; i < keys.size(); i += batchSize) {
+            try {
+                cacheClient.invalidateAll(keys.subList(i, Math.min(i + batchSize, keys.size())));
+            } catch (Exception e) {
+                int dropped = keys.size() - i;
+                meterRegistry.counter("cache.invalidate.dropped").increment(dropped);
+                log.warn("删除缓存队列已满且同步删除失败，{} 个key等待过期，例如 {}", dropped, keys.get(i), e);
+                return;
+            }
+        }
+    }
+
+    /**
+     * 删除线程：阻塞等待第一个key，再取出已经排队的key凑成一批
+     */
+    private void consume() {
+        int batchSize = cacheProperties.getInvalidate().getBatchSize();
+        List<Pending> batch = new ArrayList<>(batchSize);
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                batch.add(queue.take());
+                queue.drainTo(batch, batchSize - 1);
+                flush(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                log.error("删除缓存异常，稍后重试", e);
+                retry(new ArrayList<>(batch));
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * 合并重复的key后删除，记录耗时，需要再次删除的key延迟后重新加入队列
+     */
+    private void flush(List<Pending> batch) {
+        Map<String, Pending> keys = coalesce(batch);
+        cacheClient.invalidateAll(keys.keySet());
+        long now = System.nanoTime();
+        Set<String> again = new LinkedHashSet<>();
+        for (Pending pending : keys.values()) {
+            lag.record(now - pending.enqueuedAt, TimeUnit.NANOSECONDS);
+            if (!pending.second) {
+                again.add(pending.key);
+            }
+        }
+        if (batch.size() > keys.size()) {
+            meterRegistry.counter("cache.invalidate.coalesced").increment(batch.size() - keys.size());
+        }
+        long delay = cacheProperties.getInvalidate().getSecondDeleteDelay().toMillis();
+        if (delay > 0 && !again.isEmpty()) {
+            DELAY_EXECUTOR.schedule(() -> enqueue(again, true), delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * 按key合并：保留最早的加入时间，同一个key中只要有一次是第一次删除就需要再次删除
+     */
+    private static Map<String, Pending> coalesce(List<Pending> batch) {
+        Map<String, Pending> keys = new LinkedHashMap<>();
+        for (Pending pending : batch) {
+            keys.merge(pending.key, pending, (a, b) ->
+                    new Pending(a.key, Math.min(a.enqueuedAt, b.enqueuedAt), a.second && b.second));
+        }
+        return keys;
+    }
+
+    /**
+     * 删除失败的key稍后重新加入队列，保留原来的加入时间；队列已满的key同步删除
+     */
+    private void retry(List<Pending> batch) {
+        long delay = Math.max(cacheProperties.getInvalidate().getSecondDeleteDelay().toMillis(), 1000);
+        DELAY_EXECUTOR.schedule(() -> {
+            List<String> overflow = new ArrayList<>();
+            for (Pending pending : batch) {
+                if (!queue.offer(pending)) {
+                    overflow.add(pending.key);
+                }
+            }
+            if (!overflow.isEmpty()) {
+                meterRegistry.counter("cache.invalidate.overflow").increment(overflow.size());
+                invalidateNow(new ArrayList<>(new LinkedHashSet<>(overflow)));
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 待删除的key
+     */
+    private static class Pending {
+        final String key;
+        final long enqueuedAt;
+        final boolean second;
+
+        Pending(String key, long enqueuedAt, boolean second) {
+            this.key = key;
+            this.enqueuedAt = enqueuedAt;
+            this.second = second;
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.shyx.utils;
+
+/**
+ * 访问频率的count-min sketch，用于TinyLFU的准入判断
+ * 每个long保存16个4位计数器，每个元素在4行中各占一个计数器，频率取4个计数器的最小值，只会高估不会低估；
+ * 计数累计到sampleSize后所有计数器减半，历史热点逐渐衰减，频率反映最近一段时间的访问
+ * 非线程安全，调用方负责同步
+ */
+public class FrequencySketch {
+
+    private static final long[] SEEDS = {
+            0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+    private static final long RESET_MASK = 0x7777777777777777L;
+
+    private final long[] table;
+    private final int tableMask;
+    // 计数累计到该值时减半
+    private final int sampleSize;
+    private int size;
+
+    /**
+     * @param maximumSize 需要区分频率的元素数量，通常为缓存容量
+     */
+    public FrequencySketch(int maximumSize) {
+        int capacity = Math.max(Integer.highestOneBit(Math.max(maximumSize, 16) - 1) << 1, 16);
+        this.table = new long[capacity];
+        this.tableMask = capacity - 1;
+        this.sampleSize = 10 * Math.max(maximumSize, 16);
+    }
+
+    /**
+     * 元素的估计频率，最大为15
+     *
+     * @param hash 元素的hashCode
+     */
+    public int frequency(int hash) {
+        int h = spread(hash);
+        int start = (h & 3) << 2;
+        int frequency = Integer.MAX_VALUE;
+        for (int i = 0; i < 4; i++) {
+            int index = indexOf(h, i);
+            int count = (int) ((table[index] >>> ((start + i) << 2)) & 0xfL);
+            frequency = Math.min(frequency, count);
+        }
+        return frequency;
+    }
+
+    /**
+     * 元素的频率加1，4个计数器都已经为15时不再增加
+     *
+     * @param hash 元素的hashCode
+     */
+    public void increment(int hash) {
+        int h = spread(hash);
+        int start = (h & 3) << 2;
+        boolean added = false;
+        for (int i = 0; i < 4; i++) {
+            added |= incrementAt(indexOf(h, i), start + i);
+        }
+        if (added && ++size == sampleSize) {
+            reset();
+        }
+    }
+
+    /**
+     * 计数器未满15时加1
+     */
+    private boolean incrementAt(int index, int counter) {
+        int offset = counter << 2;
+        long mask = 0xfL << offset;
+        if ((table[index] & mask) != mask) {
+            table[index] += 1L << offset;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 所有计数器减半
+     */
+    private void reset() {
+        for (int i = 0; i < table.length; i++) {
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        size >>>= 1;
+    }
+
+    /**
+     * 第i行计数器所在的long
+     */
+    private int indexOf(int h, int i) {
+        long hash = (h + SEEDS[i]) * SEEDS[i];
+        hash += hash >>> 32;
+        return (int) hash & tableMask;
+    }
+
+    /**
+     * 打散hashCode，避免相近的hashCode落到相同的计数器
+     */
+    private static int spread(int x) {
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        return (x >>> 16) ^ x;
+    }
+}
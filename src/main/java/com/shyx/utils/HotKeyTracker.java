@@ -0,0 +1,159 @@
+package com.shyx.utils;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 热点key统计：Space-Saving算法，固定数量的计数器统计访问次数最多的key
+ * 1.计数器保留2倍容量，已跟踪的key访问次数加1，计数没有上限
+ * 2.计数器已满时新key替换计数最小的key，继承其计数加1，真实热点的计数不会被低估，新的热点总能进入
+ * 3.访问次数累计到10倍sampleSize后所有计数减半，计数为0的key删除，不再被访问的key逐渐被新的热点替换
+ * 记录访问时获取不到锁直接丢弃这次记录，统计是近似的，不会让请求在锁上排队
+ *
+ * @param <T> 候选key附带的数据，例如刷新该key所需的加载逻辑
+ */
+public class HotKeyTracker<T> {
+
+    private static final Comparator<HotKey<?>> BY_COUNT =
+            Comparator.comparingLong((HotKey<?> hotKey) -> hotKey.count).thenComparing(hotKey -> hotKey.key);
+
+    private final int counters;
+    private final long decayPeriod;
+    private final ReentrantLock lock = new ReentrantLock();
+    // 以下字段只在持有锁时访问
+    private final Map<String, HotKey<T>> candidates = new HashMap<>();
+    // 按计数从小到大排列，第一个为替换的对象
+    private final TreeSet<HotKey<T>> ordered = new TreeSet<>(BY_COUNT);
+    private long recorded;
+
+    /**
+     * @param capacity   保留的热点key数量
+     * @param sampleSize 统计窗口，访问次数累计到10倍该值后计数减半
+     */
+    public HotKeyTracker(int capacity, int sampleSize) {
+        this.counters = Math.max(capacity, 1) * 2;
+        this.decayPeriod = 10L * Math.max(sampleSize, this.counters);
+    }
+
+    /**
+     * 记录一次访问
+     *
+     * @param key        缓存键
+     * @param attachment 附带的数据，key进入候选集合时保存，之后的访问更新为最新值
+     */
+    public void record(String key, T attachment) {
+        if (!lock.tryLock()) {
+            return;
+        }
+        try {
+            HotKey<T> hotKey = candidates.get(key);
+            if (hotKey != null) {
+                ordered.remove(hotKey);
+                hotKey.count++;
+                hotKey.attachment = attachment;
+                ordered.add(hotKey);
+            } else if (candidates.size() < counters) {
+                add(new HotKey<>(key, 1, attachment));
+            } else {
+                HotKey<T> min = ordered.pollFirst();
+                candidates.remove(min.key);
+                add(new HotKey<>(key, min.count + 1, attachment));
+            }
+            if (++recorded >= decayPeriod) {
+                decay();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 计数最高的key，按计数从高到低排列
+     *
+     * @param limit 最多返回的数量
+     */
+    public List<HotKey<T>> top(int limit) {
+        List<HotKey<T>> list = new ArrayList<>(limit);
+        lock.lock();
+        try {
+            for (HotKey<T> hotKey : ordered.descendingSet()) {
+                if (list.size() >= limit) {
+                    break;
+                }
+                list.add(hotKey);
+            }
+        } finally {
+            lock.unlock();
+        }
+        return list;
+    }
+
+    /**
+     * 删除key，数据已经不存在时调用
+     */
+    public void remove(String key) {
+        lock.lock();
+        try {
+            HotKey<T> hotKey = candidates.remove(key);
+            if (hotKey != null) {
+                ordered.remove(hotKey);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void add(HotKey<T> hotKey) {
+        candidates.put(hotKey.key, hotKey);
+        ordered.add(hotKey);
+    }
+
+    /**
+     * 所有计数减半，减半后相同计数的先后顺序可能变化，重新排序
+     */
+    private void decay() {
+        recorded = 0;
+        List<HotKey<T>> list = new ArrayList<>(ordered);
+        ordered.clear();
+        for (HotKey<T> hotKey : list) {
+            hotKey.count >>>= 1;
+            if (hotKey.count == 0) {
+                candidates.remove(hotKey.key);
+            } else {
+                ordered.add(hotKey);
+            }
+        }
+    }
+
+    /**
+     * 一个热点key及其最近的访问次数(可能高估，不会低估)
+     */
+    public static class HotKey<T> {
+        private final String key;
+        private volatile long count;
+        private volatile T attachment;
+
+        HotKey(String key, long count, T attachment) {
+            this.key = key;
+            this.count = count;
+            this.attachment = attachment;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public long getFrequency() {
+            return count;
+        }
+
+        T getAttachment() {
+            return attachment;
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package com.shyx.utils;
+
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * hutool JSON编解码，与CacheClient之前写入的缓存格式相同
+ */
+public class JsonValueCodec implements ValueCodec {
+
+    @Override
+    public byte[] encode(Object value) {
+        return JSONUtil.toJsonStr(value).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public <T> T decode(byte[] bytes, Class<T> type) {
+        return JSONUtil.toBean(new String(bytes, StandardCharsets.UTF_8), type);
+    }
+
+    @Override
+    public byte[] encodeLogical(RedisData data) {
+        return encode(data);
+    }
+
+    @Override
+    public <T> RedisData decodeLogical(byte[] bytes, Class<T> type) {
+        // 先解析外层的RedisData，再把其中的JSONObject转换为type
+        RedisData stored = decode(bytes, RedisData.class);
+        RedisData redisData = new RedisData();
+        redisData.setData(JSONUtil.toBean((JSONObject) stored.getData(), type));
+        redisData.setExpireTime(stored.getExpireTime());
+        return redisData;
+    }
+}
@@ -0,0 +1,274 @@
+package com.shyx.utils;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 容量有限的进程内缓存，按W-TinyLFU淘汰
+ * 1.新写入的元素先进入窗口区(容量的1%，LRU)，窗口区溢出的元素进入试用区，作为准入候选
+ * 2.总数超过容量时，比较候选和试用区最久未访问的元素在FrequencySketch中的频率，频率低的被淘汰，
+ * 偶尔访问一次的大量元素不会把热点挤出缓存
+ * 3.试用区的元素再次被访问时晋升到保护区(主区的80%)，保护区溢出的元素降回试用区
+ * 读操作只访问ConcurrentHashMap，访问记录在获取不到锁时丢弃，高并发读不会在锁上排队；
+ * 每个元素带有过期时间，过期的元素读取时视为不存在
+ */
+public class LocalCache<V> {
+
+    private final int maximumSize;
+    private final int windowMaximum;
+    private final int protectedMaximum;
+    private final ConcurrentHashMap<String, Node<V>> data;
+    private final FrequencySketch sketch;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Deque<V> window = new Deque<>();
+    private final Deque<V> probation = new Deque<>();
+    private final Deque<V> protect = new Deque<>();
+
+    /**
+     * @param maximumSize 最多缓存的元素数量
+     */
+    public LocalCache(int maximumSize) {
+        this.maximumSize = Math.max(maximumSize, 2);
+        this.windowMaximum = Math.max(this.maximumSize / 100, 1);
+        this.protectedMaximum = (this.maximumSize - windowMaximum) * 8 / 10;
+        this.data = new ConcurrentHashMap<>(this.maximumSize * 4 / 3);
+        this.sketch = new FrequencySketch(this.maximumSize);
+    }
+
+    /**
+     * 读取未过期的元素
+     *
+     * @param key 键
+     * @return 不存在或已过期时返回null
+     */
+    public V get(String key) {
+        Node<V> node = data.get(key);
+        if (node == null) {
+            // 未命中也记录频率，再次写入时可以与已有元素竞争
+            if (lock.tryLock()) {
+                try {
+                    sketch.increment(key.hashCode());
+                } finally {
+                    lock.unlock();
+                }
+            }
+            return null;
+        }
+        if (node.expireAt < System.currentTimeMillis()) {
+            remove(key);
+            return null;
+        }
+        if (lock.tryLock()) {
+            try {
+                sketch.increment(key.hashCode());
+                onAccess(node);
+            } finally {
+                lock.unlock();
+            }
+        }
+        return node.value;
+    }
+
+    /**
+     * 写入元素，超过容量时淘汰
+     *
+     * @param key       键
+     * @param value     值
+     * @param ttlMillis 过期时间(毫秒)
+     */
+    public void put(String key, V value, long ttlMillis) {
+        long expireAt = System.currentTimeMillis() + ttlMillis;
+        lock.lock();
+        try {
+            sketch.increment(key.hashCode());
+            Node<V> node = data.get(key);
+            if (node != null) {
+                node.value = value;
+                node.expireAt = expireAt;
+                onAccess(node);
+                return;
+            }
+            node = new Node<>(key, value, expireAt);
+            data.put(key, node);
+            node.queue = window;
+            window.addLast(node);
+            evict();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 删除元素
+     *
+     * @param key 键
+     */
+    public void remove(String key) {
+        lock.lock();
+        try {
+            Node<V> node = data.remove(key);
+            if (node != null && node.queue != null) {
+                node.queue.remove(node);
+                node.queue = null;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 删除所有元素
+     */
+    public void clear() {
+        lock.lock();
+        try {
+            data.clear();
+            window.clear();
+            probation.clear();
+            protect.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 当前的元素数量
+     */
+    public int size() {
+        return data.size();
+    }
+
+    /**
+     * 访问后调整位置：窗口区和保护区移到末尾，试用区晋升到保护区
+     */
+    private void onAccess(Node<V> node) {
+        if (data.get(node.key) != node) {
+            // 读取之后已被删除或清空
+            return;
+        }
+        if (node.queue == window || node.queue == protect) {
+            node.queue.moveToLast(node);
+        } else if (node.queue == probation) {
+            probation.remove(node);
+            node.queue = protect;
+            protect.addLast(node);
+            // 保护区溢出，最久未访问的降回试用区
+            while (protect.size > protectedMaximum) {
+                Node<V> demoted = protect.pollFirst();
+                demoted.queue = probation;
+                probation.addLast(demoted);
+            }
+        }
+    }
+
+    /**
+     * 窗口区溢出的元素进入试用区；总数超过容量时在候选和试用区最久未访问的元素之间淘汰频率低的
+     */
+    private void evict() {
+        while (window.size > windowMaximum) {
+            Node<V> candidate = window.pollFirst();
+            candidate.queue = probation;
+            probation.addLast(candidate);
+        }
+        while (data.size() > maximumSize) {
+            Node<V> victim = probation.first();
+            Node<V> candidate = probation.last();
+            if (victim == null) {
+                // 试用区为空，淘汰保护区最久未访问的元素
+                victim = protect.first();
+                candidate = victim;
+            }
+            Node<V> evicted = victim == candidate
+                    || sketch.frequency(candidate.key.hashCode()) > sketch.frequency(victim.key.hashCode())
+                    ? victim : candidate;
+            evicted.queue.remove(evicted);
+            evicted.queue = null;
+            data.remove(evicted.key, evicted);
+        }
+    }
+
+    /**
+     * 缓存元素，同时是所在队列的链表节点
+     */
+    private static class Node<V> {
+        final String key;
+        volatile V value;
+        volatile long expireAt;
+        // 所在的队列，已删除时为null，只在持有锁时访问
+        Deque<V> queue;
+        Node<V> prev;
+        Node<V> next;
+
+        Node(String key, V value, long expireAt) {
+            this.key = key;
+            this.value = value;
+            this.expireAt = expireAt;
+        }
+    }
+
+    /**
+     * 双向链表，头部为最久未访问的元素
+     */
+    private static class Deque<V> {
+        Node<V> head;
+        Node<V> tail;
+        int size;
+
+        Node<V> first() {
+            return head;
+        }
+
+        Node<V> last() {
+            return tail;
+        }
+
+        void addLast(Node<V> node) {
+            node.prev = tail;
+            node.next = null;
+            if (tail == null) {
+                head = node;
+            } else {
+                tail.next = node;
+            }
+            tail = node;
+            size++;
+        }
+
+        Node<V> pollFirst() {
+            Node<V> node = head;
+            if (node != null) {
+                remove(node);
+            }
+            return node;
+        }
+
+        void remove(Node<V> node) {
+            if (node.prev == null) {
+                head = node.next;
+            } else {
+                node.prev.next = node.next;
+            }
+            if (node.next == null) {
+                tail = node.prev;
+            } else {
+                node.next.prev = node.prev;
+            }
+            node.prev = null;
+            node.next = null;
+            size--;
+        }
+
+        void moveToLast(Node<V> node) {
+            if (node != tail) {
+                remove(node);
+                addLast(node);
+            }
+        }
+
+        void clear() {
+            head = null;
+            tail = null;
+            size = 0;
+        }
+    }
+}
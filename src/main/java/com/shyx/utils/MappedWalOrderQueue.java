@@ -0,0 +1,346 @@
+package com.shyx.utils;
+
+import cn.hutool.core.thread.ThreadUtil;
+import com.shyx.config.SeckillProperties;
+import com.shyx.entity.VoucherOrder;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 基于本地磁盘内存映射文件的订单队列(预写日志)，用于单节点部署
+ * <p>
+ * 文件由4KB的文件头和capacity个32字节的槽组成，按序号循环写入：
+ * 槽内依次为 序号+1(提交标记)、订单id、用户id、优惠券id，文件头保存已处理完的序号(检查点)。
+ * 下单线程用CAS占用序号后写入槽位，最后写提交标记；唯一的消费线程从检查点开始按序号连续读取，
+ * 处理完一批后推进检查点。数据写入页缓存即对进程崩溃持久，后台线程按sync-interval调用force刷盘，
+ * 操作系统崩溃时最多丢失一个刷盘周期内的订单。重启时从检查点开始扫描提交标记，恢复未处理的订单
+ */
+@Slf4j
+public class MappedWalOrderQueue implements OrderQueue {
+
+    // 文件头大小
+    private static final int HEADER_SIZE = 4096;
+    // 每个槽的大小
+    private static final int SLOT_SIZE = 32;
+    // 文件头：魔数、槽数量、检查点
+    private static final long MAGIC = 0x5345434B57414C31L;
+    private static final int MAGIC_OFFSET = 0;
+    private static final int CAPACITY_OFFSET = 8;
+    private static final int CHECKPOINT_OFFSET = 16;
+    // 恢复时发现的未提交槽位(占用序号后进程退出)，消费时跳过
+    private static final long SKIPPED = -1;
+    // 没有订单时消费线程的最长休眠时间
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final Path file;
+    private final Duration syncInterval;
+    private final SeckillProperties.Order config;
+
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    // 槽数量，为2的幂
+    private int capacity;
+    private int mask;
+    // 每个槽已提交的序号+1，消费线程通过它读取下单线程的写入
+    private AtomicLongArray committed;
+    // 下一个可写的序号
+    private final AtomicLong tail = new AtomicLong();
+    // 下一个待处理的序号，槽位在它之前的可以被覆盖
+    private volatile long head;
+    // 消费线程空闲等待中，下单后需要唤醒
+    private volatile boolean waiting;
+    private volatile boolean running;
+    private Thread consumer;
+    private ScheduledExecutorService syncExecutor;
+
+    /**
+     * @param file         日志文件
+     * @param capacity     槽数量，向上取整为2的幂；文件已存在时使用文件中的槽数量
+     * @param syncInterval 刷盘周期
+     * @param config       批量大小、重试次数与退避间隔
+     */
+    public MappedWalOrderQueue(Path file, int capacity, Duration syncInterval, SeckillProperties.Order config) {
+        this.file = file;
+        this.capacity = Integer.highestOneBit(Math.max(capacity - 1, 1)) << 1;
+        this.syncInterval = syncInterval;
+        this.config = config;
+    }
+
+    @Override
+    public boolean isWrittenByScript() {
+        return false;
+    }
+
+    /**
+     * 写入一个订单，日志写满时等待消费线程释放槽位
+     *
+     * @param order 订单
+     */
+    @Override
+    public void add(VoucherOrder order) {
+        //1.占用一个序号
+        long seq;
+        while (true) {
+            seq = tail.get();
+            if (seq - head >= capacity) {
+                // 日志已满，等待消费
+                LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(100));
+                continue;
+            }
+            if (tail.compareAndSet(seq, seq + 1)) {
+                break;
+            }
+        }
+        //2.写入槽位，最后写提交标记
+        int slot = (int) (seq & mask);
+        int offset = HEADER_SIZE + slot * SLOT_SIZE;
+        buffer.putLong(offset + 8, order.getId());
+        buffer.putLong(offset + 16, order.getUserId());
+        buffer.putLong(offset + 24, order.getVoucherId());
+        buffer.putLong(offset, seq + 1);
+        committed.set(slot, seq + 1);
+        //3.唤醒消费线程
+        if (waiting) {
+            LockSupport.unpark(consumer);
+        }
+    }
+
+    /**
+     * 打开日志文件，恢复未处理的订单并启动消费线程和刷盘线程
+     *
+     * @param handler 订单处理逻辑
+     */
+    @Override
+    public void start(Handler handler) {
+        try {
+            open();
+        } catch (IOException e) {
+            throw new IllegalStateException("打开订单日志失败: " + file, e);
+        }
+        running = true;
+        consumer = new Thread(() -> consume(handler), "seckill-order-wal");
+        consumer.setDaemon(true);
+        consumer.start();
+        syncExecutor = Executors.newSingleThreadScheduledExecutor(ThreadUtil.newNamedThreadFactory("seckill-order-wal-sync-", true));
+        long interval = syncInterval.toMillis();
+        syncExecutor.scheduleWithFixedDelay(this::sync, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public long lag() {
+        return tail.get() - head;
+    }
+
+    /**
+     * 停止消费线程，刷盘后关闭文件；未处理的订单在下次启动时恢复
+     */
+    public void close() {
+        running = false;
+        if (consumer != null) {
+            LockSupport.unpark(consumer);
+            try {
+                consumer.join(TimeUnit.SECONDS.toMillis(5));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (syncExecutor != null) {
+            syncExecutor.shutdownNow();
+        }
+        sync();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            log.error("关闭订单日志失败: {}", file, e);
+        }
+    }
+
+    /**
+     * 打开或创建日志文件，从检查点开始恢复已提交的订单
+     */
+    private void open() throws IOException {
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        boolean exists = Files.exists(file) && Files.size(file) >= HEADER_SIZE;
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if (exists) {
+            // 沿用文件中的槽数量，槽位与序号的对应关系不能改变
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+            if (header.getLong(MAGIC_OFFSET) != MAGIC) {
+                throw new IOException("不是订单日志文件: " + file);
+            }
+            int fileCapacity = (int) header.getLong(CAPACITY_OFFSET);
+            if (fileCapacity != capacity) {
+                log.warn("订单日志 {} 的槽数量为 {}，忽略配置的 {}", file, fileCapacity, capacity);
+                capacity = fileCapacity;
+            }
+        }
+        mask = capacity - 1;
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) capacity * SLOT_SIZE);
+        committed = new AtomicLongArray(capacity);
+        if (!exists) {
+            buffer.putLong(MAGIC_OFFSET, MAGIC);
+            buffer.putLong(CAPACITY_OFFSET, capacity);
+            buffer.putLong(CHECKPOINT_OFFSET, 0);
+            buffer.force();
+        }
+        recover();
+    }
+
+    /**
+     * 扫描所有槽位，找出检查点之后已提交的订单；
+     * 下单线程占用序号后未写完就退出，会在中间留下未提交的槽位，标记为跳过
+     */
+    private void recover() {
+        long checkpoint = buffer.getLong(CHECKPOINT_OFFSET);
+        long last = checkpoint - 1;
+        for (int slot = 0; slot < capacity; slot++) {
+            long seq = buffer.getLong(HEADER_SIZE + slot * SLOT_SIZE) - 1;
+            if (seq >= checkpoint && seq < checkpoint + capacity && (seq & mask) == slot) {
+                committed.set(slot, seq + 1);
+                last = Math.max(last, seq);
+            }
+        }
+        int skipped = 0;
+        for (long seq = checkpoint; seq <= last; seq++) {
+            int slot = (int) (seq & mask);
+            if (committed.get(slot) != seq + 1) {
+                committed.set(slot, seq + 1);
+                buffer.putLong(HEADER_SIZE + slot * SLOT_SIZE, SKIPPED);
+                skipped++;
+            }
+        }
+        head = checkpoint;
+        tail.set(last + 1);
+        log.info("订单日志 {} 恢复完成，检查点 {}，待处理 {} 条，跳过未提交 {} 条", file, checkpoint, last + 1 - checkpoint - skipped, skipped);
+    }
+
+    /**
+     * 消费线程：从head开始读取连续已提交的订单，处理后推进检查点
+     */
+    private void consume(Handler handler) {
+        int batchSize = config.isBatchEnabled() ? config.getBatchSize() : 1;
+        List<VoucherOrder> orders = new ArrayList<>(batchSize);
+        while (running) {
+            //1.读取连续已提交的一批订单
+            long seq = head;
+            long end = seq;
+            while (end - seq < batchSize && committed.get((int) (end & mask)) == end + 1) {
+                VoucherOrder order = read(end);
+                if (order != null) {
+                    orders.add(order);
+                }
+                end++;
+            }
+            //2.没有订单，等待下单线程唤醒
+            if (end == seq) {
+                waiting = true;
+                if (committed.get((int) (seq & mask)) != seq + 1) {
+                    LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                }
+                waiting = false;
+                continue;
+            }
+            //3.处理订单
+            if (!orders.isEmpty() && !handle(handler, orders)) {
+                // 处理被中断，不推进检查点，下次启动时重新处理
+                return;
+            }
+            orders.clear();
+            //4.推进检查点，释放槽位
+            buffer.putLong(CHECKPOINT_OFFSET, end);
+            head = end;
+        }
+    }
+
+    /**
+     * 读取一个槽位中的订单，恢复时标记为跳过的槽位返回null
+     */
+    private VoucherOrder read(long seq) {
+        int offset = HEADER_SIZE + (int) (seq & mask) * SLOT_SIZE;
+        if (buffer.getLong(offset) == SKIPPED) {
+            return null;
+        }
+        VoucherOrder order = new VoucherOrder();
+        order.setId(buffer.getLong(offset + 8));
+        order.setUserId(buffer.getLong(offset + 16));
+        order.setVoucherId(buffer.getLong(offset + 24));
+        return order;
+    }
+
+    /**
+     * 处理一批订单，整批失败后逐个处理，一个订单的异常不会拖累同批的其他订单
+     *
+     * @return 是否处理完成，停止时返回false
+     */
+    private boolean handle(Handler handler, List<VoucherOrder> orders) {
+        if (orders.size() > 1) {
+            try {
+                handler.handle(orders);
+                return true;
+            } catch (Exception e) {
+                log.error("批量处理 {} 个订单异常，逐个处理", orders.size(), e);
+            }
+        }
+        for (VoucherOrder order : orders) {
+            if (!handle(handler, order)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 处理一个订单，失败时按退避间隔重试，达到最大投递次数后放弃
+     *
+     * @return 是否处理完成，停止时返回false
+     */
+    private boolean handle(Handler handler, VoucherOrder order) {
+        List<VoucherOrder> single = Collections.singletonList(order);
+        for (int deliveries = 1; ; deliveries++) {
+            try {
+                handler.handle(single);
+                return true;
+            } catch (Exception e) {
+                log.error("处理订单 {} 异常, 第{}次", order.getId(), deliveries, e);
+                if (deliveries >= config.getMaxDeliveries()) {
+                    handler.dead(order);
+                    return true;
+                }
+                long backoff = config.getRetryBackoff().toMillis() << Math.min(deliveries - 1, 20);
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(Math.min(backoff, config.getMaxRetryBackoff().toMillis())));
+                if (!running) {
+                    return false;
+                }
+            }
+        }
+    }
+
+    /**
+     * 将页缓存中的修改刷到磁盘
+     */
+    private void sync() {
+        try {
+            buffer.force();
+        } catch (Exception e) {
+            log.error("订单日志刷盘失败: {}", file, e);
+        }
+    }
+}
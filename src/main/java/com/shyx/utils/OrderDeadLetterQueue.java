@@ -0,0 +1,137 @@
+package com.shyx.utils;
+
+import com.shyx.entity.VoucherOrder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.RedisZSetCommands;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static com.shyx.utils.RedisConstants.SECKILL_ORDER_DLQ;
+
+/**
+ * 订单死信队列
+ * 多次投递仍处理失败的订单消息转入stream.orders.dlq，避免单条异常消息反复重试拖慢整个队列；
+ * 死信消息可以查看，问题修复后可重新投递回原队列；
+ * 阻塞队列和预写日志队列中放弃处理、又无法确认状态的订单也保存在这里，重新投递时交给当前的订单队列
+ */
+@Slf4j
+@Component
+public class OrderDeadLetterQueue {
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate; // Redis操作模板
+    @Resource
+    private OrderStatusTracker orderStatus; // 订单持久化状态
+    @Lazy
+    @Resource
+    private OrderQueue orderQueue; // 订单队列，重新投递没有来源stream的死信
+
+    /**
+     * 将pending-list中的消息转入死信队列，并在原消费者组中确认
+     * 先写死信队列再确认，中途失败时消息仍在pending-list中，下次会再次转入
+     *
+     * @param stream     原消息队列
+     * @param group      原消费者组
+     * @param id         消息id
+     * @param deliveries 已投递次数
+     */
+    public void add(String stream, String group, RecordId id, long deliveries) {
+        //1.读取原消息内容
+        List<MapRecord<String, Object, Object>> records = stringRedisTemplate.opsForStream()
+                .range(stream, Range.closed(id.getValue(), id.getValue()));
+        //2.写入死信队列，附带来源队列、原消息id和投递次数
+        if (records != null && !records.isEmpty()) {
+            Map<Object, Object> value = new HashMap<>(records.get(0).getValue());
+            value.put("sourceStream", stream);
+            value.put("sourceId", id.getValue());
+            value.put("deliveries", String.valueOf(deliveries));
+            stringRedisTemplate.opsForStream().add(SECKILL_ORDER_DLQ, value);
+            orderStatus.markFailed(Collections.singletonList(Long.valueOf(String.valueOf(value.get("id")))));
+        }
+        //3.原消息已被删除时没有内容可保存，直接确认
+        stringRedisTemplate.opsForStream().acknowledge(stream, group, id);
+        log.error("订单消息 {} 投递 {} 次仍处理失败，转入死信队列", id, deliveries);
+    }
+
+    /**
+     * 保存一个不在stream中的订单(阻塞队列、预写日志队列)，消息格式与seckill.lua一致
+     *
+     * @param order      订单
+     * @param deliveries 已投递次数
+     */
+    public void add(VoucherOrder order, long deliveries) {
+        Map<String, String> value = new HashMap<>();
+        value.put("userId", order.getUserId().toString());
+        value.put("voucherId", order.getVoucherId().toString());
+        value.put("id", order.getId().toString());
+        value.put("deliveries", String.valueOf(deliveries));
+        stringRedisTemplate.opsForStream().add(SECKILL_ORDER_DLQ, value);
+        orderStatus.markFailed(Collections.singletonList(order.getId()));
+        log.error("订单 {} 投递 {} 次仍处理失败，转入死信队列", order.getId(), deliveries);
+    }
+
+    /**
+     * 查询死信队列中最早的若干条消息
+     *
+     * @param count 查询数量
+     * @return 消息列表，每条包含id和消息内容
+     */
+    public List<Map<String, Object>> list(int count) {
+        List<MapRecord<String, Object, Object>> records = stringRedisTemplate.opsForStream()
+                .range(SECKILL_ORDER_DLQ, Range.unbounded(), RedisZSetCommands.Limit.limit().count(count));
+        if (records == null) {
+            return Collections.emptyList();
+        }
+        return records.stream().map(record -> {
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("id", record.getId().getValue());
+            item.put("value", record.getValue());
+            return item;
+        }).collect(Collectors.toList());
+    }
+
+    /**
+     * 将死信消息重新投递回原队列，并从死信队列删除；没有来源stream的死信交给当前的订单队列
+     * 订单持久化是幂等的，重复投递不会产生重复订单
+     *
+     * @param id 死信消息id
+     * @return 死信消息不存在时返回false
+     */
+    public boolean replay(String id) {
+        List<MapRecord<String, Object, Object>> records = stringRedisTemplate.opsForStream()
+                .range(SECKILL_ORDER_DLQ, Range.closed(id, id));
+        if (records == null || records.isEmpty()) {
+            return false;
+        }
+        Map<Object, Object> value = new HashMap<>(records.get(0).getValue());
+        Object stream = value.remove("sourceStream");
+        value.remove("sourceId");
+        value.remove("deliveries");
+        //重新投递，再删除死信
+        if (stream != null) {
+            stringRedisTemplate.opsForStream().add(String.valueOf(stream), value);
+        } else {
+            VoucherOrder order = new VoucherOrder();
+            order.setId(Long.valueOf(String.valueOf(value.get("id"))));
+            order.setUserId(Long.valueOf(String.valueOf(value.get("userId"))));
+            order.setVoucherId(Long.valueOf(String.valueOf(value.get("voucherId"))));
+            orderQueue.add(order);
+        }
+        stringRedisTemplate.opsForStream().delete(SECKILL_ORDER_DLQ, id);
+        orderStatus.markRequeued(Long.valueOf(String.valueOf(value.get("id"))));
+        log.info("死信消息 {} 已重新投递到 {}", id, stream != null ? stream : "订单队列");
+        return true;
+    }
+}
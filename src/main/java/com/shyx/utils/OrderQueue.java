@@ -0,0 +1,63 @@
+package com.shyx.utils;
+
+import com.shyx.entity.VoucherOrder;
+
+import java.util.List;
+
+/**
+ * 秒杀订单队列：秒杀请求把订单交给队列，由队列的消费线程交给持久化逻辑
+ * 实现有三种，通过seckill.order.queue选择：
+ * stream - Redis Stream，订单由秒杀Lua脚本原子地写入，支持多节点消费(默认)
+ * blocking - JVM内的阻塞队列，不持久化，重启丢失未处理的订单
+ * wal - 本地磁盘上内存映射的预写日志，单节点部署使用，重启后继续处理未完成的订单
+ */
+public interface OrderQueue {
+
+    /**
+     * 订单是否由秒杀Lua脚本直接写入队列；为false时下单成功后调用add写入
+     *
+     * @return 是否由脚本写入
+     */
+    boolean isWrittenByScript();
+
+    /**
+     * 写入一个订单
+     *
+     * @param order 订单
+     */
+    void add(VoucherOrder order);
+
+    /**
+     * 启动消费线程
+     *
+     * @param handler 订单处理逻辑
+     */
+    void start(Handler handler);
+
+    /**
+     * 当前积压的订单数，用于扩容和准入控制
+     *
+     * @return 积压数量
+     */
+    long lag();
+
+    /**
+     * 订单处理逻辑
+     */
+    interface Handler {
+        /**
+         * 处理一批订单，抛出异常时由队列重试，批量处理失败时可能逐个重新处理
+         *
+         * @param orders 订单列表
+         */
+        void handle(List<VoucherOrder> orders);
+
+        /**
+         * 订单多次处理失败后放弃：订单不能只标记为失败，需要确认已持久化、归还库存或保存到死信队列
+         *
+         * @param order 订单
+         */
+        default void dead(VoucherOrder order) {
+        }
+    }
+}
@@ -0,0 +1,249 @@
+package com.shyx.utils;
+
+import cn.hutool.core.util.StrUtil;
+import com.shyx.config.SeckillProperties;
+import com.shyx.dto.Result;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.stream.Collectors;
+
+import static com.shyx.utils.RedisConstants.ORDER_STATUS_CHANNEL;
+import static com.shyx.utils.RedisConstants.ORDER_STATUS_KEY;
+
+/**
+ * 秒杀订单的异步持久化状态
+ * 状态保存在Redis的hash中：每100个连续的订单id共用一个hash，field为订单id，value为单个字符的状态，
+ * hash足够小，Redis使用紧凑编码存储；状态变化通过Redis频道order:status广播，
+ * 各节点唤醒正在长轮询该订单的请求。查询状态只访问Redis，不访问数据库
+ */
+@Slf4j
+@Component
+public class OrderStatusTracker implements MessageListener {
+
+    /**
+     * 已入队，等待持久化
+     */
+    public static final String QUEUED = "q";
+    /**
+     * 已写入数据库
+     */
+    public static final String PERSISTED = "p";
+    /**
+     * 持久化失败(重复下单、库存不足或多次处理失败转入死信队列)
+     */
+    public static final String FAILED = "f";
+
+    // 每个hash保存的订单数
+    private static final long ORDERS_PER_KEY = 100;
+
+    private static final DefaultRedisScript<Long> FAIL_SCRIPT;
+
+    static {
+        // 写入失败状态，已持久化的订单保持不变
+        FAIL_SCRIPT = new DefaultRedisScript<>();
+        FAIL_SCRIPT.setLocation(new ClassPathResource("order_status_fail.lua"));
+        FAIL_SCRIPT.setResultType(Long.class);
+    }
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate; // Redis操作模板
+    @Resource
+    private SeckillProperties seckillProperties; // 秒杀相关配置
+    @Resource
+    private RedisMessageListenerContainer listenerContainer; // Redis频道监听容器
+
+    // 正在长轮询的请求：订单id -> 等待结果的请求
+    private final Map<Long, Queue<DeferredResult<Result>>> waiters = new ConcurrentHashMap<>();
+
+    /**
+     * 初始化：订阅订单状态频道
+     */
+    @PostConstruct
+    private void init() {
+        listenerContainer.addMessageListener(this, new ChannelTopic(ORDER_STATUS_CHANNEL));
+    }
+
+    /**
+     * 记录订单已入队
+     */
+    public void markQueued(Long orderId) {
+        update(Collections.singletonMap(orderId, QUEUED));
+    }
+
+    /**
+     * 死信消息重新投递后，订单重新回到入队状态
+     */
+    public void markRequeued(Long orderId) {
+        stringRedisTemplate.opsForHash().put(key(orderId), orderId.toString(), QUEUED);
+        stringRedisTemplate.expire(key(orderId), seckillProperties.getStatus().getTtl());
+    }
+
+    /**
+     * 记录订单已持久化
+     */
+    public void markPersisted(Collection<Long> orderIds) {
+        update(orderIds.stream().collect(Collectors.toMap(id -> id, id -> PERSISTED, (a, b) -> a, LinkedHashMap::new)));
+    }
+
+    /**
+     * 记录订单持久化失败，已持久化的订单不会改为失败
+     */
+    public void markFailed(Collection<Long> orderIds) {
+        update(orderIds.stream().collect(Collectors.toMap(id -> id, id -> FAILED, (a, b) -> a, LinkedHashMap::new)));
+    }
+
+    /**
+     * 查询订单状态
+     *
+     * @param orderId 订单id
+     * @return 状态，不存在或已过期时返回null
+     */
+    public String get(Long orderId) {
+        Object status = stringRedisTemplate.opsForHash().get(key(orderId), orderId.toString());
+        return status == null ? null : status.toString();
+    }
+
+    /**
+     * 等待订单进入最终状态(已持久化或失败)
+     * 当前已是最终状态时立即返回，否则在状态变化或超时时返回当前状态
+     *
+     * @param orderId   订单id
+     * @param timeoutMs 最长等待时间(毫秒)，为0则立即返回
+     * @return 异步结果
+     */
+    public DeferredResult<Result> await(Long orderId, long timeoutMs) {
+        DeferredResult<Result> result = new DeferredResult<>(timeoutMs > 0 ? timeoutMs : null);
+        String status = get(orderId);
+        if (timeoutMs <= 0 || isFinal(status)) {
+            result.setResult(toResult(orderId, status));
+            return result;
+        }
+        // 先登记再读取一次，避免登记前状态已经变化而错过通知
+        Queue<DeferredResult<Result>> queue = waiters.computeIfAbsent(orderId, id -> new ConcurrentLinkedQueue<>());
+        queue.add(result);
+        Runnable remove = () -> {
+            queue.remove(result);
+            if (queue.isEmpty()) {
+                waiters.remove(orderId, queue);
+            }
+        };
+        result.onTimeout(() -> result.setResult(toResult(orderId, get(orderId))));
+        result.onCompletion(remove);
+        status = get(orderId);
+        if (isFinal(status)) {
+            result.setResult(toResult(orderId, status));
+        }
+        return result;
+    }
+
+    /**
+     * 收到状态变化消息，消息格式为 订单id:状态,订单id:状态...，唤醒等待这些订单的请求
+     */
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        if (waiters.isEmpty()) {
+            return;
+        }
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        for (String item : StrUtil.split(body, ',')) {
+            int i = item.indexOf(':');
+            if (i <= 0) {
+                continue;
+            }
+            Long orderId = Long.valueOf(item.substring(0, i));
+            String status = item.substring(i + 1);
+            Queue<DeferredResult<Result>> queue = waiters.get(orderId);
+            if (queue == null || !isFinal(status)) {
+                continue;
+            }
+            DeferredResult<Result> result;
+            while ((result = queue.poll()) != null) {
+                result.setResult(toResult(orderId, status));
+            }
+        }
+    }
+
+    /**
+     * 批量写入状态并刷新过期时间，同一个pipeline中发送；
+     * 只广播实际写入的最终状态，入队状态在下单请求中写入，不额外发布消息
+     */
+    private void update(Map<Long, String> statuses) {
+        if (statuses.isEmpty()) {
+            return;
+        }
+        long ttl = seckillProperties.getStatus().getTtl().toMillis();
+        String failScript = FAIL_SCRIPT.getScriptAsString();
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            statuses.forEach((orderId, status) -> {
+                if (QUEUED.equals(status)) {
+                    // 消费者可能先于下单请求写入最终状态，入队状态不能覆盖它
+                    conn.hSetNX(key(orderId), orderId.toString(), status);
+                } else if (FAILED.equals(status)) {
+                    // 重复投递的消息不能把已持久化改为失败
+                    conn.eval(failScript, ReturnType.INTEGER, 1, key(orderId), orderId.toString(), status);
+                } else {
+                    conn.hSet(key(orderId), orderId.toString(), status);
+                }
+            });
+            statuses.keySet().stream().map(this::key).distinct().forEach(key -> conn.pExpire(key, ttl));
+            return null;
+        });
+        StringBuilder builder = new StringBuilder();
+        int i = 0;
+        for (Map.Entry<Long, String> e : statuses.entrySet()) {
+            Object written = results.get(i++);
+            if (!isFinal(e.getValue()) || (FAILED.equals(e.getValue()) && !Long.valueOf(1).equals(written))) {
+                continue;
+            }
+            builder.append(builder.length() == 0 ? "" : ",").append(e.getKey()).append(':').append(e.getValue());
+        }
+        String message = builder.toString();
+        if (!message.isEmpty()) {
+            stringRedisTemplate.convertAndSend(ORDER_STATUS_CHANNEL, message);
+        }
+    }
+
+    private String key(Long orderId) {
+        return ORDER_STATUS_KEY + orderId / ORDERS_PER_KEY;
+    }
+
+    private static boolean isFinal(String status) {
+        return PERSISTED.equals(status) || FAILED.equals(status);
+    }
+
+    /**
+     * 转换为接口返回结果
+     */
+    private static Result toResult(Long orderId, String status) {
+        Map<String, Object> data = new LinkedHashMap<>();
+        data.put("orderId", orderId);
+        data.put("status", status == null ? "unknown"
+                : PERSISTED.equals(status) ? "persisted"
+                : FAILED.equals(status) ? "failed" : "queued");
+        return Result.ok(data);
+    }
+}
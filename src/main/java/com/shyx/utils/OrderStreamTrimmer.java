@@ -0,0 +1,236 @@
+package com.shyx.utils;
+
+import cn.hutool.core.thread.ThreadUtil;
+import com.shyx.config.SeckillProperties;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.RedisZSetCommands;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.PendingMessagesSummary;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamInfo;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * 订单消息队列裁剪器
+ * seckill.lua每次下单都会XADD一条消息，消息被确认后仍然留在stream中，Redis内存会随活动次数无限增长。
+ * 该组件定期计算所有消费者组中最早的未确认消息，将它之前的消息归档到本地分段文件后，
+ * 用XTRIM MINID从Redis中删除(需要Redis 6.2+)，并上报stream长度和内存占用指标
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(prefix = "seckill.order", name = "queue", havingValue = "stream", matchIfMissing = true)
+public class OrderStreamTrimmer {
+
+    /**
+     * 裁剪线程
+     */
+    private static final ScheduledExecutorService TRIM_EXECUTOR =
+            Executors.newSingleThreadScheduledExecutor(ThreadUtil.newNamedThreadFactory("seckill-stream-trim-", true));
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate; // Redis操作模板
+    @Resource
+    private SeckillProperties seckillProperties; // 秒杀相关配置
+    @Resource
+    private MeterRegistry meterRegistry; // 指标注册表
+    @Resource
+    private SeckillKeys seckillKeys; // 秒杀key布局
+
+    // 每个stream的归档文件
+    private final Map<String, StreamSegmentArchive> archives = new ConcurrentHashMap<>();
+    // 每个stream的长度和内存占用，由裁剪线程刷新，指标读取时不访问Redis
+    private final Map<String, AtomicLong> lengths = new ConcurrentHashMap<>();
+    private final Map<String, AtomicLong> memories = new ConcurrentHashMap<>();
+
+    /**
+     * 初始化：开启定期裁剪任务
+     */
+    @PostConstruct
+    private void init() {
+        long interval = seckillProperties.getRetention().getInterval().toMillis();
+        TRIM_EXECUTOR.scheduleWithFixedDelay(this::trimAll, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 销毁：停止裁剪任务
+     */
+    @PreDestroy
+    private void destroy() {
+        TRIM_EXECUTOR.shutdownNow();
+    }
+
+    /**
+     * 需要裁剪的stream，集群模式下为所有的订单stream分片
+     *
+     * @return stream的key列表
+     */
+    private List<String> streams() {
+        return seckillKeys.streamKeys();
+    }
+
+    /**
+     * 裁剪所有订单stream，并刷新指标
+     * 多个节点同时运行时通过分布式锁保证同一时刻只有一个节点在裁剪，归档不会重复写入多个节点
+     */
+    private void trimAll() {
+        for (String stream : streams()) {
+            try {
+                if (seckillProperties.getRetention().isEnabled()) {
+                    ILock lock = new SimpleRedisLock(stringRedisTemplate, "stream:trim:" + stream);
+                    long timeoutSec = Math.max(seckillProperties.getRetention().getInterval().getSeconds(), 1);
+                    if (lock.tryLock(timeoutSec)) {
+                        try {
+                            trim(stream);
+                        } finally {
+                            lock.unLock();
+                        }
+                    }
+                }
+                refreshMetrics(stream);
+            } catch (Exception e) {
+                log.error("裁剪订单消息队列 {} 异常", stream, e);
+            }
+        }
+    }
+
+    /**
+     * 裁剪一个stream：归档并删除所有消费者组都已确认的消息
+     *
+     * @param stream stream的key
+     * @throws IOException 归档失败时不裁剪
+     */
+    private void trim(String stream) throws IOException {
+        //1.计算可以裁剪到的位置
+        RecordId minId = safeMinId(stream);
+        if (minId == null) {
+            return;
+        }
+        //2.归档该位置之前的消息
+        if (seckillProperties.getRetention().isArchiveEnabled()) {
+            archive(stream, minId);
+        }
+        //3.XTRIM stream MINID minId，删除id小于minId的消息
+        Long trimmed = stringRedisTemplate.execute((RedisCallback<Long>) connection -> (Long) connection.execute("XTRIM",
+                bytes(stream), bytes("MINID"), bytes(minId.getValue())));
+        if (trimmed != null && trimmed > 0) {
+            log.info("裁剪订单消息队列 {} 共 {} 条，保留 {} 及之后的消息", stream, trimmed, minId);
+        }
+    }
+
+    /**
+     * 计算可以安全裁剪到的位置：所有消费者组中最早的未确认消息
+     * 消费者组有pending消息时取最小的pending id；没有时最后投递的消息之前都已确认，取最后投递的id
+     *
+     * @param stream stream的key
+     * @return 可以保留的最小id，没有消费者组时返回null，不裁剪
+     */
+    private RecordId safeMinId(String stream) {
+        StreamInfo.XInfoGroups groups = stringRedisTemplate.opsForStream().groups(stream);
+        RecordId minId = null;
+        for (int i = 0; i < groups.size(); i++) {
+            StreamInfo.XInfoGroup group = groups.get(i);
+            RecordId candidate;
+            if (group.pendingCount() > 0) {
+                PendingMessagesSummary summary = stringRedisTemplate.opsForStream().pending(stream, group.groupName());
+                candidate = summary.minRecordId();
+            } else {
+                candidate = RecordId.of(group.lastDeliveredId());
+            }
+            if (minId == null || compare(candidate, minId) < 0) {
+                minId = candidate;
+            }
+        }
+        return minId;
+    }
+
+    /**
+     * 将id小于minId的消息分批读出，追加写入本地归档文件
+     *
+     * @param stream stream的key
+     * @param minId  保留的最小id
+     * @throws IOException 写入失败
+     */
+    private void archive(String stream, RecordId minId) throws IOException {
+        int batch = seckillProperties.getRetention().getArchiveBatch();
+        StreamSegmentArchive archive = archives.computeIfAbsent(stream, key -> new StreamSegmentArchive(
+                // 集群模式的stream名包含冒号，Windows下不能作为目录名
+                new File(seckillProperties.getRetention().getArchiveDir(), key.replace(':', '-')),
+                seckillProperties.getRetention().getSegmentSize().toBytes()));
+        String start = "-";
+        while (true) {
+            List<MapRecord<String, Object, Object>> records = stringRedisTemplate.opsForStream().range(stream,
+                    Range.closed(start, minId.getValue()), RedisZSetCommands.Limit.limit().count(batch));
+            if (records == null || records.isEmpty()) {
+                return;
+            }
+            int fetched = records.size();
+            // 区间包含minId本身，minId不归档
+            records = records.stream().filter(r -> compare(r.getId(), minId) < 0).collect(Collectors.toList());
+            archive.append(records);
+            meterRegistry.counter("seckill.stream.archived", "stream", stream).increment(records.size());
+            if (fetched < batch || records.size() < fetched) {
+                return;
+            }
+            // 下一批从最后一条的下一个id开始
+            RecordId last = records.get(records.size() - 1).getId();
+            start = last.getTimestamp() + "-" + (last.getSequence() + 1);
+        }
+    }
+
+    /**
+     * 刷新stream长度和内存占用指标
+     *
+     * @param stream stream的key
+     */
+    private void refreshMetrics(String stream) {
+        Long length = stringRedisTemplate.opsForStream().size(stream);
+        Long memory = stringRedisTemplate.execute((RedisCallback<Long>) connection -> (Long) connection.execute("MEMORY",
+                bytes("USAGE"), bytes(stream)));
+        gauge(lengths, "seckill.stream.length", stream).set(length == null ? 0 : length);
+        gauge(memories, "seckill.stream.memory", stream).set(memory == null ? 0 : memory);
+    }
+
+    /**
+     * 获取某个stream的指标值，首次获取时注册指标
+     */
+    private AtomicLong gauge(Map<String, AtomicLong> values, String name, String stream) {
+        return values.computeIfAbsent(stream, key -> {
+            AtomicLong value = new AtomicLong();
+            Gauge.builder(name, value, AtomicLong::get).tag("stream", key).register(meterRegistry);
+            return value;
+        });
+    }
+
+    /**
+     * 比较两个stream消息id的先后
+     */
+    private static int compare(RecordId a, RecordId b) {
+        int c = Long.compare(a.getTimestamp(), b.getTimestamp());
+        return c != 0 ? c : Long.compare(a.getSequence(), b.getSequence());
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+}
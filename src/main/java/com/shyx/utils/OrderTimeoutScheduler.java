@@ -0,0 +1,287 @@
+package com.shyx.utils;
+
+import cn.hutool.core.thread.ThreadUtil;
+import com.shyx.config.SeckillProperties;
+import com.shyx.entity.VoucherOrder;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.RedisZSetCommands;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * 未支付订单的超时取消
+ * 订单持久化的事务提交后以超时时间为score写入Redis的zset(order:timeout)，zset是持久的时间索引，
+ * 到期时订单一定已在数据库中，第4步删除的都是已经处理过的订单；
+ * 每个节点定期把horizon内到期的订单加载到JVM内的分层时间轮，时间轮到期后批量处理：
+ * 1.Lua脚本认领到期订单(推迟claim-timeout)，多个节点加载了同一批订单时只有一个节点处理
+ * 2.数据库事务内把未支付的订单改为已取消，并归还tb_seckill_voucher的库存
+ * 3.Lua脚本把用户移出下单用户集合并归还Redis库存，通知各节点清除本地售罄标记
+ * 4.从zset中删除
+ * 处理中途失败或节点崩溃时订单在认领超时后重新到期，由加载任务扫描过期订单重新处理；
+ * 第2步已提交、第3步失败的订单在数据库中已是取消状态，重新处理时canceller仍会返回它们，
+ * 第3步的脚本只归还仍在下单用户集合中的用户，重复执行不会多加库存
+ */
+@Slf4j
+@Component
+public class OrderTimeoutScheduler {
+
+    private static final DefaultRedisScript<List<String>> CLAIM_SCRIPT;
+    private static final DefaultRedisScript<Long> CANCEL_SCRIPT;
+
+    static {
+        CLAIM_SCRIPT = new DefaultRedisScript<>();
+        CLAIM_SCRIPT.setLocation(new ClassPathResource("order_timeout_claim.lua"));
+        @SuppressWarnings("unchecked")
+        Class<List<String>> claimResultType = (Class<List<String>>) (Class<?>) List.class;
+        CLAIM_SCRIPT.setResultType(claimResultType);
+        CANCEL_SCRIPT = new DefaultRedisScript<>();
+        CANCEL_SCRIPT.setLocation(new ClassPathResource("order_cancel.lua"));
+        CANCEL_SCRIPT.setResultType(Long.class);
+    }
+
+    /**
+     * 时间轮推进线程和加载线程
+     */
+    private static final ScheduledExecutorService TIMEOUT_EXECUTOR =
+            Executors.newScheduledThreadPool(2, ThreadUtil.newNamedThreadFactory("order-timeout-", true));
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate; // Redis操作模板
+    @Resource
+    private SeckillProperties seckillProperties; // 秒杀相关配置
+    @Resource
+    private SeckillKeys seckillKeys; // 秒杀key布局
+    @Resource
+    private SeckillLocalFilter localFilter; // 归还库存后清除本地售罄标记
+    @Resource
+    private MeterRegistry meterRegistry; // 指标注册表
+
+    // 取消订单的数据库操作，返回本次取消和之前已取消的订单
+    private Function<List<Long>, List<VoucherOrder>> canceller;
+    private TimingWheel wheel;
+    // 时间轮到期、等待处理的订单
+    private final List<Long> due = new ArrayList<>();
+    // 每个zset已经加载到的超时时间
+    private final Map<String, Long> loadedUntil = new ConcurrentHashMap<>();
+
+    /**
+     * 启动时间轮和加载任务
+     *
+     * @param canceller 取消订单的数据库操作，在事务中把未支付订单改为已取消并归还库存，
+     *                  返回本次取消和之前已取消的订单，已取消的订单需要重新归还Redis库存
+     */
+    public void start(Function<List<Long>, List<VoucherOrder>> canceller) {
+        SeckillProperties.Timeout config = seckillProperties.getTimeout();
+        if (!config.isEnabled()) {
+            return;
+        }
+        this.canceller = canceller;
+        // 层数足够覆盖两个加载范围，超出的进入溢出槽
+        long ticks = config.getHorizon().multipliedBy(2).toMillis() / config.getTick().toMillis();
+        int levels = 1;
+        while (Math.pow(config.getWheelSize(), levels) < ticks) {
+            levels++;
+        }
+        wheel = new TimingWheel(config.getTick().toMillis(), config.getWheelSize(), levels, System.currentTimeMillis());
+        meterRegistry.gauge("seckill.timeout.wheel.size", this, s -> s.wheelSize());
+        TIMEOUT_EXECUTOR.scheduleWithFixedDelay(this::load, 0, config.getLoadInterval().toMillis(), TimeUnit.MILLISECONDS);
+        long tick = config.getTick().toMillis();
+        TIMEOUT_EXECUTOR.scheduleWithFixedDelay(this::tick, tick, tick, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 销毁：停止时间轮和加载任务，未处理的订单仍在zset中
+     */
+    @PreDestroy
+    private void destroy() {
+        TIMEOUT_EXECUTOR.shutdownNow();
+    }
+
+    /**
+     * 写入订单的超时时间，已存在的不覆盖；订单持久化的事务提交后调用
+     *
+     * @param orders 已写入数据库的订单
+     */
+    public void schedule(Collection<VoucherOrder> orders) {
+        if (wheel == null || orders.isEmpty()) {
+            return;
+        }
+        long payTimeout = seckillProperties.getTimeout().getPayTimeout().toMillis();
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            orders.forEach(order -> conn.zAdd(seckillKeys.timeoutKey(order.getId()),
+                    RedisIdWorker.epochMillisOf(order.getId()) + payTimeout, order.getId().toString(),
+                    RedisZSetCommands.ZAddArgs.ifNotExists()));
+            return null;
+        });
+        // 超时时间落在已加载的范围内(订单积压很久才持久化)，加载任务不会再读到，直接放入本地时间轮
+        synchronized (this) {
+            for (VoucherOrder order : orders) {
+                long deadline = RedisIdWorker.epochMillisOf(order.getId()) + payTimeout;
+                Long until = loadedUntil.get(seckillKeys.timeoutKey(order.getId()));
+                if (until != null && deadline <= until) {
+                    wheel.add(deadline, order.getId(), due::add);
+                }
+            }
+        }
+    }
+
+    /**
+     * 从zset加载horizon内到期的订单，并扫描已经过期却仍未处理的订单
+     */
+    private void load() {
+        SeckillProperties.Timeout config = seckillProperties.getTimeout();
+        long now = System.currentTimeMillis();
+        long to = now + config.getHorizon().toMillis();
+        try {
+            for (String key : seckillKeys.timeoutKeys()) {
+                //1.加载(已加载到的时间, now + horizon]内到期的订单
+                long from = loadedUntil.getOrDefault(key, Long.MIN_VALUE / 2) + 1;
+                loadRange(key, from, to, false);
+                loadedUntil.put(key, to);
+                //2.过期超过一个加载周期仍在zset中的订单：处理失败、认领超时或在加载后才写入
+                loadRange(key, Long.MIN_VALUE / 2, now - config.getLoadInterval().toMillis(), true);
+            }
+        } catch (Exception e) {
+            log.error("加载到期订单异常", e);
+        }
+    }
+
+    /**
+     * 分页读取[from, to]内的订单放入时间轮
+     *
+     * @param overdue 为true时只读一页，订单立即到期
+     */
+    private void loadRange(String key, long from, long to, boolean overdue) {
+        int batch = seckillProperties.getTimeout().getLoadBatch();
+        for (long offset = 0; ; offset += batch) {
+            Set<ZSetOperations.TypedTuple<String>> tuples =
+                    stringRedisTemplate.opsForZSet().rangeByScoreWithScores(key, from, to, offset, batch);
+            if (tuples == null || tuples.isEmpty()) {
+                return;
+            }
+            synchronized (this) {
+                for (ZSetOperations.TypedTuple<String> tuple : tuples) {
+                    long deadline = overdue ? 0 : tuple.getScore().longValue();
+                    wheel.add(deadline, Long.parseLong(tuple.getValue()), due::add);
+                }
+            }
+            if (overdue || tuples.size() < batch) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * 推进时间轮，批量处理到期的订单
+     */
+    private void tick() {
+        List<Long> expired;
+        synchronized (this) {
+            wheel.advance(System.currentTimeMillis(), due::add);
+            if (due.isEmpty()) {
+                return;
+            }
+            expired = new ArrayList<>(due);
+            due.clear();
+        }
+        int batchSize = seckillProperties.getTimeout().getBatchSize();
+        for (int i = 0; i < expired.size(); i += batchSize) {
+            List<Long> batch = expired.subList(i, Math.min(i + batchSize, expired.size()));
+            try {
+                cancel(batch);
+            } catch (Exception e) {
+                // 订单仍在zset中，认领超时后重新处理
+                log.error("取消超时订单异常", e);
+            }
+        }
+    }
+
+    /**
+     * 取消一批到期的订单
+     */
+    private void cancel(List<Long> orderIds) {
+        SeckillProperties.Timeout config = seckillProperties.getTimeout();
+        long now = System.currentTimeMillis();
+        String claimUntil = String.valueOf(now + config.getClaimTimeout().toMillis());
+        //1.认领到期的订单
+        Map<String, List<Long>> idsOfKey = orderIds.stream().collect(Collectors.groupingBy(seckillKeys::timeoutKey));
+        Map<String, List<String>> claimed = new HashMap<>();
+        for (Map.Entry<String, List<Long>> entry : idsOfKey.entrySet()) {
+            List<String> args = new ArrayList<>(entry.getValue().size() + 2);
+            args.add(String.valueOf(now));
+            args.add(claimUntil);
+            entry.getValue().forEach(id -> args.add(id.toString()));
+            List<String> ids = stringRedisTemplate.execute(CLAIM_SCRIPT, Collections.singletonList(entry.getKey()), args.toArray());
+            if (ids != null && !ids.isEmpty()) {
+                claimed.put(entry.getKey(), ids);
+            }
+        }
+        if (claimed.isEmpty()) {
+            return;
+        }
+        //2.数据库中取消未支付的订单，已支付的订单不处理；之前已取消的订单也返回，继续第3步
+        List<Long> claimedIds = claimed.values().stream().flatMap(List::stream).map(Long::valueOf).collect(Collectors.toList());
+        List<VoucherOrder> cancelled = canceller.apply(claimedIds);
+        //3.归还Redis库存，脚本是幂等的，上次已经归还过的用户不再归还
+        returnStock(cancelled);
+        //4.从时间索引中删除
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            claimed.forEach((key, ids) -> conn.zRem(key, ids.toArray(new String[0])));
+            return null;
+        });
+        // 状态为查询时的状态，1为本次取消，4为之前已取消、本次重新归还Redis库存
+        long count = cancelled.stream().filter(order -> Integer.valueOf(1).equals(order.getStatus())).count();
+        meterRegistry.counter("seckill.timeout.cancelled").increment(count);
+        if (count > 0 || cancelled.size() > count) {
+            log.info("取消超时未支付订单 {} 个，重新归还Redis库存 {} 个", count, cancelled.size() - count);
+        }
+    }
+
+    /**
+     * 归还订单占用的Redis库存，用户可以重新购买；脚本是幂等的，已经归还过的用户不再归还
+     * 超时取消和放弃处理的订单共用
+     *
+     * @param cancelled 已取消或不会再持久化的订单，需要userId和voucherId
+     */
+    public void returnStock(List<VoucherOrder> cancelled) {
+        String lease = seckillProperties.getLease().isEnabled() ? "1" : "0";
+        Map<Long, List<VoucherOrder>> ordersOfVoucher = cancelled.stream().collect(Collectors.groupingBy(VoucherOrder::getVoucherId));
+        ordersOfVoucher.forEach((voucherId, orders) -> {
+            List<String> keys = new ArrayList<>();
+            keys.add(seckillKeys.orderKey(voucherId));
+            keys.add(seckillKeys.leaseKey(voucherId));
+            keys.addAll(seckillKeys.stockKeys(voucherId));
+            List<String> args = new ArrayList<>(orders.size() + 1);
+            args.add(lease);
+            args.add(seckillKeys.purchaserFlag());
+            orders.forEach(order -> args.add(order.getUserId().toString()));
+            Long returned = stringRedisTemplate.execute(CANCEL_SCRIPT, keys, args.toArray());
+            if (returned != null && returned > 0) {
+                // 库存增加且用户可以重新购买，清除各节点的本地售罄标记和已购用户过滤
+                localFilter.publishReplenish(voucherId);
+            }
+        });
+    }
+
+    private synchronized long wheelSize() {
+        return wheel.size();
+    }
+}
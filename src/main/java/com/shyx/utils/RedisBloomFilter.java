@@ -0,0 +1,339 @@
+package com.shyx.utils;
+
+import cn.hutool.core.thread.ThreadUtil;
+import com.shyx.config.CacheProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.data.redis.connection.BitFieldSubCommands;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiFunction;
+
+import static com.shyx.utils.RedisConstants.BLOOM_KEY;
+import static com.shyx.utils.RedisConstants.LOCK_BLOOM_KEY;
+
+/**
+ * 基于Redis bitmap的布隆过滤器，防止不存在的id穿透缓存
+ * 每类经CacheClient读取的实体(商铺、用户)一个过滤器，保存在bloom:{name}:{位数}:{哈希函数个数}，所有节点共享；
+ * 启动时由一个节点从MySQL按id分页读取全部id写入，完成后设置ready标记，其他节点等待标记出现后才开始过滤，
+ * 构建完成前所有id都视为可能存在；新增实体时写入对应的位。
+ * 查询时一条BITFIELD命令读取所有的位，与缓存的GET在同一个pipeline中发送，不增加往返次数；
+ * 判定不存在的id不会查询数据库，也不会写入空值key。
+ * 修改位数或误判率后使用新的key重新构建；
+ * Redis数据丢失(清空、切换到没有该bitmap的副本、key被淘汰)时ready标记或bitmap消失：查询时一条EXISTS同时检查两个key，
+ * 与BITFIELD在同一个pipeline中发送，任一个不存在时放行所有id；定期检查各过滤器的两个key，任一个消失后重新构建，
+ * 重新构建前先删除ready标记，写入过程中的bitmap不会被当作已完成
+ */
+@Slf4j
+@Component
+public class RedisBloomFilter {
+
+    /**
+     * 构建过滤器的线程
+     */
+    private static final ScheduledExecutorService BLOOM_EXECUTOR =
+            Executors.newSingleThreadScheduledExecutor(ThreadUtil.newNamedThreadFactory("bloom-filter-", true));
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate; // Redis操作模板
+    @Resource
+    private CacheProperties cacheProperties; // 缓存相关配置
+    @Resource
+    private RedissonClient redissonClient; // 保证只有一个节点构建
+
+    // 过滤器名称 -> 过滤器
+    private final Map<String, Filter> filters = new ConcurrentHashMap<>();
+    // 缓存key前缀 -> 过滤器
+    private final Map<String, Filter> prefixes = new ConcurrentHashMap<>();
+
+    /**
+     * 初始化：定期检查已构建的过滤器在Redis中是否还存在
+     */
+    @PostConstruct
+    private void init() {
+        long interval = cacheProperties.getBloom().getPollInterval().toMillis();
+        BLOOM_EXECUTOR.scheduleWithFixedDelay(this::checkReady, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 销毁：停止构建任务
+     */
+    @PreDestroy
+    private void destroy() {
+        BLOOM_EXECUTOR.shutdownNow();
+    }
+
+    /**
+     * 注册一类实体的过滤器，并在后台构建
+     *
+     * @param name      过滤器名称
+     * @param keyPrefix 该实体的缓存key前缀，CacheClient按前缀查找过滤器
+     * @param idsAfter  按id升序返回大于lastId的最多limit个id，返回空列表表示读取完毕
+     */
+    public void register(String name, String keyPrefix, BiFunction<Long, Integer, List<Long>> idsAfter) {
+        CacheProperties.Bloom config = cacheProperties.getBloom();
+        if (!config.isEnabled()) {
+            return;
+        }
+        Filter filter = new Filter(name, config.getExpectedInsertions(), config.getFpp(), idsAfter);
+        filters.put(name, filter);
+        prefixes.put(keyPrefix, filter);
+        rebuild(filter);
+    }
+
+    /**
+     * 查询时发现ready标记已经不存在：停止使用过滤器并重新构建
+     *
+     * @param filter 过滤器
+     */
+    public void onMissing(Filter filter) {
+        if (filter.ready) {
+            filter.ready = false;
+            log.warn("布隆过滤器 {} 在Redis中已不存在，重新构建", filter.name);
+        }
+        rebuild(filter);
+    }
+
+    /**
+     * 提交构建任务，同一个过滤器同时只有一个构建任务
+     */
+    private void rebuild(Filter filter) {
+        if (filter.building.compareAndSet(false, true)) {
+            BLOOM_EXECUTOR.execute(() -> build(filter));
+        }
+    }
+
+    /**
+     * 检查已构建的过滤器的ready标记和bitmap
+     */
+    private void checkReady() {
+        try {
+            List<Filter> ready = new ArrayList<>();
+            filters.values().forEach(filter -> {
+                if (filter.ready) {
+                    ready.add(filter);
+                }
+            });
+            if (ready.isEmpty()) {
+                return;
+            }
+            List<Object> exists = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                ready.forEach(filter -> connection.keyCommands().exists(filter.getExistsKeys()));
+                return null;
+            });
+            for (int i = 0; i < ready.size(); i++) {
+                if (!ready.get(i).isIntact(exists.get(i))) {
+                    onMissing(ready.get(i));
+                }
+            }
+        } catch (Exception e) {
+            log.error("检查布隆过滤器异常", e);
+        }
+    }
+
+    /**
+     * 缓存key前缀对应的过滤器，没有过滤器或尚未构建完成时返回null
+     *
+     * @param keyPrefix 缓存key前缀
+     */
+    public Filter filterOf(String keyPrefix) {
+        Filter filter = prefixes.get(keyPrefix);
+        return filter != null && filter.ready ? filter : null;
+    }
+
+    /**
+     * 新增实体后写入过滤器
+     *
+     * @param name 过滤器名称
+     * @param id   实体id
+     */
+    public void add(String name, Long id) {
+        Filter filter = filters.get(name);
+        if (filter == null || id == null) {
+            return;
+        }
+        stringRedisTemplate.opsForValue().bitField(filter.key, filter.setCommands(id));
+    }
+
+    /**
+     * 构建过滤器：已经构建完成时直接使用；其他节点正在构建时稍后再检查
+     */
+    private void build(Filter filter) {
+        CacheProperties.Bloom config = cacheProperties.getBloom();
+        try {
+            if (isReady(filter)) {
+                markReady(filter);
+                return;
+            }
+            RLock lock = redissonClient.getLock(LOCK_BLOOM_KEY + filter.name);
+            if (!lock.tryLock()) {
+                BLOOM_EXECUTOR.schedule(() -> build(filter), config.getPollInterval().toMillis(), TimeUnit.MILLISECONDS);
+                return;
+            }
+            try {
+                if (!isReady(filter)) {
+                    long start = System.currentTimeMillis();
+                    // bitmap丢失而ready标记还在时先删除标记；预先分配整个bitmap，没有任何id时key也存在
+                    stringRedisTemplate.delete(filter.readyKey);
+                    stringRedisTemplate.opsForValue().setBit(filter.key, filter.bits - 1, false);
+                    long count = load(filter, filter.idsAfter);
+                    stringRedisTemplate.opsForValue().set(filter.readyKey, String.valueOf(count));
+                    log.info("布隆过滤器 {} 构建完成，{} 个id，{} 位，{} 个哈希函数，耗时 {}ms",
+                            filter.name, count, filter.bits, filter.hashes, System.currentTimeMillis() - start);
+                }
+                markReady(filter);
+            } finally {
+                lock.unlock();
+            }
+        } catch (Exception e) {
+            log.error("构建布隆过滤器 {} 异常，稍后重试", filter.name, e);
+            BLOOM_EXECUTOR.schedule(() -> build(filter), config.getPollInterval().toMillis(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void markReady(Filter filter) {
+        filter.ready = true;
+        filter.building.set(false);
+    }
+
+    private boolean isReady(Filter filter) {
+        Long exists = stringRedisTemplate.countExistingKeys(Arrays.asList(filter.readyKey, filter.key));
+        return filter.isIntact(exists);
+    }
+
+    /**
+     * 按id分页读取全部id，每批通过pipeline写入
+     */
+    private long load(Filter filter, BiFunction<Long, Integer, List<Long>> idsAfter) {
+        byte[] key = filter.key.getBytes(StandardCharsets.UTF_8);
+        long lastId = 0;
+        long count = 0;
+        while (true) {
+            List<Long> ids = idsAfter.apply(lastId, cacheProperties.getBloom().getBuildBatch());
+            if (ids == null || ids.isEmpty()) {
+                return count;
+            }
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                ids.forEach(id -> connection.stringCommands().bitField(key, filter.setCommands(id)));
+                return null;
+            });
+            count += ids.size();
+            lastId = ids.get(ids.size() - 1);
+        }
+    }
+
+    /**
+     * 一个过滤器：位数和哈希函数个数由预期元素数量和误判率计算
+     */
+    public static class Filter {
+        private final String name;
+        private final String key;
+        private final String readyKey;
+        private final long bits;
+        private final int hashes;
+        private final BiFunction<Long, Integer, List<Long>> idsAfter;
+        private volatile boolean ready;
+        // 是否已有构建任务
+        private final AtomicBoolean building = new AtomicBoolean();
+
+        Filter(String name, long expectedInsertions, double fpp, BiFunction<Long, Integer, List<Long>> idsAfter) {
+            long n = Math.max(expectedInsertions, 1);
+            this.name = name;
+            this.bits = Math.max((long) Math.ceil(-n * Math.log(fpp) / (Math.log(2) * Math.log(2))), 64);
+            this.hashes = Math.max((int) Math.round((double) bits / n * Math.log(2)), 1);
+            this.key = BLOOM_KEY + name + ":" + bits + ":" + hashes;
+            this.readyKey = key + ":ready";
+            this.idsAfter = idsAfter;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        /**
+         * 检查ready标记和bitmap的EXISTS参数
+         */
+        public byte[][] getExistsKeys() {
+            return new byte[][]{readyKey.getBytes(StandardCharsets.UTF_8), key.getBytes(StandardCharsets.UTF_8)};
+        }
+
+        /**
+         * getExistsKeys的EXISTS结果：ready标记和bitmap都存在时过滤器可用，任一个不存在说明数据已经丢失
+         */
+        public boolean isIntact(Object exists) {
+            return exists instanceof Number && ((Number) exists).longValue() == 2;
+        }
+
+        /**
+         * 读取id对应的所有位的BITFIELD子命令
+         */
+        public BitFieldSubCommands getCommands(long id) {
+            BitFieldSubCommands commands = BitFieldSubCommands.create();
+            for (long offset : offsets(id)) {
+                commands = commands.get(BitFieldSubCommands.BitFieldType.unsigned(1)).valueAt(offset);
+            }
+            return commands;
+        }
+
+        /**
+         * 设置id对应的所有位的BITFIELD子命令
+         */
+        BitFieldSubCommands setCommands(long id) {
+            BitFieldSubCommands commands = BitFieldSubCommands.create();
+            for (long offset : offsets(id)) {
+                commands = commands.set(BitFieldSubCommands.BitFieldType.unsigned(1)).valueAt(offset).to(1);
+            }
+            return commands;
+        }
+
+        /**
+         * getCommands的结果是否全部为1
+         */
+        public boolean mightContain(List<?> values) {
+            if (values == null || values.size() != hashes) {
+                return true;
+            }
+            for (Object value : values) {
+                if (value == null || ((Number) value).longValue() == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * 双重哈希：第i个位置为 h1 + i * h2 对位数取模
+         */
+        private long[] offsets(long id) {
+            long h1 = mix(id);
+            long h2 = mix(h1 ^ 0x9e3779b97f4a7c15L) | 1;
+            long[] offsets = new long[hashes];
+            for (int i = 0; i < hashes; i++) {
+                offsets[i] = Math.floorMod(h1 + i * h2, bits);
+            }
+            return offsets;
+        }
+
+        private static long mix(long z) {
+            z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+            z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+            return z ^ (z >>> 33);
+        }
+    }
+}
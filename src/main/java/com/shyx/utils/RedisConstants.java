@@ -12,11 +12,37 @@ public class RedisConstants {
     public static final String CACHE_SHOP_KEY = "cache:shop:";
 
     public static final String CACHE_SHOP_TYPE_KEY = "cache:shopType:";
+    public static final String CACHE_SHOP_TYPE_VERSION_KEY = "cache:shopType:version";
+    public static final String CACHE_INVALIDATE_CHANNEL = "cache:invalidate";
+    public static final String CACHE_USER_KEY = "cache:user:";
+    public static final Long CACHE_USER_TTL = 30L;
+
+    public static final String BLOOM_KEY = "bloom:";
+    public static final String BLOOM_SHOP = "shop";
+    public static final String BLOOM_USER = "user";
+    public static final String LOCK_BLOOM_KEY = "lock:bloom:";
 
     public static final String LOCK_SHOP_KEY = "lock:shop:";
     public static final Long LOCK_SHOP_TTL = 10L;
+    public static final String LOCK_CACHE_KEY = "lock:";
+    public static final Long LOCK_CACHE_TTL = 10L;
 
     public static final String SECKILL_STOCK_KEY = "seckill:stock:";
+    public static final String SECKILL_ORDER_KEY = "seckill:order:";
+    public static final String SECKILL_BUYERS_KEY = "seckill:buyers:";
+    public static final String SECKILL_ARCHIVED_KEY = "seckill:archived";
+    public static final String SECKILL_LEASE_KEY = "seckill:lease:";
+    public static final String SECKILL_LIMIT_KEY = "seckill:limit:";
+    public static final String SECKILL_ROOM_KEY = "seckill:room:";
+    public static final String SECKILL_ORDER_STREAM = "stream.orders";
+    public static final String SECKILL_ORDER_GROUP = "g1";
+    public static final String SECKILL_ORDER_DLQ = "stream.orders.dlq";
+    public static final String SECKILL_REPLENISH_CHANNEL = "seckill:replenish";
+    public static final String SECKILL_RECONCILE_CURSOR_KEY = "seckill:reconcile:cursor:created";
+    public static final String LOCK_SECKILL_RECONCILE_KEY = "lock:seckill:reconcile";
+    public static final String ORDER_STATUS_KEY = "order:status:";
+    public static final String ORDER_STATUS_CHANNEL = "order:status";
+    public static final String ORDER_TIMEOUT_KEY = "order:timeout";
     public static final String BLOG_LIKED_KEY = "blog:liked:";
     public static final String FEED_KEY = "feed:";
     public static final String SHOP_GEO_KEY = "shop:geo:";
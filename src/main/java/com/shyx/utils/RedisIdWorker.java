@@ -1,17 +1,34 @@
 package com.shyx.utils;
 
+import cn.hutool.core.thread.ThreadUtil;
+import com.shyx.config.SeckillProperties;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Component;
 
 import javax.annotation.Resource;
+import java.time.Instant;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * RedisIdWorker类，用于通过Redis生成唯一ID
  * 该类利用时间戳和序列号组合的方式生成分布式ID
+ * <p>
+ * 号段模式下(seckill.id.segment-size > 1)，每个节点用INCRBY一次从Redis租用一段序列号，
+ * 在内存中无锁分配，号段快用完时异步预取下一段，Redis只在租用号段时访问一次；
+ * 日期key缓存到当天结束，跨过零点后自动切换。id的位布局不变：时间戳 << 32 | 序列号
  */
+@Slf4j
 @Component
 public class RedisIdWorker {
 
@@ -25,9 +42,26 @@ public class RedisIdWorker {
      * 设置为32位，可以支持每秒约42亿次的ID生成
      */
     private static final int COUNT_BITS = 32;
+    /**
+     * 日期格式，序列号的key按天区分
+     */
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy:MM:dd");
+    /**
+     * 异步预取号段的线程
+     */
+    private static final ExecutorService SEGMENT_EXECUTOR =
+            Executors.newSingleThreadExecutor(ThreadUtil.newNamedThreadFactory("id-segment-", true));
+
     // 注入StringRedisTemplate，用于操作Redis
     @Resource
     private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private SeckillProperties seckillProperties; // 号段配置
+
+    // 当天的日期信息，跨过零点后重新计算
+    private volatile Day today = Day.of(System.currentTimeMillis());
+    // 每个业务前缀的号段
+    private final Map<String, Segments> segments = new ConcurrentHashMap<>();
 
     /**
      * 生成唯一ID的方法
@@ -36,20 +70,190 @@ public class RedisIdWorker {
      * @return 返回生成的唯一ID，由时间戳和序列号组合而成
      */
     public long nextId(String keyPrefix) {
+        if (seckillProperties.getId().getSegmentSize() <= 1) {
+            return nextIdByIncr(keyPrefix);
+        }
+        // 1.生成时间戳部分，与LocalDateTime.now().toEpochSecond(UTC)一致
+        long nowMillis = System.currentTimeMillis();
+        Day day = day(nowMillis);
+        long timestamp = Math.floorDiv(nowMillis, 1000) + day.offsetSeconds - BEGIN_TIMEAMP;
+        // 2.从号段中分配序列号
+        long count = segments.computeIfAbsent(keyPrefix, Segments::new).next(day.date);
+        // 3.拼接并返回
+        return timestamp << COUNT_BITS | count;
+    }
+
+    /**
+     * 从id中取出生成时间
+     *
+     * @param id 由nextId生成的id
+     * @return 生成时间(毫秒)，精确到秒
+     */
+    public static long epochMillisOf(long id) {
+        // 时间戳部分是本地时间按UTC换算的秒数，换回本地时间后再按时区转换
+        LocalDateTime time = LocalDateTime.ofEpochSecond((id >>> COUNT_BITS) + BEGIN_TIMEAMP, 0, ZoneOffset.UTC);
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    /**
+     * 每个id调用一次INCR生成
+     */
+    private long nextIdByIncr(String keyPrefix) {
         // 1.生成时间戳部分
         LocalDateTime now = LocalDateTime.now(); // 获取当前时间
         long nowSecond = now.toEpochSecond(ZoneOffset.UTC); // 将当前时间转换为UTC时间戳（秒）
         long timestamp = nowSecond - BEGIN_TIMEAMP; // 减去开始时间戳，得到相对时间
         // 2.生成序列号部分
         // 2.1 获取当前日期，精确到天
-        String date = now.format(DateTimeFormatter.ofPattern("yyyy:MM:dd")); // 格式化日期为"年:月:日"的字符串形式
+        String date = now.format(DATE_FORMATTER); // 格式化日期为"年:月:日"的字符串形式
         // 2.2 自增
         // 使用Redis的原子操作进行计数，key格式为"icr:前缀:日期"
         long count = stringRedisTemplate.opsForValue().increment("icr:" + keyPrefix + ":" + date);
         // 3.拼接并返回
         // 将时间戳左移COUNT_BITS位，然后与序列号进行按位或操作，组合成最终的ID
         return timestamp << COUNT_BITS | count;
+    }
+
+    /**
+     * 获取当前时间所在的日期，缓存到当天结束
+     */
+    private Day day(long nowMillis) {
+        Day day = today;
+        if (nowMillis >= day.endMillis || nowMillis < day.startMillis) {
+            day = Day.of(nowMillis);
+            today = day;
+        }
+        return day;
+    }
+
+    /**
+     * 一天的日期信息
+     */
+    private static class Day {
+        // 日期字符串，年:月:日
+        final String date;
+        // 当天开始和结束的时间(毫秒)
+        final long startMillis;
+        final long endMillis;
+        // 本地时区与UTC的偏移(秒)
+        final long offsetSeconds;
+
+        Day(String date, long startMillis, long endMillis, long offsetSeconds) {
+            this.date = date;
+            this.startMillis = startMillis;
+            this.endMillis = endMillis;
+            this.offsetSeconds = offsetSeconds;
+        }
+
+        static Day of(long nowMillis) {
+            ZoneId zone = ZoneId.systemDefault();
+            LocalDate date = Instant.ofEpochMilli(nowMillis).atZone(zone).toLocalDate();
+            long start = date.atStartOfDay(zone).toInstant().toEpochMilli();
+            long end = date.plusDays(1).atStartOfDay(zone).toInstant().toEpochMilli();
+            long offset = zone.getRules().getOffset(Instant.ofEpochMilli(nowMillis)).getTotalSeconds();
+            return new Day(date.format(DATE_FORMATTER), start, end, offset);
+        }
+    }
+
+    /**
+     * 一段已租用的序列号：(end - size, end]
+     */
+    private static class Segment {
+        final String date;
+        final AtomicLong cursor;
+        final long end;
+
+        Segment(String date, long start, long end) {
+            this.date = date;
+            this.cursor = new AtomicLong(start);
+            this.end = end;
+        }
+    }
+
+    /**
+     * 一个业务前缀的当前号段和预取的下一个号段
+     */
+    private class Segments {
+        private final String keyPrefix;
+        private volatile Segment current;
+        private volatile Segment next;
+        private final AtomicBoolean prefetching = new AtomicBoolean();
+
+        Segments(String keyPrefix) {
+            this.keyPrefix = keyPrefix;
+        }
+
+        /**
+         * 分配一个序列号，当前号段用完或跨天时切换号段
+         */
+        long next(String date) {
+            while (true) {
+                Segment segment = current;
+                if (segment != null && segment.date.equals(date)) {
+                    long count = segment.cursor.getAndIncrement();
+                    if (count <= segment.end) {
+                        // 剩余不多时预取下一段
+                        if (segment.end - count < seckillProperties.getId().getSegmentSize() * seckillProperties.getId().getPrefetchRatio()
+                                && next == null) {
+                            prefetch(date);
+                        }
+                        return count;
+                    }
+                }
+                switchSegment(segment, date);
+            }
+        }
+
+        /**
+         * 切换到下一个号段，预取的号段不可用时同步租用
+         */
+        private synchronized void switchSegment(Segment exhausted, String date) {
+            if (current != exhausted) {
+                // 其他线程已经切换
+                return;
+            }
+            Segment segment = next;
+            next = null;
+            if (segment == null || !segment.date.equals(date)) {
+                segment = lease(date);
+            }
+            current = segment;
+        }
+
+        /**
+         * 异步预取下一个号段，同一时刻只有一个预取任务
+         */
+        private void prefetch(String date) {
+            if (!prefetching.compareAndSet(false, true)) {
+                return;
+            }
+            SEGMENT_EXECUTOR.execute(() -> {
+                try {
+                    Segment segment = lease(date);
+                    synchronized (this) {
+                        if (next == null) {
+                            next = segment;
+                        }
+                    }
+                } catch (Exception e) {
+                    log.error("预取id号段失败, keyPrefix = {}", keyPrefix, e);
+                } finally {
+                    prefetching.set(false);
+                }
+            });
+        }
 
+        /**
+         * 用INCRBY从Redis租用一个号段
+         */
+        private Segment lease(String date) {
+            int size = seckillProperties.getId().getSegmentSize();
+            Long end = stringRedisTemplate.opsForValue().increment("icr:" + keyPrefix + ":" + date, size);
+            if (end == null) {
+                throw new IllegalStateException("租用id号段失败, keyPrefix = " + keyPrefix);
+            }
+            return new Segment(date, end - size + 1, end);
+        }
     }
 
     public static void main(String[] args) {
@@ -0,0 +1,553 @@
+package com.shyx.utils;
+
+import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.thread.ThreadUtil;
+import com.shyx.config.SeckillProperties;
+import com.shyx.entity.VoucherOrder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.RedisZSetCommands;
+import org.springframework.data.redis.connection.stream.*;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static com.shyx.utils.RedisConstants.SECKILL_ORDER_GROUP;
+
+/**
+ * 基于Redis Stream的订单队列
+ * 订单由seckill.lua原子地写入stream，消费者组g1中每个节点运行一组消费者：
+ * 消费者数量随积压伸缩，失联消费者的pending消息由巡检任务认领，
+ * 多次处理失败的消息转入死信队列stream.orders.dlq
+ */
+@Slf4j
+public class RedisStreamOrderQueue implements OrderQueue {
+
+    /**
+     * 订单消费线程池，每个线程运行一个VoucherOrderHandler，线程数随消息积压在配置范围内伸缩
+     */
+    private static final ExecutorService SECKILL_ORDER_EXECUTOR =
+            Executors.newCachedThreadPool(ThreadUtil.newNamedThreadFactory("seckill-order-", true));
+
+    /**
+     * 巡检线程，负责认领失联消费者的消息、清理失联消费者、按积压调整消费者数量
+     */
+    private static final ScheduledExecutorService SECKILL_ORDER_MONITOR =
+            Executors.newSingleThreadScheduledExecutor(ThreadUtil.newNamedThreadFactory("seckill-order-monitor-", true));
+
+    /**
+     * 当前节点标识(pid@host)，用于生成集群内唯一的消费者名称
+     */
+    private static final String NODE_ID = ManagementFactory.getRuntimeMXBean().getName();
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate; // Redis操作模板
+    @Resource
+    private SeckillProperties seckillProperties; // 秒杀相关配置
+    @Resource
+    private OrderDeadLetterQueue deadLetterQueue; // 订单死信队列
+    @Resource
+    private SeckillKeys seckillKeys; // 秒杀key布局
+
+    /**
+     * 当前节点正在运行的消费者
+     */
+    private final Deque<VoucherOrderHandler> handlers = new ConcurrentLinkedDeque<>();
+
+    /**
+     * 消费者序号，与节点标识一起组成消费者名称
+     */
+    private final AtomicInteger consumerSeq = new AtomicInteger();
+
+    /**
+     * 订单处理逻辑
+     */
+    private volatile Handler handler;
+
+    /**
+     * 最近一次巡检估算的积压数量
+     */
+    private volatile long lag;
+
+    /**
+     * 订单由秒杀Lua脚本直接XADD到stream
+     */
+    @Override
+    public boolean isWrittenByScript() {
+        return true;
+    }
+
+    /**
+     * 将订单写入所属优惠券的stream，消息格式与seckill.lua一致
+     *
+     * @param order 订单
+     */
+    @Override
+    public void add(VoucherOrder order) {
+        Map<String, String> value = new HashMap<>();
+        value.put("userId", order.getUserId().toString());
+        value.put("voucherId", order.getVoucherId().toString());
+        value.put("id", order.getId().toString());
+        stringRedisTemplate.opsForStream().add(seckillKeys.streamKey(order.getVoucherId()), value);
+    }
+
+    /**
+     * 创建消费者组，启动常驻消费者，并开启巡检任务
+     *
+     * @param handler 订单处理逻辑
+     */
+    @Override
+    public void start(Handler handler) {
+        this.handler = handler;
+        // 消费者组不存在时创建，同时创建stream
+        seckillKeys.streamKeys().forEach(this::createGroupIfAbsent);
+        // 启动常驻消费者
+        for (int i = 0; i < seckillProperties.getOrder().getConsumers(); i++) {
+            startHandler();
+        }
+        assignStreams();
+        // 定期巡检
+        long interval = seckillProperties.getOrder().getMonitorInterval().toMillis();
+        SECKILL_ORDER_MONITOR.scheduleWithFixedDelay(this::monitor, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public long lag() {
+        return lag;
+    }
+
+    /**
+     * 销毁方法，停止所有消费者和巡检任务
+     * 未确认的消息留在pending-list中，由其他节点认领或本节点重启后继续处理
+     */
+    @PreDestroy
+    private void destroy() {
+        handlers.forEach(VoucherOrderHandler::stop);
+        SECKILL_ORDER_MONITOR.shutdownNow();
+        SECKILL_ORDER_EXECUTOR.shutdownNow();
+    }
+
+    /**
+     * 创建订单消息队列的消费者组，stream不存在时一并创建(MKSTREAM)
+     *
+     * @param stream 订单stream
+     */
+    private void createGroupIfAbsent(String stream) {
+        try {
+            stringRedisTemplate.execute((RedisCallback<String>) connection -> connection.streamCommands().xGroupCreate(
+                    stream.getBytes(StandardCharsets.UTF_8),
+                    SECKILL_ORDER_GROUP, ReadOffset.from("0"), true));
+            log.info("创建消费者组 {} 成功, stream = {}", SECKILL_ORDER_GROUP, stream);
+        } catch (DataAccessException e) {
+            // BUSYGROUP 说明消费者组已经存在
+            if (!String.valueOf(e.getMostSpecificCause().getMessage()).contains("BUSYGROUP")) {
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * 启动一个新的消费者
+     */
+    private void startHandler() {
+        VoucherOrderHandler handler = new VoucherOrderHandler("c-" + NODE_ID + "-" + consumerSeq.incrementAndGet());
+        handlers.addLast(handler);
+        SECKILL_ORDER_EXECUTOR.submit(handler);
+        log.info("启动订单消费者 {}，当前消费者数量 {}", handler.consumerName, handlers.size());
+    }
+
+    /**
+     * 停止最后启动的一个消费者
+     */
+    private void stopHandler() {
+        VoucherOrderHandler handler = handlers.pollLast();
+        if (handler != null) {
+            handler.stop();
+            log.info("停止订单消费者 {}，当前消费者数量 {}", handler.consumerName, handlers.size());
+        }
+    }
+
+    /**
+     * 将订单stream分配给本节点的消费者，消费者数量变化后重新分配
+     * 消费者不多于stream时，第i个消费者负责下标对消费者数取模为i的stream；
+     * 消费者多于stream时，每个消费者负责一个stream，多个消费者共同消费同一个stream
+     */
+    private void assignStreams() {
+        List<String> streams = seckillKeys.streamKeys();
+        List<VoucherOrderHandler> current = new ArrayList<>(handlers);
+        int n = current.size();
+        for (int i = 0; i < n; i++) {
+            List<String> assigned = new ArrayList<>();
+            if (n <= streams.size()) {
+                for (int j = i; j < streams.size(); j += n) {
+                    assigned.add(streams.get(j));
+                }
+            } else {
+                assigned.add(streams.get(i % streams.size()));
+            }
+            current.get(i).streams = assigned;
+        }
+    }
+
+    /**
+     * 巡检任务
+     * 1.认领空闲过久的pending消息（XAUTOCLAIM的效果，通过XPENDING + XCLAIM实现，兼容Redis 5.0）
+     * 2.删除已失联且没有pending消息的消费者
+     * 3.根据积压数量调整本节点的消费者数量
+     */
+    private void monitor() {
+        try {
+            for (String stream : seckillKeys.streamKeys()) {
+                claimIdlePending(stream);
+                removeDeadConsumers(stream);
+            }
+            rebalance();
+        } catch (Exception e) {
+            log.error("订单消息队列巡检异常", e);
+        }
+    }
+
+    /**
+     * 认领空闲时间超过claimMinIdle的pending消息并处理
+     * 消费者宕机后，其pending-list中的消息会被存活的节点接管，不会永久滞留；
+     * XCLAIM会使投递次数加一，反复处理失败的消息最终转入死信队列
+     *
+     * @param stream 订单stream
+     */
+    private void claimIdlePending(String stream) {
+        SeckillProperties.Order config = seckillProperties.getOrder();
+        PendingMessages pending = stringRedisTemplate.opsForStream()
+                .pending(stream, SECKILL_ORDER_GROUP, Range.unbounded(), config.getClaimBatch());
+        List<RecordId> idle = new ArrayList<>();
+        for (PendingMessage message : pending) {
+            if (message.getElapsedTimeSinceLastDelivery().compareTo(config.getClaimMinIdle()) < 0) {
+                continue;
+            }
+            // 超过最大投递次数的消息不再认领，转入死信队列
+            if (message.getTotalDeliveryCount() >= config.getMaxDeliveries()) {
+                deadLetterQueue.add(stream, SECKILL_ORDER_GROUP, message.getId(), message.getTotalDeliveryCount());
+                continue;
+            }
+            idle.add(message.getId());
+        }
+        if (idle.isEmpty()) {
+            return;
+        }
+        RecordId[] idleIds = idle.toArray(new RecordId[0]);
+        // XCLAIM 会再次校验空闲时间，多个节点同时认领时只有一个能成功
+        String claimer = "c-" + NODE_ID + "-claim";
+        List<MapRecord<String, Object, Object>> records = stringRedisTemplate.opsForStream()
+                .claim(stream, SECKILL_ORDER_GROUP, claimer, config.getClaimMinIdle(), idleIds);
+        log.info("认领空闲pending消息 {} 条, stream = {}", records.size(), stream);
+        for (MapRecord<String, Object, Object> record : records) {
+            try {
+                handler.handle(Collections.singletonList(toVoucherOrder(record)));
+                stringRedisTemplate.opsForStream().acknowledge(stream, SECKILL_ORDER_GROUP, record.getId());
+            } catch (Exception e) {
+                // 处理失败的消息留在pending-list中，空闲超时后会被再次认领
+                log.error("处理认领的订单异常, id = {}", record.getId(), e);
+            }
+        }
+    }
+
+    /**
+     * 删除空闲过久且没有pending消息的消费者
+     * 消费者名称包含进程号，节点每次重启都会产生新的消费者，需要清理旧的
+     *
+     * @param stream 订单stream
+     */
+    private void removeDeadConsumers(String stream) {
+        long maxIdle = seckillProperties.getOrder().getConsumerMaxIdle().toMillis();
+        StreamInfo.XInfoConsumers consumers = stringRedisTemplate.opsForStream()
+                .consumers(stream, SECKILL_ORDER_GROUP);
+        consumers.forEach(consumer -> {
+            if (consumer.pendingCount() == 0 && consumer.idleTimeMs() > maxIdle) {
+                stringRedisTemplate.opsForStream().deleteConsumer(stream,
+                        Consumer.from(SECKILL_ORDER_GROUP, consumer.consumerName()));
+                log.info("删除失联的订单消费者 {}", consumer.consumerName());
+            }
+        });
+    }
+
+    /**
+     * 按积压数量调整消费者数量
+     * 扩容一次到位，缩容每次只停一个，避免积压抖动时频繁启停
+     */
+    private void rebalance() {
+        SeckillProperties.Order config = seckillProperties.getOrder();
+        // 统计上限同时覆盖扩容和准入控制所需的积压数量
+        long max = Math.max(config.getLagPerConsumer() * config.getMaxConsumers(), seckillProperties.getAdmission().getMaxLag());
+        long lag = 0;
+        for (String stream : seckillKeys.streamKeys()) {
+            lag += estimateLag(stream, max);
+        }
+        this.lag = lag;
+        int target = (int) Math.min(config.getMaxConsumers(),
+                Math.max(config.getConsumers(), (lag + config.getLagPerConsumer() - 1) / config.getLagPerConsumer()));
+        if (target > handlers.size()) {
+            log.info("订单消息积压 {} 条，扩容消费者至 {}", lag, target);
+            while (handlers.size() < target) {
+                startHandler();
+            }
+            assignStreams();
+        } else if (target < handlers.size()) {
+            stopHandler();
+            assignStreams();
+        }
+    }
+
+    /**
+     * 估算消费者组的积压数量：已投递未确认的消息 + 尚未投递的消息
+     *
+     * @param stream 订单stream
+     * @param max    尚未投递消息的统计上限，超过上限不再继续统计
+     * @return 积压的消息数量
+     */
+    private long estimateLag(String stream, long max) {
+        StreamInfo.XInfoGroup group = stringRedisTemplate.opsForStream().groups(stream).stream()
+                .filter(g -> SECKILL_ORDER_GROUP.equals(g.groupName()))
+                .findFirst()
+                .orElse(null);
+        if (group == null) {
+            return 0;
+        }
+        // 从最后投递的消息开始向后数，结果包含最后投递的那一条
+        String lastDeliveredId = group.lastDeliveredId();
+        List<MapRecord<String, Object, Object>> undelivered = stringRedisTemplate.opsForStream().range(
+                stream, Range.closed(lastDeliveredId, "+"), RedisZSetCommands.Limit.limit().count((int) max + 1));
+        long undeliveredCount = undelivered == null ? 0 : undelivered.size();
+        if (undeliveredCount > 0 && undelivered.get(0).getId().getValue().equals(lastDeliveredId)) {
+            undeliveredCount--;
+        }
+        return group.pendingCount() + undeliveredCount;
+    }
+
+    /**
+     * 优惠券订单处理器类
+     * 实现Runnable接口，用于处理优惠券订单相关的消息队列任务
+     * 每个处理器使用集群内唯一的消费者名称，多个处理器共同消费同一个消费者组；
+     * 集群模式下订单分布在多个stream中，处理器只消费assignStreams分配给自己的stream
+     */
+    private class VoucherOrderHandler implements Runnable {
+        // 负责消费的stream，消费者数量变化时由巡检线程重新分配
+        volatile List<String> streams = Collections.emptyList();
+        // 消费者名称
+        private final String consumerName;
+        // 运行标记，缩容或停机时置为false
+        private volatile boolean running = true;
+        // 下次重试pending-list的时间，启动时立即处理遗留的消息
+        private long nextPendingScan = 0;
+        // 连续读取或处理失败的次数，用于计算退避时间
+        private int failures = 0;
+
+        VoucherOrderHandler(String consumerName) {
+            this.consumerName = consumerName;
+        }
+
+        /**
+         * 停止处理器，当前的阻塞读取返回后退出循环
+         */
+        void stop() {
+            running = false;
+        }
+
+        /**
+         * run方法，处理优惠券订单的主逻辑
+         * 只负责一个stream时阻塞读取；负责多个stream时依次非阻塞读取，一轮都没有消息再休眠pollInterval，
+         * 集群模式下多个stream不在同一个slot，不能用一条XREADGROUP同时读取
+         * 批量模式下一次处理一批消息：合并扣减库存、批量插入订单、批量ACK
+         * 处理失败的消息留在pending-list中，按退避间隔定期重试，不阻塞新消息的处理
+         */
+        @Override
+        public void run() {
+            while (running) {
+                List<String> queueNames = streams;
+                // 到期时重试自己pending-list中的消息
+                if (System.currentTimeMillis() >= nextPendingScan) {
+                    queueNames.forEach(this::handlePendingList);
+                    nextPendingScan = System.currentTimeMillis() + seckillProperties.getOrder().getRetryBackoff().toMillis();
+                }
+                Duration block = queueNames.size() == 1 ? Duration.ofSeconds(2) : null;
+                boolean idle = true;
+                for (String queueName : queueNames) {
+                    if (handleOrders(queueName, block)) {
+                        idle = false;
+                    }
+                }
+                if (idle && block == null && running) {
+                    ThreadUtil.sleep(seckillProperties.getCluster().getPollInterval().toMillis());
+                }
+            }
+        }
+
+        /**
+         * 从一个stream读取并处理一批订单
+         *
+         * @param queueName 订单stream
+         * @param block     没有消息时的最长阻塞时间，为null则不阻塞
+         * @return 是否读取到了消息
+         */
+        private boolean handleOrders(String queueName, Duration block) {
+            try {
+                //1.获取消息队列中的订单信息
+                List<MapRecord<String, Object, Object>> list = readOrders(queueName, block);
+                //2.判断消息获取是否成功
+                if (list.isEmpty()) {
+                    //2.1如果获取失败，说明没有消息，继续下一次循环
+                    return false;
+                }
+                //3.如果获取成功，可以下单，批量模式下一次处理整批
+                handler.handle(list.stream().map(r -> toVoucherOrder(r)).collect(Collectors.toList()));
+                //4.ACK 确认消息，批量模式下一次确认整批
+                stringRedisTemplate.opsForStream().acknowledge(queueName, SECKILL_ORDER_GROUP,
+                        list.stream().map(MapRecord::getId).toArray(RecordId[]::new));
+                failures = 0;
+                return true;
+            } catch (Exception e) {
+                if (!running) {
+                    return false;
+                }
+                // 失败的消息留在pending-list中，由handlePendingList逐条重试，
+                // 个别异常消息不会影响同批的其他订单；Redis或数据库不可用时按退避间隔等待，避免空转
+                failures++;
+                Duration backoff = retryBackoff(failures);
+                log.error("处理订单异常, 连续第{}次, {}ms后继续", failures, backoff.toMillis(), e);
+                ThreadUtil.sleep(backoff.toMillis());
+                return false;
+            }
+        }
+
+        /**
+         * 从消息队列读取订单消息
+         * 非批量模式每次读取一条；批量模式在batchLinger时间内尽量凑满batchSize条
+         *
+         * @param queueName 订单stream
+         * @param block     没有消息时的最长阻塞时间，为null则不阻塞
+         * @return 读取到的消息，没有消息时返回空列表
+         */
+        private List<MapRecord<String, Object, Object>> readOrders(String queueName, Duration block) {
+            SeckillProperties.Order config = seckillProperties.getOrder();
+            int batchSize = config.isBatchEnabled() ? config.getBatchSize() : 1;
+            // 等待第一批消息
+            List<MapRecord<String, Object, Object>> list = read(queueName, batchSize, block);
+            if (list == null || list.isEmpty()) {
+                return Collections.emptyList();
+            }
+            if (list.size() >= batchSize) {
+                return list;
+            }
+            // 未凑满一批，在linger时间内继续读取
+            List<MapRecord<String, Object, Object>> batch = new ArrayList<>(list);
+            long deadline = System.currentTimeMillis() + config.getBatchLinger().toMillis();
+            long remaining;
+            while (batch.size() < batchSize && (remaining = deadline - System.currentTimeMillis()) > 0) {
+                List<MapRecord<String, Object, Object>> more = read(queueName, batchSize - batch.size(), Duration.ofMillis(remaining));
+                if (more == null || more.isEmpty()) {
+                    break;
+                }
+                batch.addAll(more);
+            }
+            return batch;
+        }
+
+        /**
+         * 以当前消费者身份读取尚未投递的消息
+         *
+         * @param queueName 订单stream
+         * @param count     最多读取的消息数
+         * @param block     没有消息时的最长阻塞时间，为null则不阻塞
+         * @return 读取到的消息
+         */
+        @SuppressWarnings("unchecked") // StreamOffset的可变参数
+        private List<MapRecord<String, Object, Object>> read(String queueName, int count, Duration block) {
+            StreamReadOptions options = StreamReadOptions.empty().count(count);
+            return stringRedisTemplate.opsForStream().read(
+                    Consumer.from(SECKILL_ORDER_GROUP, consumerName), //消费者组名称和消费者名称
+                    block == null ? options : options.block(block), //读取配置
+                    StreamOffset.create(queueName, ReadOffset.lastConsumed())//从最新的消息开始读取
+            );
+        }
+
+        /**
+         * 处理待处理订单列表的方法
+         * 遍历一遍自己pending-list中的消息，根据XPENDING返回的投递次数：
+         * 1.投递次数达到maxDeliveries的消息转入死信队列
+         * 2.距上次投递未超过退避间隔(retryBackoff * 2^(投递次数-1))的消息本轮跳过
+         * 3.其余消息重新认领(投递次数+1)后逐条处理，失败的留待下一轮
+         *
+         * @param queueName 订单stream
+         */
+        private void handlePendingList(String queueName) {
+            SeckillProperties.Order config = seckillProperties.getOrder();
+            try {
+                //1.获取pending-list中的消息及其投递次数
+                PendingMessages pending = stringRedisTemplate.opsForStream().pending(queueName,
+                        Consumer.from(SECKILL_ORDER_GROUP, consumerName), Range.unbounded(), config.getClaimBatch());
+                for (PendingMessage message : pending) {
+                    if (!running) {
+                        break;
+                    }
+                    long deliveries = message.getTotalDeliveryCount();
+                    //2.超过最大投递次数，转入死信队列
+                    if (deliveries >= config.getMaxDeliveries()) {
+                        deadLetterQueue.add(queueName, SECKILL_ORDER_GROUP, message.getId(), deliveries);
+                        continue;
+                    }
+                    //3.未到重试时间，跳过
+                    if (message.getElapsedTimeSinceLastDelivery().compareTo(retryBackoff(deliveries)) < 0) {
+                        continue;
+                    }
+                    //4.重新认领消息，获取消息内容
+                    List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream()
+                            .claim(queueName, SECKILL_ORDER_GROUP, consumerName, Duration.ZERO, message.getId());
+                    if (list == null || list.isEmpty()) {
+                        continue;
+                    }
+                    MapRecord<String, Object, Object> record = list.get(0);
+                    try {
+                        //5.下单并ACK确认
+                        handler.handle(Collections.singletonList(toVoucherOrder(record)));
+                        stringRedisTemplate.opsForStream().acknowledge(queueName, SECKILL_ORDER_GROUP, record.getId());
+                    } catch (Exception e) {
+                        log.error("处理pending-list订单异常, id = {}, 第 {} 次投递", record.getId(), deliveries + 1, e);
+                    }
+                }
+            } catch (Exception e) {
+                log.error("处理pending-list订单异常", e);
+            }
+        }
+    }
+
+    /**
+     * 计算失败消息的重试间隔：retryBackoff * 2^(投递次数-1)，不超过maxRetryBackoff
+     *
+     * @param deliveries 已投递次数
+     * @return 距上次投递至少需要间隔的时间
+     */
+    private Duration retryBackoff(long deliveries) {
+        SeckillProperties.Order config = seckillProperties.getOrder();
+        long shift = Math.min(Math.max(deliveries - 1, 0), 20);
+        long backoff = config.getRetryBackoff().toMillis() << shift;
+        return Duration.ofMillis(Math.min(backoff, config.getMaxRetryBackoff().toMillis()));
+    }
+
+    /**
+     * 将消息队列中的消息解析为订单对象
+     *
+     * @param record 消息，包含userId、voucherId、id三个字段
+     * @return 订单对象
+     */
+    private VoucherOrder toVoucherOrder(MapRecord<String, Object, Object> record) {
+        return BeanUtil.fillBeanWithMap(record.getValue(), new VoucherOrder(), true);
+    }
+}
@@ -0,0 +1,317 @@
+package com.shyx.utils;
+
+import cn.hutool.core.thread.ThreadUtil;
+import cn.hutool.json.JSONUtil;
+import com.shyx.config.SeckillProperties;
+import com.shyx.dto.Result;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.HandlerMapping;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 秒杀接口的准入控制拦截器
+ * 请求依次经过以下检查，任何一项不通过都直接返回429，不进入秒杀业务：
+ * 0.虚拟等候室：使用等候室的优惠券只放行排队号已经轮到的用户
+ * 1.节点并发上限：同时处理的秒杀请求不超过maxConcurrent，热门活动不会占满Tomcat线程和Redis连接池
+ * 2.积压保护：订单消息积压超过maxLag时拒绝，等消费者追上后再放行
+ * 3.本地令牌桶：每个优惠券一个，发放速率按剩余库存计算，库存越少放行越少；
+ *   租约模式下Redis库存会提前租给各节点，剩余库存还包括各节点已租用但尚未售出的部分
+ * 4.全局滑动窗口：通过Lua脚本在Redis中按优惠券计数，限制整个集群的放行速率
+ */
+@Slf4j
+@Component
+public class SeckillAdmissionInterception implements HandlerInterceptor {
+
+    private static final DefaultRedisScript<Long> WINDOW_SCRIPT;
+
+    static {
+        WINDOW_SCRIPT = new DefaultRedisScript<>();
+        WINDOW_SCRIPT.setLocation(new ClassPathResource("sliding_window.lua"));
+        WINDOW_SCRIPT.setResultType(Long.class);
+    }
+
+    /**
+     * 刷新剩余库存的线程
+     */
+    private static final ScheduledExecutorService ADMISSION_EXECUTOR =
+            Executors.newSingleThreadScheduledExecutor(ThreadUtil.newNamedThreadFactory("seckill-admission-", true));
+
+    // 请求属性：当前请求占用了并发名额，完成后归还
+    private static final String PERMIT_ATTRIBUTE = SeckillAdmissionInterception.class.getName() + ".permit";
+    // 令牌桶空闲超过该时间后删除
+    private static final long BUCKET_IDLE_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate; // Redis操作模板
+    @Resource
+    private SeckillProperties seckillProperties; // 秒杀相关配置
+    @Resource
+    private SeckillKeys seckillKeys; // 秒杀key布局
+    @Resource
+    private OrderQueue orderQueue; // 订单队列，提供积压数量
+    @Resource
+    private SeckillWaitingRoom waitingRoom; // 虚拟等候室
+
+    // 节点并发名额
+    private Semaphore permits;
+    // 每个优惠券的本地令牌桶
+    private final Map<Long, TokenBucket> buckets = new ConcurrentHashMap<>();
+
+    /**
+     * 初始化：创建并发名额，定期按剩余库存调整令牌桶速率
+     */
+    @PostConstruct
+    private void init() {
+        permits = new Semaphore(seckillProperties.getAdmission().getMaxConcurrent());
+        long interval = seckillProperties.getAdmission().getStockRefreshInterval().toMillis();
+        ADMISSION_EXECUTOR.scheduleWithFixedDelay(this::refreshRates, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 销毁：停止刷新任务
+     */
+    @PreDestroy
+    private void destroy() {
+        ADMISSION_EXECUTOR.shutdownNow();
+    }
+
+    /**
+     * 在秒杀请求处理之前进行准入检查
+     *
+     * @param request  当前HTTP请求对象
+     * @param response 当前HTTP响应对象
+     * @param handler  请求处理方法
+     * @return true表示放行，false表示已返回429
+     */
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        //0.虚拟等候室，排队号未轮到的请求不占用后面的名额和令牌
+        Long voucherId = voucherId(request);
+        if (voucherId != null && waitingRoom.isEnabled(voucherId)) {
+            Long position = waitingRoom.position(voucherId, UserHolder.getUser().getId());
+            if (position == null) {
+                return reject(response, "请先领取排队号");
+            }
+            if (position > 0) {
+                return reject(response, "排队中，前面还有" + position + "人");
+            }
+        }
+        SeckillProperties.Admission config = seckillProperties.getAdmission();
+        if (!config.isEnabled()) {
+            return true;
+        }
+        //1.节点并发上限
+        if (!permits.tryAcquire()) {
+            return reject(response, "活动太火爆，请稍后再试");
+        }
+        //preHandle返回false或抛出异常时Spring不会调用afterCompletion，名额在这里归还
+        boolean admitted = false;
+        try {
+            String message = check(config, voucherId);
+            if (message != null) {
+                return reject(response, message);
+            }
+            request.setAttribute(PERMIT_ATTRIBUTE, Boolean.TRUE);
+            admitted = true;
+            return true;
+        } finally {
+            if (!admitted) {
+                permits.release();
+            }
+        }
+    }
+
+    /**
+     * 占用并发名额之后的检查
+     *
+     * @return 拒绝的原因，放行时返回null
+     */
+    private String check(SeckillProperties.Admission config, Long voucherId) {
+        //2.订单消息积压过多
+        if (config.getMaxLag() > 0 && orderQueue.lag() > config.getMaxLag()) {
+            return "订单处理繁忙，请稍后再试";
+        }
+        if (voucherId == null) {
+            return null;
+        }
+        //3.本地令牌桶
+        TokenBucket bucket = buckets.computeIfAbsent(voucherId, id -> new TokenBucket(config.getMaxRate()));
+        if (!bucket.tryAcquire()) {
+            return "活动太火爆，请稍后再试";
+        }
+        //4.全局滑动窗口
+        if (config.getGlobalLimit() > 0 && !tryAcquireGlobal(voucherId)) {
+            return "活动太火爆，请稍后再试";
+        }
+        return null;
+    }
+
+    /**
+     * 请求完成后归还并发名额
+     */
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+        if (request.getAttribute(PERMIT_ATTRIBUTE) != null) {
+            request.removeAttribute(PERMIT_ATTRIBUTE);
+            permits.release();
+        }
+    }
+
+    /**
+     * 全局滑动窗口限流
+     *
+     * @param voucherId 优惠券id
+     * @return 是否放行
+     */
+    private boolean tryAcquireGlobal(Long voucherId) {
+        SeckillProperties.Admission config = seckillProperties.getAdmission();
+        long window = config.getWindow().toMillis();
+        long now = System.currentTimeMillis();
+        long index = now / window;
+        List<String> keys = Arrays.asList(seckillKeys.limitKey(voucherId, index), seckillKeys.limitKey(voucherId, index - 1));
+        Long result = stringRedisTemplate.execute(WINDOW_SCRIPT, keys,
+                String.valueOf(config.getGlobalLimit()), String.valueOf(window), String.valueOf(now % window));
+        return result != null && result == 1;
+    }
+
+    /**
+     * 按剩余库存调整各个令牌桶的速率，删除长时间没有请求的令牌桶
+     * 剩余库存为Redis各个库存桶之和；租约模式下加上租约总数减去下单用户数，即各节点还持有的库存，
+     * 与seckill_reconcile.lua的计算方式一致，三个值在同一个pipeline中读取
+     */
+    private void refreshRates() {
+        SeckillProperties.Admission config = seckillProperties.getAdmission();
+        long now = System.currentTimeMillis();
+        buckets.forEach((voucherId, bucket) -> {
+            if (now - bucket.lastAccess > BUCKET_IDLE_MILLIS) {
+                buckets.remove(voucherId, bucket);
+                return;
+            }
+            try {
+                boolean lease = seckillProperties.getLease().isEnabled();
+                List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                    StringRedisConnection conn = (StringRedisConnection) connection;
+                    conn.mGet(seckillKeys.stockKeys(voucherId).toArray(new String[0]));
+                    if (lease) {
+                        conn.hVals(seckillKeys.leaseKey(voucherId));
+                        String orderKey = seckillKeys.orderKey(voucherId);
+                        if (seckillKeys.isBitmapPurchasers()) {
+                            conn.bitCount(orderKey);
+                        } else {
+                            conn.sCard(orderKey);
+                        }
+                    }
+                    return null;
+                });
+                long remaining = sum(results.get(0), true);
+                if (lease) {
+                    long sold = results.get(2) == null ? 0 : ((Number) results.get(2)).longValue();
+                    // 租约中的cancelled为取消订单归还的数量，是负数
+                    remaining += Math.max(sum(results.get(1), false) - sold, 0);
+                }
+                double rate = Math.min(config.getMaxRate(), Math.max(config.getMinRate(), remaining * config.getRatePerStock()));
+                bucket.setRate(rate);
+            } catch (Exception e) {
+                log.error("刷新优惠券 {} 的剩余库存异常", voucherId, e);
+            }
+        });
+    }
+
+    /**
+     * 字符串数值列表之和，不存在的值按0计算
+     *
+     * @param positive 为true时负数也按0计算
+     */
+    private static long sum(Object values, boolean positive) {
+        long sum = 0;
+        if (values instanceof List) {
+            for (Object value : (List<?>) values) {
+                long n = value == null ? 0 : Long.parseLong(value.toString());
+                sum += positive ? Math.max(n, 0) : n;
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * 从请求路径/voucher-order/seckill/{id}中获取优惠券id
+     */
+    @SuppressWarnings("unchecked")
+    private Long voucherId(HttpServletRequest request) {
+        Map<String, String> variables = (Map<String, String>) request.getAttribute(HandlerMapping.URI_TEMPLATE_VARIABLES_ATTRIBUTE);
+        if (variables == null || variables.get("id") == null) {
+            return null;
+        }
+        try {
+            return Long.valueOf(variables.get("id"));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 返回429和失败信息
+     */
+    private boolean reject(HttpServletResponse response, String message) throws Exception {
+        response.setStatus(429);
+        response.setContentType("application/json;charset=UTF-8");
+        response.getWriter().write(JSONUtil.toJsonStr(Result.fail(message)));
+        return false;
+    }
+
+    /**
+     * 令牌桶，容量为一秒的令牌数
+     */
+    private static class TokenBucket {
+        // 每秒发放的令牌数
+        private double rate;
+        // 当前令牌数
+        private double tokens;
+        // 上次发放令牌的时间
+        private long lastRefill = System.nanoTime();
+        // 上次请求的时间，用于清理空闲的令牌桶
+        volatile long lastAccess = System.currentTimeMillis();
+
+        TokenBucket(double rate) {
+            this.rate = rate;
+            this.tokens = rate;
+        }
+
+        synchronized boolean tryAcquire() {
+            long now = System.nanoTime();
+            lastAccess = System.currentTimeMillis();
+            tokens = Math.min(rate, tokens + (now - lastRefill) / 1e9 * rate);
+            lastRefill = now;
+            if (tokens < 1) {
+                return false;
+            }
+            tokens--;
+            return true;
+        }
+
+        synchronized void setRate(double rate) {
+            this.rate = rate;
+            this.tokens = Math.min(tokens, rate);
+        }
+    }
+}
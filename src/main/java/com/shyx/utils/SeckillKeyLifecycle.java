@@ -0,0 +1,207 @@
+package com.shyx.utils;
+
+import cn.hutool.core.thread.ThreadUtil;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.shyx.config.SeckillProperties;
+import com.shyx.entity.SeckillVoucher;
+import com.shyx.mapper.SeckillVoucherMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.shyx.utils.RedisConstants.SECKILL_ARCHIVED_KEY;
+
+/**
+ * 秒杀key的生命周期
+ * 库存key、下单用户key、租约key和等候室key的过期时间为 优惠券结束时间 + retention，创建优惠券时设置，并定期重新设置
+ * (下单用户key在第一次下单时才创建，修复库存时SET会清除过期时间)；
+ * 优惠券结束后由一个节点把剩余库存和下单用户归档到本地磁盘，key到期后由Redis删除，多次活动后Redis内存不会增长；
+ * 各节点同时清除该优惠券的本地售罄标记、已购用户过滤和等候室缓存的开始结束时间
+ */
+@Slf4j
+@Component
+public class SeckillKeyLifecycle {
+
+    /**
+     * 定期检查的线程
+     */
+    private static final ScheduledExecutorService LIFECYCLE_EXECUTOR =
+            Executors.newSingleThreadScheduledExecutor(ThreadUtil.newNamedThreadFactory("seckill-lifecycle-", true));
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate; // Redis操作模板
+    @Resource
+    private SeckillProperties seckillProperties; // 秒杀相关配置
+    @Resource
+    private SeckillKeys seckillKeys; // 秒杀key布局
+    @Resource
+    private SeckillVoucherMapper seckillVoucherMapper; // 秒杀优惠券
+    @Resource
+    private SeckillLocalFilter localFilter; // 优惠券结束后清除本地标记
+    @Resource
+    private SeckillWaitingRoom waitingRoom; // 优惠券结束后清除等候室缓存的时间
+
+    /**
+     * 初始化：开启定期检查任务
+     */
+    @PostConstruct
+    private void init() {
+        if (!seckillProperties.getLifecycle().isEnabled()) {
+            return;
+        }
+        long interval = seckillProperties.getLifecycle().getInterval().toMillis();
+        LIFECYCLE_EXECUTOR.scheduleWithFixedDelay(this::check, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 销毁：停止检查任务
+     */
+    @PreDestroy
+    private void destroy() {
+        LIFECYCLE_EXECUTOR.shutdownNow();
+    }
+
+    /**
+     * 按优惠券结束时间设置秒杀key的过期时间
+     *
+     * @param voucherId 优惠券id
+     * @param endTime   优惠券结束时间
+     */
+    public void expire(Long voucherId, LocalDateTime endTime) {
+        if (!seckillProperties.getLifecycle().isEnabled() || endTime == null) {
+            return;
+        }
+        long expireAt = endTime.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli()
+                + seckillProperties.getLifecycle().getRetention().toMillis();
+        List<String> keys = keys(voucherId);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            keys.forEach(key -> conn.pExpireAt(key, expireAt));
+            return null;
+        });
+    }
+
+    /**
+     * 检查保留期内的优惠券：重新设置过期时间，归档已结束的优惠券
+     */
+    private void check() {
+        SeckillProperties.Lifecycle config = seckillProperties.getLifecycle();
+        LocalDateTime now = LocalDateTime.now();
+        try {
+            List<SeckillVoucher> vouchers = seckillVoucherMapper.selectList(new QueryWrapper<SeckillVoucher>()
+                    .select("voucher_id", "end_time")
+                    .gt("end_time", now.minus(config.getRetention())));
+            for (SeckillVoucher voucher : vouchers) {
+                expire(voucher.getVoucherId(), voucher.getEndTime());
+                if (voucher.getEndTime().isAfter(now)) {
+                    continue;
+                }
+                localFilter.evict(voucher.getVoucherId());
+                waitingRoom.evict(voucher.getVoucherId());
+                if (config.isArchiveEnabled()) {
+                    archiveOnce(voucher.getVoucherId());
+                }
+            }
+        } catch (Exception e) {
+            log.error("检查秒杀key过期时间异常", e);
+        }
+    }
+
+    /**
+     * 归档已结束的优惠券，通过已归档集合保证只有一个节点归档一次
+     */
+    private void archiveOnce(Long voucherId) {
+        Long added = stringRedisTemplate.opsForSet().add(SECKILL_ARCHIVED_KEY, voucherId.toString());
+        // 已归档集合保留到最后一个归档的优惠券的key过期之后
+        stringRedisTemplate.expire(SECKILL_ARCHIVED_KEY, seckillProperties.getLifecycle().getRetention().multipliedBy(2));
+        if (added == null || added == 0) {
+            return;
+        }
+        try {
+            archive(voucherId);
+        } catch (Exception e) {
+            // 归档失败，下次检查时重试
+            stringRedisTemplate.opsForSet().remove(SECKILL_ARCHIVED_KEY, voucherId.toString());
+            log.error("归档优惠券 {} 失败", voucherId, e);
+        }
+    }
+
+    /**
+     * 归档文件：第一行为剩余库存，之后每行一个下单用户id
+     */
+    private void archive(Long voucherId) throws IOException {
+        Path dir = Paths.get(seckillProperties.getRetention().getArchiveDir(), "vouchers");
+        Files.createDirectories(dir);
+        Path file = dir.resolve("seckill-" + voucherId + ".txt");
+        long stock = 0;
+        List<String> stocks = stringRedisTemplate.opsForValue().multiGet(seckillKeys.stockKeys(voucherId));
+        if (stocks != null) {
+            for (String s : stocks) {
+                stock += s == null ? 0 : Long.parseLong(s);
+            }
+        }
+        String orderKey = seckillKeys.orderKey(voucherId);
+        long count = 0;
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            writer.write("stock=" + stock);
+            writer.newLine();
+            if (seckillKeys.isBitmapPurchasers()) {
+                // bitmap的第i位(从高位开始)对应用户id i
+                byte[] bits = stringRedisTemplate.execute((RedisCallback<byte[]>) connection ->
+                        connection.stringCommands().get(orderKey.getBytes(StandardCharsets.UTF_8)));
+                if (bits != null) {
+                    for (int i = 0; i < bits.length; i++) {
+                        for (int b = 0; b < 8; b++) {
+                            if ((bits[i] & (0x80 >>> b)) != 0) {
+                                writer.write(String.valueOf((long) i * 8 + b));
+                                writer.newLine();
+                                count++;
+                            }
+                        }
+                    }
+                }
+            } else {
+                try (Cursor<String> cursor = stringRedisTemplate.opsForSet().scan(orderKey, ScanOptions.scanOptions().count(1000).build())) {
+                    while (cursor.hasNext()) {
+                        writer.write(cursor.next());
+                        writer.newLine();
+                        count++;
+                    }
+                }
+            }
+        }
+        log.info("优惠券 {} 已归档到 {}，剩余库存 {}，下单用户 {} 个", voucherId, file, stock, count);
+    }
+
+    /**
+     * 优惠券的秒杀key
+     */
+    private List<String> keys(Long voucherId) {
+        List<String> keys = new ArrayList<>(seckillKeys.stockKeys(voucherId));
+        keys.add(seckillKeys.orderKey(voucherId));
+        keys.add(seckillKeys.leaseKey(voucherId));
+        keys.add(seckillKeys.roomKey(voucherId));
+        return keys;
+    }
+}
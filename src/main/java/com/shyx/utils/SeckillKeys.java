@@ -0,0 +1,163 @@
+package com.shyx.utils;
+
+import com.shyx.config.SeckillProperties;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static com.shyx.utils.RedisConstants.ORDER_TIMEOUT_KEY;
+import static com.shyx.utils.RedisConstants.SECKILL_BUYERS_KEY;
+import static com.shyx.utils.RedisConstants.SECKILL_LEASE_KEY;
+import static com.shyx.utils.RedisConstants.SECKILL_LIMIT_KEY;
+import static com.shyx.utils.RedisConstants.SECKILL_ORDER_KEY;
+import static com.shyx.utils.RedisConstants.SECKILL_ORDER_STREAM;
+import static com.shyx.utils.RedisConstants.SECKILL_ROOM_KEY;
+import static com.shyx.utils.RedisConstants.SECKILL_STOCK_KEY;
+
+/**
+ * 秒杀相关的Redis key布局
+ * 单机模式沿用原有的key：seckill:stock:{voucherId}、seckill:order:{voucherId}、stream.orders；
+ * 集群模式下优惠券按id取模分到seckill.cluster.streams个分片，同一分片的key使用相同的hash tag，
+ * 例如seckill:stock:{3}:1001、seckill:order:{3}:1001、stream.orders:{3}，
+ * seckill.lua涉及的key落在同一个slot，不同分片的订单分散到各个主节点
+ */
+@Component
+public class SeckillKeys {
+
+    @Resource
+    private SeckillProperties seckillProperties; // 秒杀相关配置
+
+    /**
+     * 是否为集群模式
+     */
+    public boolean isClusterEnabled() {
+        return seckillProperties.getCluster().isEnabled();
+    }
+
+    /**
+     * 优惠券的库存key，分桶时为每个桶的key：单个桶时为seckill:stock:1001，
+     * 多个桶时为seckill:stock:1001:0、seckill:stock:1001:1...，集群模式下同一优惠券的桶使用相同的hash tag
+     */
+    public List<String> stockKeys(Long voucherId) {
+        String stockKey = isClusterEnabled() ? SECKILL_STOCK_KEY + hashTag(voucherId) + ":" + voucherId : SECKILL_STOCK_KEY + voucherId;
+        int buckets = seckillProperties.getStock().getBuckets();
+        if (buckets <= 1) {
+            return Collections.singletonList(stockKey);
+        }
+        List<String> keys = new ArrayList<>(buckets);
+        for (int i = 0; i < buckets; i++) {
+            keys.add(stockKey + ":" + i);
+        }
+        return keys;
+    }
+
+    /**
+     * 是否用bitmap记录下单用户
+     */
+    public boolean isBitmapPurchasers() {
+        return seckillProperties.getPurchaser().isBitmap();
+    }
+
+    /**
+     * 传给Lua脚本的下单用户记录方式：1为bitmap，0为set
+     */
+    public String purchaserFlag() {
+        return isBitmapPurchasers() ? "1" : "0";
+    }
+
+    /**
+     * 优惠券的下单用户key：set模式为seckill:order:1001，bitmap模式为seckill:buyers:1001
+     */
+    public String orderKey(Long voucherId) {
+        String prefix = isBitmapPurchasers() ? SECKILL_BUYERS_KEY : SECKILL_ORDER_KEY;
+        return isClusterEnabled() ? prefix + hashTag(voucherId) + ":" + voucherId : prefix + voucherId;
+    }
+
+    /**
+     * 优惠券各节点未售出的库存租约，hash结构：节点标识 -> 租用数量
+     */
+    public String leaseKey(Long voucherId) {
+        return isClusterEnabled() ? SECKILL_LEASE_KEY + hashTag(voucherId) + ":" + voucherId : SECKILL_LEASE_KEY + voucherId;
+    }
+
+    /**
+     * 优惠券全局限流的窗口计数key，每个窗口一个key
+     */
+    public String limitKey(Long voucherId, long window) {
+        return (isClusterEnabled() ? SECKILL_LIMIT_KEY + hashTag(voucherId) + ":" + voucherId : SECKILL_LIMIT_KEY + voucherId)
+                + ":" + window;
+    }
+
+    /**
+     * 优惠券等候室的排队号，hash结构：用户id -> 排队号，字段_seq为已发放的排队号计数
+     */
+    public String roomKey(Long voucherId) {
+        return isClusterEnabled() ? SECKILL_ROOM_KEY + hashTag(voucherId) + ":" + voucherId : SECKILL_ROOM_KEY + voucherId;
+    }
+
+    /**
+     * 优惠券订单写入的stream
+     */
+    public String streamKey(Long voucherId) {
+        return isClusterEnabled() ? SECKILL_ORDER_STREAM + ":" + hashTag(voucherId) : SECKILL_ORDER_STREAM;
+    }
+
+    /**
+     * 所有的订单stream，消费者、巡检和裁剪都遍历该列表
+     */
+    public List<String> streamKeys() {
+        if (!isClusterEnabled()) {
+            return Collections.singletonList(SECKILL_ORDER_STREAM);
+        }
+        int streams = seckillProperties.getCluster().getStreams();
+        List<String> keys = new ArrayList<>(streams);
+        for (int i = 0; i < streams; i++) {
+            keys.add(SECKILL_ORDER_STREAM + ":{" + i + "}");
+        }
+        return keys;
+    }
+
+    /**
+     * 未支付订单的超时时间索引(zset，score为超时时间)，集群模式下按订单id分片
+     */
+    public String timeoutKey(Long orderId) {
+        return isClusterEnabled() ? ORDER_TIMEOUT_KEY + ":{" + Math.floorMod(orderId, (long) seckillProperties.getCluster().getStreams()) + "}"
+                : ORDER_TIMEOUT_KEY;
+    }
+
+    /**
+     * 所有的超时时间索引
+     */
+    public List<String> timeoutKeys() {
+        if (!isClusterEnabled()) {
+            return Collections.singletonList(ORDER_TIMEOUT_KEY);
+        }
+        int streams = seckillProperties.getCluster().getStreams();
+        List<String> keys = new ArrayList<>(streams);
+        for (int i = 0; i < streams; i++) {
+            keys.add(ORDER_TIMEOUT_KEY + ":{" + i + "}");
+        }
+        return keys;
+    }
+
+    /**
+     * seckill.lua的KEYS参数：下单用户key、订单stream、各个库存桶的key
+     */
+    public List<String> scriptKeys(Long voucherId) {
+        List<String> keys = new ArrayList<>();
+        keys.add(orderKey(voucherId));
+        keys.add(streamKey(voucherId));
+        keys.addAll(stockKeys(voucherId));
+        return keys;
+    }
+
+    /**
+     * 优惠券所属分片的hash tag
+     */
+    private String hashTag(Long voucherId) {
+        return "{" + Math.floorMod(voucherId, (long) seckillProperties.getCluster().getStreams()) + "}";
+    }
+}
@@ -0,0 +1,243 @@
+package com.shyx.utils;
+
+import cn.hutool.core.thread.ThreadUtil;
+import com.shyx.config.SeckillProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static com.shyx.utils.RedisConstants.SECKILL_REPLENISH_CHANNEL;
+
+/**
+ * 秒杀接口的本地过滤
+ * 1.售罄标记：Lua脚本返回库存不足后记录在本地，之后该优惠券的请求不再访问Redis，
+ * 库存补回时通过Redis频道seckill:replenish通知所有节点清除标记
+ * 2.已购用户布隆过滤器：下单成功或判定重复下单的用户记录在本地；没有命中的用户直接执行秒杀脚本，
+ * 命中的用户先用一次SISMEMBER(或GETBIT)到Redis确认，确认已购买才拒绝，误判的用户不会被错误地拒绝，
+ * 已购用户的重复请求也不需要生成订单id、扣减租约和执行脚本；
+ * 布隆过滤器不能删除元素，收到补货消息时整体丢弃，之后重新积累
+ * 定期清理过期的售罄标记和空闲超过local-filter.purchased-idle的布隆过滤器，优惠券结束后由SeckillKeyLifecycle清除，
+ * 多次活动后本地内存不会增长
+ */
+@Slf4j
+@Component
+public class SeckillLocalFilter implements MessageListener {
+
+    /**
+     * 定期清理的线程
+     */
+    private static final ScheduledExecutorService EVICT_EXECUTOR =
+            Executors.newSingleThreadScheduledExecutor(ThreadUtil.newNamedThreadFactory("seckill-local-filter-", true));
+    // 清理周期
+    private static final long EVICT_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate; // Redis操作模板
+    @Resource
+    private SeckillProperties seckillProperties; // 秒杀相关配置
+    @Resource
+    private RedisMessageListenerContainer listenerContainer; // Redis频道监听容器
+    @Resource
+    private SeckillKeys seckillKeys; // 秒杀key布局，确认已购用户
+
+    // 售罄的优惠券 -> 标记过期时间
+    private final Map<Long, Long> soldOut = new ConcurrentHashMap<>();
+    // 每个优惠券的已购用户
+    private final Map<Long, BloomFilter> purchased = new ConcurrentHashMap<>();
+
+    /**
+     * 初始化：订阅补货频道，开启定期清理任务
+     */
+    @PostConstruct
+    private void init() {
+        listenerContainer.addMessageListener(this, new ChannelTopic(SECKILL_REPLENISH_CHANNEL));
+        EVICT_EXECUTOR.scheduleWithFixedDelay(this::evictIdle, EVICT_INTERVAL_MILLIS, EVICT_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 销毁：停止清理任务
+     */
+    @PreDestroy
+    private void destroy() {
+        EVICT_EXECUTOR.shutdownNow();
+    }
+
+    /**
+     * 优惠券是否已在本地标记为售罄
+     */
+    public boolean isSoldOut(Long voucherId) {
+        if (!seckillProperties.getLocalFilter().isSoldOutEnabled()) {
+            return false;
+        }
+        Long expireAt = soldOut.get(voucherId);
+        if (expireAt == null) {
+            return false;
+        }
+        if (expireAt < System.currentTimeMillis()) {
+            soldOut.remove(voucherId, expireAt);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 标记优惠券售罄
+     */
+    public void markSoldOut(Long voucherId) {
+        if (seckillProperties.getLocalFilter().isSoldOutEnabled()) {
+            soldOut.put(voucherId, System.currentTimeMillis() + seckillProperties.getLocalFilter().getSoldOutTtl().toMillis());
+        }
+    }
+
+    /**
+     * 用户是否已经购买过该优惠券：本地布隆过滤器没有命中时返回false，命中时到Redis的下单用户集合确认
+     * 返回false不代表可以下单，一人一单仍由秒杀脚本判断
+     */
+    public boolean hasPurchased(Long voucherId, Long userId) {
+        if (!seckillProperties.getLocalFilter().isPurchasedEnabled()) {
+            return false;
+        }
+        BloomFilter filter = purchased.get(voucherId);
+        if (filter == null || !filter.mightContain(userId)) {
+            return false;
+        }
+        Boolean member = seckillKeys.isBitmapPurchasers()
+                ? stringRedisTemplate.opsForValue().getBit(seckillKeys.orderKey(voucherId), userId)
+                : stringRedisTemplate.opsForSet().isMember(seckillKeys.orderKey(voucherId), userId.toString());
+        return Boolean.TRUE.equals(member);
+    }
+
+    /**
+     * 记录用户已经购买过该优惠券
+     */
+    public void markPurchased(Long voucherId, Long userId) {
+        if (seckillProperties.getLocalFilter().isPurchasedEnabled()) {
+            purchased.computeIfAbsent(voucherId, id -> new BloomFilter(
+                    seckillProperties.getLocalFilter().getExpectedPurchasers(),
+                    seckillProperties.getLocalFilter().getFpp())).put(userId);
+        }
+    }
+
+    /**
+     * 清除优惠券的本地标记，优惠券结束后调用
+     */
+    public void evict(Long voucherId) {
+        soldOut.remove(voucherId);
+        purchased.remove(voucherId);
+    }
+
+    /**
+     * 删除过期的售罄标记和长时间没有访问的布隆过滤器
+     */
+    private void evictIdle() {
+        long now = System.currentTimeMillis();
+        long idle = seckillProperties.getLocalFilter().getPurchasedIdle().toMillis();
+        soldOut.entrySet().removeIf(entry -> entry.getValue() < now);
+        purchased.entrySet().removeIf(entry -> now - entry.getValue().lastAccess > idle);
+    }
+
+    /**
+     * 库存补回后通知所有节点清除该优惠券的本地标记
+     */
+    public void publishReplenish(Long voucherId) {
+        stringRedisTemplate.convertAndSend(SECKILL_REPLENISH_CHANNEL, voucherId.toString());
+    }
+
+    /**
+     * 收到补货消息，清除售罄标记和已购用户
+     */
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        try {
+            Long voucherId = Long.valueOf(body);
+            soldOut.remove(voucherId);
+            purchased.remove(voucherId);
+        } catch (NumberFormatException e) {
+            log.error("无效的补货消息: {}", body);
+        }
+    }
+
+    /**
+     * 用户id的布隆过滤器，位数组基于AtomicLongArray，多线程并发写入无需加锁
+     */
+    private static class BloomFilter {
+        private final AtomicLongArray bits;
+        private final int numBits;
+        private final int numHashes;
+        // 最近一次访问的时间，精确到秒即可，减少并发写
+        private volatile long lastAccess = System.currentTimeMillis();
+
+        BloomFilter(int expectedInsertions, double fpp) {
+            // m = -n * ln(p) / (ln2)^2，k = m / n * ln2
+            long m = (long) (-expectedInsertions * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+            this.numBits = (int) Math.max(64, Math.min(m, Integer.MAX_VALUE - 63));
+            this.numHashes = Math.max(1, (int) Math.round((double) numBits / expectedInsertions * Math.log(2)));
+            this.bits = new AtomicLongArray((numBits + 63) >>> 6);
+        }
+
+        void put(long value) {
+            touch();
+            long hash = mix(value);
+            int h1 = (int) hash;
+            int h2 = (int) (hash >>> 32);
+            for (int i = 1; i <= numHashes; i++) {
+                int index = ((h1 + i * h2) & Integer.MAX_VALUE) % numBits;
+                long mask = 1L << index;
+                int word = index >>> 6;
+                long old;
+                do {
+                    old = bits.get(word);
+                    if ((old & mask) != 0) {
+                        break;
+                    }
+                } while (!bits.compareAndSet(word, old, old | mask));
+            }
+        }
+
+        boolean mightContain(long value) {
+            touch();
+            long hash = mix(value);
+            int h1 = (int) hash;
+            int h2 = (int) (hash >>> 32);
+            for (int i = 1; i <= numHashes; i++) {
+                int index = ((h1 + i * h2) & Integer.MAX_VALUE) % numBits;
+                if ((bits.get(index >>> 6) & (1L << index)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void touch() {
+            long now = System.currentTimeMillis();
+            if (now - lastAccess > 1000) {
+                lastAccess = now;
+            }
+        }
+
+        /**
+         * 64位混淆函数(splitmix64)，让连续的用户id也能均匀分布
+         */
+        private static long mix(long z) {
+            z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+            z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+            return z ^ (z >>> 31);
+        }
+    }
+}
@@ -0,0 +1,427 @@
+package com.shyx.utils;
+
+import cn.hutool.core.thread.ThreadUtil;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.shyx.config.SeckillProperties;
+import com.shyx.entity.VoucherOrder;
+import com.shyx.mapper.SeckillVoucherMapper;
+import com.shyx.mapper.VoucherOrderMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import static com.shyx.utils.RedisConstants.LOCK_SECKILL_RECONCILE_KEY;
+import static com.shyx.utils.RedisConstants.SECKILL_RECONCILE_CURSOR_KEY;
+
+/**
+ * Redis与数据库的秒杀数据核对
+ * Redis中的库存和下单用户集合只在创建优惠券和下单时写入，Redis清空或主从切换后会与数据库不一致。
+ * 核对只针对未结束的优惠券，每个周期：
+ * 1.下单用户集合的元素少于数据库中未取消的订单数时，从数据库重新加载该优惠券的下单用户
+ * 2.按(下单时间, id)游标增量检查新写入数据库的订单，用户不在下单用户集合中时补上，游标保存在Redis中；
+ *   订单id在事务开始前生成，提交顺序与id顺序不同，赶上最新订单后下次从游标向前回看seckill.reconcile.overlap，
+ *   窗口内已经检查过的订单跳过
+ * 3.按 初始库存 - 已扣减库存 计算期望的Redis库存，连续两次发现相同的偏差才修复，避免与下单中的请求冲突
+ * 启动时并行预热：下单用户集合缺失的优惠券按订单id区间分段并行加载，库存key不存在的优惠券重建库存。
+ * 多节点部署时通过分布式锁保证同一时刻只有一个节点在核对
+ */
+@Slf4j
+@Component
+public class SeckillReconciler {
+
+    private static final DefaultRedisScript<List<Long>> RECONCILE_SCRIPT;
+
+    static {
+        RECONCILE_SCRIPT = new DefaultRedisScript<>();
+        RECONCILE_SCRIPT.setLocation(new ClassPathResource("seckill_reconcile.lua"));
+        @SuppressWarnings("unchecked")
+        Class<List<Long>> reconcileResultType = (Class<List<Long>>) (Class<?>) List.class;
+        RECONCILE_SCRIPT.setResultType(reconcileResultType);
+    }
+
+    /**
+     * 定期核对的线程
+     */
+    private static final ScheduledExecutorService RECONCILE_EXECUTOR =
+            Executors.newSingleThreadScheduledExecutor(ThreadUtil.newNamedThreadFactory("seckill-reconcile-", true));
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate; // Redis操作模板
+    @Resource
+    private SeckillProperties seckillProperties; // 秒杀相关配置
+    @Resource
+    private SeckillKeys seckillKeys; // 秒杀key布局
+    @Resource
+    private SeckillVoucherMapper seckillVoucherMapper; // 秒杀优惠券
+    @Resource
+    private VoucherOrderMapper voucherOrderMapper; // 优惠券订单
+    @Resource
+    private RedissonClient redissonClient; // 分布式锁
+    @Resource
+    private SeckillLocalFilter localFilter; // 库存修复后清除本地售罄标记
+    @Resource
+    private MeterRegistry meterRegistry; // 指标注册表
+
+    // 并行加载下单用户的线程池
+    private ExecutorService loadExecutor;
+    // 每个优惠券上次发现的库存偏差，连续两次相同才修复
+    private final Map<Long, Long> lastDrifts = new ConcurrentHashMap<>();
+    // 每个优惠券最近一次的库存偏差，用于指标
+    private final Map<Long, AtomicLong> drifts = new ConcurrentHashMap<>();
+    // 回看窗口内已经检查过的订单id及其下单时间
+    private final Map<Long, LocalDateTime> checkedOrders = new ConcurrentHashMap<>();
+
+    /**
+     * 初始化：预热库存和下单用户集合，开启定期核对任务
+     */
+    @PostConstruct
+    private void init() {
+        SeckillProperties.Reconcile config = seckillProperties.getReconcile();
+        loadExecutor = Executors.newFixedThreadPool(Math.max(config.getPreloadThreads(), 1),
+                ThreadUtil.newNamedThreadFactory("seckill-preload-", true));
+        if (config.isPreloadEnabled()) {
+            try {
+                preload();
+            } catch (Exception e) {
+                log.error("秒杀数据预热失败", e);
+            }
+        }
+        if (config.isEnabled()) {
+            long interval = config.getInterval().toMillis();
+            RECONCILE_EXECUTOR.scheduleWithFixedDelay(this::reconcile, interval, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * 销毁：停止核对和加载线程
+     */
+    @PreDestroy
+    private void destroy() {
+        RECONCILE_EXECUTOR.shutdownNow();
+        loadExecutor.shutdownNow();
+    }
+
+    /**
+     * 启动预热：加载缺失的下单用户集合，重建不存在的库存key
+     */
+    public void preload() {
+        RLock lock = redissonClient.getLock(LOCK_SECKILL_RECONCILE_KEY);
+        if (!lock.tryLock()) {
+            // 其他节点正在预热或核对
+            return;
+        }
+        try {
+            long begin = System.currentTimeMillis();
+            List<ActiveVoucher> vouchers = queryActiveVouchers();
+            int reloaded = reloadPurchasers(vouchers, true);
+            // 下单用户加载完成后再重建库存，期望库存依赖下单用户数
+            List<CompletableFuture<Void>> futures = vouchers.stream()
+                    .map(v -> CompletableFuture.runAsync(() -> checkStock(v, "missing"), loadExecutor))
+                    .collect(Collectors.toList());
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+            log.info("秒杀数据预热完成，优惠券 {} 个，重新加载下单用户 {} 个，耗时 {} ms",
+                    vouchers.size(), reloaded, System.currentTimeMillis() - begin);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 核对一次未结束的优惠券
+     */
+    public void reconcile() {
+        RLock lock = redissonClient.getLock(LOCK_SECKILL_RECONCILE_KEY);
+        if (!lock.tryLock()) {
+            return;
+        }
+        try {
+            List<ActiveVoucher> vouchers = queryActiveVouchers();
+            if (vouchers.isEmpty()) {
+                return;
+            }
+            //1.下单用户集合缺失元素时整体重新加载
+            reloadPurchasers(vouchers, seckillProperties.getReconcile().isRepair());
+            //2.按下单时间游标增量检查下单用户
+            checkNewOrders(vouchers);
+            //3.核对库存，连续两次相同的偏差才修复
+            for (ActiveVoucher voucher : vouchers) {
+                Long last = lastDrifts.get(voucher.voucherId);
+                String mode = seckillProperties.getReconcile().isRepair() && last != null ? last.toString() : "check";
+                checkStock(voucher, mode);
+            }
+            lastDrifts.keySet().retainAll(vouchers.stream().map(v -> v.voucherId).collect(Collectors.toSet()));
+        } catch (Exception e) {
+            log.error("秒杀数据核对异常", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 查询未结束的优惠券的剩余库存和已售数量
+     */
+    private List<ActiveVoucher> queryActiveVouchers() {
+        List<ActiveVoucher> vouchers = new ArrayList<>();
+        for (Map<String, Object> row : seckillVoucherMapper.queryActiveStock()) {
+            vouchers.add(new ActiveVoucher(((Number) row.get("voucherId")).longValue(),
+                    ((Number) row.get("stock")).longValue(), ((Number) row.get("sold")).longValue()));
+        }
+        return vouchers;
+    }
+
+    /**
+     * 下单用户集合的元素少于数据库中未取消的订单数时，按订单id区间分段并行加载下单用户
+     *
+     * @param repair 是否加载，为false时只记录偏差
+     * @return 重新加载的优惠券数量
+     */
+    private int reloadPurchasers(List<ActiveVoucher> vouchers, boolean repair) {
+        //1.批量查询下单用户集合的大小
+        List<Object> sizes = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            vouchers.forEach(v -> {
+                if (seckillKeys.isBitmapPurchasers()) {
+                    conn.bitCount(seckillKeys.orderKey(v.voucherId));
+                } else {
+                    conn.sCard(seckillKeys.orderKey(v.voucherId));
+                }
+            });
+            return null;
+        });
+        Set<Long> voucherIds = new HashSet<>();
+        for (int i = 0; i < vouchers.size(); i++) {
+            ActiveVoucher voucher = vouchers.get(i);
+            long size = sizes.get(i) == null ? 0 : ((Number) sizes.get(i)).longValue();
+            if (size < voucher.sold) {
+                log.warn("优惠券 {} 的下单用户集合缺失，Redis {} 个，数据库 {} 个", voucher.voucherId, size, voucher.sold);
+                meterRegistry.counter("seckill.reconcile.drift", "type", "purchasers").increment(voucher.sold - size);
+                voucherIds.add(voucher.voucherId);
+            }
+        }
+        if (voucherIds.isEmpty() || !repair) {
+            return 0;
+        }
+        //2.订单id区间平均分段，并行加载
+        List<Map<String, Object>> range = voucherOrderMapper.selectMaps(new QueryWrapper<VoucherOrder>()
+                .select("MIN(id) AS minId", "MAX(id) AS maxId")
+                .in("voucher_id", voucherIds)
+                .ne("status", 4));
+        if (range.isEmpty() || range.get(0) == null || range.get(0).get("minId") == null) {
+            return 0;
+        }
+        long min = ((Number) range.get(0).get("minId")).longValue();
+        long max = ((Number) range.get(0).get("maxId")).longValue();
+        int parts = Math.max(seckillProperties.getReconcile().getPreloadThreads(), 1);
+        long step = Math.max((max - min) / parts + 1, 1);
+        List<CompletableFuture<Void>> futures = new ArrayList<>(parts);
+        for (long from = min; from <= max; from += step) {
+            long cursor = from - 1;
+            long to = Math.min(max, from + step - 1);
+            futures.add(CompletableFuture.runAsync(() -> loadPurchasers(voucherIds, cursor, to), loadExecutor));
+            if (to == max) {
+                break;
+            }
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+        meterRegistry.counter("seckill.reconcile.repaired", "type", "purchasers").increment(voucherIds.size());
+        return voucherIds.size();
+    }
+
+    /**
+     * 加载(cursor, maxId]区间内的下单用户，每批用一个pipeline写入
+     */
+    private void loadPurchasers(Set<Long> voucherIds, long cursor, long maxId) {
+        int batchSize = seckillProperties.getReconcile().getBatchSize();
+        while (true) {
+            List<VoucherOrder> orders = voucherOrderMapper.queryAfter(cursor, maxId, voucherIds, batchSize);
+            if (orders.isEmpty()) {
+                return;
+            }
+            addPurchasers(orders);
+            if (orders.size() < batchSize) {
+                return;
+            }
+            cursor = orders.get(orders.size() - 1).getId();
+        }
+    }
+
+    /**
+     * 从游标开始检查新写入数据库的订单，下单用户不在集合中时补上
+     * 游标格式为 下单时间,id：id为0表示上次已经赶上最新订单，本次从该时间向前回看overlap；
+     * 否则上次因为批数限制中断，本次从该位置继续
+     */
+    private void checkNewOrders(List<ActiveVoucher> vouchers) {
+        SeckillProperties.Reconcile config = seckillProperties.getReconcile();
+        List<Long> voucherIds = vouchers.stream().map(v -> v.voucherId).collect(Collectors.toList());
+        String value = stringRedisTemplate.opsForValue().get(SECKILL_RECONCILE_CURSOR_KEY);
+        LocalDateTime since = null;
+        long lastId = 0;
+        if (value != null) {
+            String[] parts = value.split(",");
+            since = LocalDateTime.parse(parts[0]);
+            lastId = Long.parseLong(parts[1]);
+        }
+        // 已经检查到的最新下单时间，回看窗口以此为准
+        LocalDateTime newest = since;
+        if (since != null && lastId == 0) {
+            since = since.minus(config.getOverlap());
+        }
+        long missing = 0;
+        boolean caughtUp = false;
+        for (int i = 0; i < config.getMaxBatches(); i++) {
+            List<VoucherOrder> all = voucherOrderMapper.queryCreatedAfter(since, lastId, voucherIds, config.getBatchSize());
+            if (all.isEmpty()) {
+                caughtUp = true;
+                break;
+            }
+            VoucherOrder last = all.get(all.size() - 1);
+            since = last.getCreateTime();
+            lastId = last.getId();
+            if (newest == null || since.isAfter(newest)) {
+                newest = since;
+            }
+            //1.跳过回看窗口内已经检查过的订单
+            List<VoucherOrder> orders = all.stream().filter(o -> !checkedOrders.containsKey(o.getId())).collect(Collectors.toList());
+            if (orders.isEmpty()) {
+                if (all.size() < config.getBatchSize()) {
+                    caughtUp = true;
+                    break;
+                }
+                continue;
+            }
+            //2.批量判断下单用户是否在集合中
+            List<Object> members = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection conn = (StringRedisConnection) connection;
+                orders.forEach(o -> {
+                    if (seckillKeys.isBitmapPurchasers()) {
+                        conn.getBit(seckillKeys.orderKey(o.getVoucherId()), o.getUserId());
+                    } else {
+                        conn.sIsMember(seckillKeys.orderKey(o.getVoucherId()), o.getUserId().toString());
+                    }
+                });
+                return null;
+            });
+            List<VoucherOrder> absent = new ArrayList<>();
+            for (int j = 0; j < orders.size(); j++) {
+                if (!Boolean.TRUE.equals(members.get(j))) {
+                    absent.add(orders.get(j));
+                }
+            }
+            //3.补上缺失的下单用户
+            if (!absent.isEmpty()) {
+                missing += absent.size();
+                if (config.isRepair()) {
+                    addPurchasers(absent);
+                }
+            }
+            orders.forEach(o -> checkedOrders.put(o.getId(), o.getCreateTime()));
+            if (all.size() < config.getBatchSize()) {
+                caughtUp = true;
+                break;
+            }
+        }
+        //4.保存游标，清理回看窗口之外的订单
+        if (newest != null) {
+            String cursor = caughtUp ? newest + ",0" : since + "," + lastId;
+            stringRedisTemplate.opsForValue().set(SECKILL_RECONCILE_CURSOR_KEY, cursor);
+            LocalDateTime expired = newest.minus(config.getOverlap());
+            checkedOrders.values().removeIf(time -> time.isBefore(expired));
+        }
+        if (missing > 0) {
+            log.warn("有 {} 个订单的下单用户不在Redis中{}", missing, config.isRepair() ? "，已补上" : "");
+            meterRegistry.counter("seckill.reconcile.drift", "type", "orders").increment(missing);
+        }
+    }
+
+    /**
+     * 将订单的下单用户写入各自优惠券的下单用户集合
+     */
+    private void addPurchasers(List<VoucherOrder> orders) {
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            orders.forEach(o -> {
+                if (seckillKeys.isBitmapPurchasers()) {
+                    conn.setBit(seckillKeys.orderKey(o.getVoucherId()), o.getUserId(), true);
+                } else {
+                    conn.sAdd(seckillKeys.orderKey(o.getVoucherId()), o.getUserId().toString());
+                }
+            });
+            return null;
+        });
+    }
+
+    /**
+     * 核对一个优惠券的库存
+     *
+     * @param voucher 优惠券
+     * @param mode    修复方式，见seckill_reconcile.lua
+     */
+    private void checkStock(ActiveVoucher voucher, String mode) {
+        List<String> keys = new ArrayList<>();
+        keys.add(seckillKeys.orderKey(voucher.voucherId));
+        keys.add(seckillKeys.leaseKey(voucher.voucherId));
+        keys.addAll(seckillKeys.stockKeys(voucher.voucherId));
+        List<Long> result = stringRedisTemplate.execute(RECONCILE_SCRIPT, keys, String.valueOf(voucher.stock + voucher.sold), mode,
+                seckillKeys.purchaserFlag());
+        if (result == null || result.size() < 3) {
+            return;
+        }
+        long actual = result.get(0);
+        long expected = result.get(1);
+        boolean repaired = result.get(2) == 1;
+        long drift = repaired ? 0 : actual - expected;
+        drifts.computeIfAbsent(voucher.voucherId, id -> meterRegistry.gauge("seckill.reconcile.stock.drift",
+                Tags.of("voucher", id.toString()), new AtomicLong())).set(drift);
+        if (repaired) {
+            log.warn("优惠券 {} 的Redis库存已修复：{} -> {}", voucher.voucherId, actual, expected);
+            meterRegistry.counter("seckill.reconcile.repaired", "type", "stock").increment();
+            lastDrifts.remove(voucher.voucherId);
+            if (expected > actual) {
+                // 库存增加，清除各节点的本地售罄标记
+                localFilter.publishReplenish(voucher.voucherId);
+            }
+        } else if (drift != 0) {
+            log.warn("优惠券 {} 的Redis库存与数据库不一致：Redis {}，期望 {}", voucher.voucherId, actual, expected);
+            lastDrifts.put(voucher.voucherId, drift);
+        } else {
+            lastDrifts.remove(voucher.voucherId);
+        }
+    }
+
+    /**
+     * 未结束的优惠券：剩余库存和未取消的订单数来自同一个快照，两者之和为初始库存
+     */
+    private static class ActiveVoucher {
+        final Long voucherId;
+        final long stock;
+        final long sold;
+
+        ActiveVoucher(Long voucherId, long stock, long sold) {
+            this.voucherId = voucherId;
+            this.stock = stock;
+            this.sold = sold;
+        }
+    }
+}
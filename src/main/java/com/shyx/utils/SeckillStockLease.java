@@ -0,0 +1,267 @@
+package com.shyx.utils;
+
+import cn.hutool.core.thread.ThreadUtil;
+import com.shyx.config.SeckillProperties;
+import com.shyx.entity.SeckillVoucher;
+import com.shyx.service.ISeckillVoucherService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.lang.management.ManagementFactory;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 节点本地的秒杀库存租约
+ * 节点每次从Redis库存中租用一批(seckill.lease.chunk)库存，下单时在本地原子计数器上扣减，
+ * 只有租约用完时才访问Redis的库存key；租不到库存后在retryInterval内直接判定库存不足。
+ * 各节点持有的租约数量记录在seckill:lease:{voucherId}中，优惠券结束或节点停机时未售出的租约归还Redis。
+ * 节点宕机时其租约无法归还，该部分库存需要人工或对账任务补回
+ */
+@Slf4j
+@Component
+public class SeckillStockLease {
+
+    private static final DefaultRedisScript<Long> LEASE_SCRIPT;
+    private static final DefaultRedisScript<Long> RETURN_SCRIPT;
+
+    static {
+        LEASE_SCRIPT = new DefaultRedisScript<>();
+        LEASE_SCRIPT.setLocation(new ClassPathResource("stock_lease.lua"));
+        LEASE_SCRIPT.setResultType(Long.class);
+        RETURN_SCRIPT = new DefaultRedisScript<>();
+        RETURN_SCRIPT.setLocation(new ClassPathResource("stock_return.lua"));
+        RETURN_SCRIPT.setResultType(Long.class);
+    }
+
+    /**
+     * 检查优惠券是否结束的线程
+     */
+    private static final ScheduledExecutorService LEASE_EXECUTOR =
+            Executors.newSingleThreadScheduledExecutor(ThreadUtil.newNamedThreadFactory("seckill-stock-lease-", true));
+
+    /**
+     * 当前节点标识(pid@host)
+     */
+    private static final String NODE_ID = ManagementFactory.getRuntimeMXBean().getName();
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate; // Redis操作模板
+    @Resource
+    private SeckillProperties seckillProperties; // 秒杀相关配置
+    @Resource
+    private SeckillKeys seckillKeys; // 秒杀key布局
+    @Resource
+    private ISeckillVoucherService seckillVoucherService; // 秒杀优惠券服务，查询活动结束时间
+    @Resource
+    private SeckillLocalFilter localFilter; // 本地售罄标记，归还库存后通知各节点清除
+
+    // 每个优惠券在本节点的租约
+    private final Map<Long, Lease> leases = new ConcurrentHashMap<>();
+
+    /**
+     * 初始化：定期归还已结束优惠券的租约
+     */
+    @PostConstruct
+    private void init() {
+        long interval = seckillProperties.getLease().getCheckInterval().toMillis();
+        LEASE_EXECUTOR.scheduleWithFixedDelay(this::releaseEnded, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 销毁：归还所有未售出的租约
+     */
+    @PreDestroy
+    private void destroy() {
+        LEASE_EXECUTOR.shutdownNow();
+        new ArrayList<>(leases.keySet()).forEach(this::release);
+    }
+
+    /**
+     * 从本地租约中扣减一件库存，租约用完时向Redis续租
+     *
+     * @param voucherId 优惠券id
+     * @return 是否扣减成功，false代表库存不足或优惠券不存在
+     */
+    public boolean tryAcquire(Long voucherId) {
+        while (true) {
+            Lease lease = leases.get(voucherId);
+            if (lease == null) {
+                lease = newLease(voucherId);
+                if (lease == null) {
+                    return false;
+                }
+            }
+            if (lease.tryTake()) {
+                return true;
+            }
+            if (lease.closed) {
+                // 租约刚被归还，重新创建
+                continue;
+            }
+            if (!renew(voucherId, lease)) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * 下单失败时归还一件库存到本地租约，租约已关闭则直接归还Redis
+     *
+     * @param voucherId 优惠券id
+     */
+    public void giveBack(Long voucherId) {
+        Lease lease = leases.get(voucherId);
+        if (lease != null) {
+            synchronized (lease) {
+                if (!lease.closed) {
+                    lease.remaining.incrementAndGet();
+                    return;
+                }
+            }
+        }
+        returnToRedis(voucherId, 1);
+    }
+
+    /**
+     * 归还优惠券在本节点的全部租约
+     *
+     * @param voucherId 优惠券id
+     */
+    public void release(Long voucherId) {
+        Lease lease = leases.remove(voucherId);
+        if (lease == null) {
+            return;
+        }
+        int remaining;
+        synchronized (lease) {
+            lease.closed = true;
+            remaining = lease.remaining.getAndSet(0);
+        }
+        if (remaining > 0) {
+            returnToRedis(voucherId, remaining);
+            log.info("归还优惠券 {} 的库存租约 {} 件", voucherId, remaining);
+        }
+    }
+
+    /**
+     * 向Redis续租一批库存，同一时刻每个优惠券只有一个线程续租
+     *
+     * @return 是否租到了库存
+     */
+    private boolean renew(Long voucherId, Lease lease) {
+        synchronized (lease) {
+            if (lease.closed) {
+                return true;
+            }
+            // 其他线程已经续租成功
+            if (lease.remaining.get() > 0) {
+                return true;
+            }
+            // 最近一次续租时Redis库存已经为0，或者活动已经结束
+            if (System.currentTimeMillis() < lease.retryAt
+                    || (lease.endTime != null && lease.endTime.isBefore(LocalDateTime.now()))) {
+                return false;
+            }
+            List<String> keys = new ArrayList<>();
+            keys.add(seckillKeys.leaseKey(voucherId));
+            keys.addAll(seckillKeys.stockKeys(voucherId));
+            Long taken = stringRedisTemplate.execute(LEASE_SCRIPT, keys,
+                    String.valueOf(seckillProperties.getLease().getChunk()), NODE_ID);
+            if (taken == null || taken == 0) {
+                lease.retryAt = System.currentTimeMillis() + seckillProperties.getLease().getRetryInterval().toMillis();
+                return false;
+            }
+            lease.remaining.addAndGet(taken.intValue());
+            return true;
+        }
+    }
+
+    /**
+     * 将库存归还到Redis，分桶时归还到第一个桶，并通知各节点清除售罄标记
+     */
+    private void returnToRedis(Long voucherId, int count) {
+        stringRedisTemplate.execute(RETURN_SCRIPT,
+                Arrays.asList(seckillKeys.leaseKey(voucherId), seckillKeys.stockKeys(voucherId).get(0)),
+                String.valueOf(count), NODE_ID);
+        localFilter.publishReplenish(voucherId);
+    }
+
+    /**
+     * 归还已结束优惠券的租约
+     */
+    private void releaseEnded() {
+        LocalDateTime now = LocalDateTime.now();
+        leases.forEach((voucherId, lease) -> {
+            if (lease.endTime != null && lease.endTime.isBefore(now)) {
+                try {
+                    release(voucherId);
+                } catch (Exception e) {
+                    log.error("归还优惠券 {} 的库存租约异常", voucherId, e);
+                }
+            }
+        });
+    }
+
+    /**
+     * 创建优惠券的租约，记录活动结束时间
+     * 在ConcurrentHashMap外查询数据库，不持有map的锁；并发创建时使用先放入的租约，不存在的优惠券不缓存
+     *
+     * @return 优惠券不存在时返回null
+     */
+    private Lease newLease(Long voucherId) {
+        SeckillVoucher voucher = seckillVoucherService.getById(voucherId);
+        if (voucher == null) {
+            return null;
+        }
+        Lease lease = new Lease(voucher.getEndTime());
+        Lease existing = leases.putIfAbsent(voucherId, lease);
+        return existing == null ? lease : existing;
+    }
+
+    /**
+     * 一个优惠券在本节点的租约
+     */
+    private static class Lease {
+        // 活动结束时间
+        final LocalDateTime endTime;
+        // 本地剩余的库存
+        final AtomicInteger remaining = new AtomicInteger();
+        // Redis库存为0时，下次允许续租的时间
+        volatile long retryAt;
+        // 已归还，不能再使用
+        volatile boolean closed;
+
+        Lease(LocalDateTime endTime) {
+            this.endTime = endTime;
+        }
+
+        /**
+         * 无锁扣减一件库存
+         */
+        boolean tryTake() {
+            int n;
+            do {
+                n = remaining.get();
+                if (n <= 0) {
+                    return false;
+                }
+            } while (!remaining.compareAndSet(n, n - 1));
+            return true;
+        }
+    }
+}
@@ -0,0 +1,242 @@
+package com.shyx.utils;
+
+import com.shyx.config.SeckillProperties;
+import com.shyx.dto.Result;
+import com.shyx.dto.RoomTicket;
+import com.shyx.entity.SeckillVoucher;
+import com.shyx.mapper.SeckillVoucherMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 秒杀优惠券的虚拟等候室
+ * 开始时间之前用户领取排队号(Redis hash中的计数器，同一用户重复领取返回原号)，
+ * 开始之后按排队号顺序放行：已放行的排队号 = burst + (当前时间 - 开始时间) * rate，
+ * 放行进度只由时间决定，各节点不需要协调，也不需要定时任务推进；
+ * 查询排队位置只需一次HGET，排队号未轮到的秒杀请求在准入拦截器中直接拒绝，
+ * 开始时刻的瞬时流量变成按rate平滑到达的请求
+ */
+@Slf4j
+@Component
+public class SeckillWaitingRoom {
+
+    private static final DefaultRedisScript<Long> TICKET_SCRIPT;
+
+    static {
+        TICKET_SCRIPT = new DefaultRedisScript<>();
+        TICKET_SCRIPT.setLocation(new ClassPathResource("waiting_room_ticket.lua"));
+        TICKET_SCRIPT.setResultType(Long.class);
+    }
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate; // Redis操作模板
+    @Resource
+    private SeckillProperties seckillProperties; // 秒杀相关配置
+    @Resource
+    private SeckillKeys seckillKeys; // 秒杀key布局
+    @Resource
+    private SeckillVoucherMapper seckillVoucherMapper; // 查询优惠券的开始和结束时间
+    @Resource
+    private MeterRegistry meterRegistry; // 指标注册表
+
+    // 秒杀优惠券的开始和结束时间，按voucherCacheTtl刷新；不存在的优惠券不缓存，已结束的由SeckillKeyLifecycle清除
+    private final Map<Long, Window> windows = new ConcurrentHashMap<>();
+
+    /**
+     * 优惠券是否使用等候室
+     *
+     * @param voucherId 优惠券id
+     */
+    public boolean isEnabled(Long voucherId) {
+        SeckillProperties.WaitingRoom config = seckillProperties.getWaitingRoom();
+        if (!config.isEnabled()) {
+            return false;
+        }
+        return config.getVoucherIds().isEmpty() || config.getVoucherIds().contains(voucherId);
+    }
+
+    /**
+     * 领取排队号
+     *
+     * @param voucherId 优惠券id
+     * @param userId    用户id
+     * @return 排队号和当前位置
+     */
+    public Result takeTicket(Long voucherId, Long userId) {
+        if (!isEnabled(voucherId)) {
+            return Result.fail("该活动无需排队");
+        }
+        Window window = window(voucherId);
+        if (window == null) {
+            return Result.fail("优惠券不存在");
+        }
+        long now = System.currentTimeMillis();
+        if (now < window.begin - seckillProperties.getWaitingRoom().getOpenBefore().toMillis()) {
+            return Result.fail("排队尚未开始");
+        }
+        if (now >= window.end) {
+            return Result.fail("活动已结束");
+        }
+        // 排队号与其他秒杀key一起在结束时间 + retention后过期
+        long expireAt = window.end + seckillProperties.getLifecycle().getRetention().toMillis();
+        Long ticket = stringRedisTemplate.execute(TICKET_SCRIPT, Collections.singletonList(seckillKeys.roomKey(voucherId)),
+                userId.toString(), String.valueOf(expireAt));
+        meterRegistry.counter("seckill.room.ticket").increment();
+        return Result.ok(ticket(window, ticket, now));
+    }
+
+    /**
+     * 查询排队位置，只访问一次Redis
+     *
+     * @param voucherId 优惠券id
+     * @param userId    用户id
+     * @return 排队号和当前位置
+     */
+    public Result queryTicket(Long voucherId, Long userId) {
+        if (!isEnabled(voucherId)) {
+            return Result.fail("该活动无需排队");
+        }
+        Window window = window(voucherId);
+        if (window == null) {
+            return Result.fail("优惠券不存在");
+        }
+        Long ticket = ticketOf(voucherId, userId);
+        if (ticket == null) {
+            return Result.fail("请先领取排队号");
+        }
+        return Result.ok(ticket(window, ticket, System.currentTimeMillis()));
+    }
+
+    /**
+     * 秒杀请求的排队位置
+     *
+     * @param voucherId 优惠券id
+     * @param userId    用户id
+     * @return 没有排队号时返回null，已经轮到时返回0，否则返回前面还需要等待的排队号数量
+     */
+    public Long position(Long voucherId, Long userId) {
+        Window window = window(voucherId);
+        if (window == null) {
+            // 不是秒杀优惠券，交给秒杀业务处理
+            return 0L;
+        }
+        Long ticket = ticketOf(voucherId, userId);
+        if (ticket == null) {
+            return null;
+        }
+        // 开始之前放行数为0，所有排队号都需要等待
+        return Math.max(ticket - admitted(window, System.currentTimeMillis()), 0L);
+    }
+
+    /**
+     * 秒杀优惠券是否已经结束，使用本地缓存的结束时间，秒杀接口在执行脚本前调用
+     *
+     * @param voucherId 优惠券id
+     * @return 不是秒杀优惠券时返回false，交给秒杀脚本处理
+     */
+    public boolean hasEnded(Long voucherId) {
+        Window window = window(voucherId);
+        return window != null && System.currentTimeMillis() >= window.end;
+    }
+
+    /**
+     * 清除优惠券的开始和结束时间，优惠券结束后调用
+     */
+    public void evict(Long voucherId) {
+        windows.remove(voucherId);
+    }
+
+    /**
+     * 用户的排队号
+     */
+    private Long ticketOf(Long voucherId, Long userId) {
+        Object ticket = stringRedisTemplate.opsForHash().get(seckillKeys.roomKey(voucherId), userId.toString());
+        return ticket == null ? null : Long.valueOf(ticket.toString());
+    }
+
+    /**
+     * 到now为止已经放行的排队号：开始时放行burst个，之后每秒放行rate个
+     */
+    private long admitted(Window window, long now) {
+        if (now < window.begin) {
+            return 0;
+        }
+        SeckillProperties.WaitingRoom config = seckillProperties.getWaitingRoom();
+        return config.getBurst() + (long) ((now - window.begin) * config.getRate() / 1000);
+    }
+
+    /**
+     * 计算排队位置和预计等待时间
+     */
+    private RoomTicket ticket(Window window, Long ticket, long now) {
+        SeckillProperties.WaitingRoom config = seckillProperties.getWaitingRoom();
+        long admitted = admitted(window, now);
+        long position = Math.max(ticket - admitted, 0);
+        long waitMillis;
+        if (now < window.begin) {
+            // 开始之前：等到开始时间，再等burst之后的排队号放行
+            waitMillis = window.begin - now + (long) (Math.max(ticket - config.getBurst(), 0) * 1000 / config.getRate());
+        } else {
+            waitMillis = (long) (position * 1000 / config.getRate());
+        }
+        RoomTicket roomTicket = new RoomTicket();
+        roomTicket.setTicket(ticket);
+        roomTicket.setAdmitted(admitted);
+        roomTicket.setPosition(position);
+        roomTicket.setWaitMillis(waitMillis);
+        return roomTicket;
+    }
+
+    /**
+     * 优惠券的开始和结束时间，本地缓存voucherCacheTtl，不是秒杀优惠券时返回null
+     */
+    private Window window(Long voucherId) {
+        long now = System.currentTimeMillis();
+        Window window = windows.get(voucherId);
+        if (window != null && now - window.loadedAt < seckillProperties.getWaitingRoom().getVoucherCacheTtl().toMillis()) {
+            return window;
+        }
+        SeckillVoucher voucher = seckillVoucherMapper.selectById(voucherId);
+        if (voucher == null) {
+            // 客户端可以传入任意id，不存在的优惠券不缓存，避免本地内存无限增长
+            windows.remove(voucherId);
+            return null;
+        }
+        window = new Window(epochMillis(voucher.getBeginTime()), epochMillis(voucher.getEndTime()), now);
+        // 加载时顺便清除已过期且已结束的优惠券，生命周期任务关闭时也不会一直保留
+        long ttl = seckillProperties.getWaitingRoom().getVoucherCacheTtl().toMillis();
+        windows.values().removeIf(w -> w.end < now && now - w.loadedAt >= ttl);
+        windows.put(voucherId, window);
+        return window;
+    }
+
+    private static long epochMillis(LocalDateTime time) {
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    /**
+     * 优惠券的开始和结束时间(毫秒)
+     */
+    private static class Window {
+        final long begin;
+        final long end;
+        final long loadedAt;
+
+        Window(long begin, long end, long loadedAt) {
+            this.begin = begin;
+            this.end = end;
+            this.loadedAt = loadedAt;
+        }
+    }
+}
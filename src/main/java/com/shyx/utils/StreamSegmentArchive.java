@@ -0,0 +1,123 @@
+package com.shyx.utils;
+
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamRecords;
+
+import java.io.*;
+import java.util.*;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Stream消息的本地归档
+ * 消息按id顺序追加写入本地磁盘的分段文件(segment)，单个文件超过segmentSize后滚动到新文件，
+ * 文件名为该文件第一条消息的id，按文件名排序即按消息顺序排序。
+ * <p>
+ * 每次追加写入一个独立的gzip块，多个gzip块直接拼接仍是合法的gzip文件，因此文件只追加、不改写。
+ * 每条消息的格式：id毫秒数(long) + id序号(long) + 字段数(byte) + 字段名/字段值(UTF)
+ */
+public class StreamSegmentArchive {
+
+    // 分段文件后缀
+    private static final String SEGMENT_SUFFIX = ".seg";
+
+    private final File dir;         // 归档目录，每个stream一个目录
+    private final long segmentSize; // 单个分段文件的大小上限(字节)
+
+    /**
+     * 构造函数
+     *
+     * @param dir         归档目录
+     * @param segmentSize 单个分段文件的大小上限(字节)
+     */
+    public StreamSegmentArchive(File dir, long segmentSize) {
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+    }
+
+    /**
+     * 追加写入一批消息，写入完成后刷盘
+     *
+     * @param records 按id升序排列的消息
+     * @throws IOException 写入失败
+     */
+    public synchronized void append(List<MapRecord<String, Object, Object>> records) throws IOException {
+        if (records.isEmpty()) {
+            return;
+        }
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IOException("创建归档目录失败: " + dir);
+        }
+        File segment = currentSegment(records.get(0).getId());
+        try (FileOutputStream fos = new FileOutputStream(segment, true)) {
+            GZIPOutputStream gzip = new GZIPOutputStream(new BufferedOutputStream(fos));
+            DataOutputStream out = new DataOutputStream(gzip);
+            for (MapRecord<String, Object, Object> record : records) {
+                out.writeLong(record.getId().getTimestamp());
+                out.writeLong(record.getId().getSequence());
+                out.writeByte(record.getValue().size());
+                for (Map.Entry<Object, Object> entry : record.getValue().entrySet()) {
+                    out.writeUTF(String.valueOf(entry.getKey()));
+                    out.writeUTF(String.valueOf(entry.getValue()));
+                }
+            }
+            // 结束本次的gzip块并刷盘
+            gzip.finish();
+            out.flush();
+            fos.getFD().sync();
+        }
+    }
+
+    /**
+     * 读取一个分段文件中的全部消息
+     *
+     * @param segment 分段文件
+     * @return 文件中的消息，按写入顺序排列
+     * @throws IOException 读取失败
+     */
+    public static List<MapRecord<String, String, String>> read(File segment) throws IOException {
+        List<MapRecord<String, String, String>> records = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new GZIPInputStream(new BufferedInputStream(new FileInputStream(segment)))))) {
+            while (true) {
+                long timestamp;
+                try {
+                    timestamp = in.readLong();
+                } catch (EOFException e) {
+                    break;
+                }
+                long sequence = in.readLong();
+                int size = in.readUnsignedByte();
+                Map<String, String> value = new LinkedHashMap<>(size * 2);
+                for (int i = 0; i < size; i++) {
+                    value.put(in.readUTF(), in.readUTF());
+                }
+                records.add(StreamRecords.newRecord()
+                        .in(segment.getParentFile().getName())
+                        .withId(RecordId.of(timestamp, sequence))
+                        .ofMap(value));
+            }
+        }
+        return records;
+    }
+
+    /**
+     * 获取当前写入的分段文件，最新的文件超过大小上限时以firstId命名新文件
+     *
+     * @param firstId 本次写入的第一条消息id
+     * @return 分段文件
+     */
+    private File currentSegment(RecordId firstId) {
+        File[] segments = dir.listFiles((d, name) -> name.endsWith(SEGMENT_SUFFIX));
+        if (segments != null && segments.length > 0) {
+            File latest = Collections.max(Arrays.asList(segments), Comparator.comparing(File::getName));
+            if (latest.length() < segmentSize) {
+                return latest;
+            }
+        }
+        // 毫秒数补齐到13位，保证文件名的字典序与消息顺序一致
+        String name = String.format("%013d-%d%s", firstId.getTimestamp(), firstId.getSequence(), SEGMENT_SUFFIX);
+        return new File(dir, name);
+    }
+}
@@ -0,0 +1,177 @@
+package com.shyx.utils;
+
+import java.util.function.LongConsumer;
+
+/**
+ * 分层时间轮，用于大量定时任务的到期通知
+ * 每层wheelSize个槽，第0层每个槽为一个刻度，第n层每个槽为第n-1层转一圈的时间；
+ * 定时任务按到期刻度与当前刻度的差放入对应的层，上层的槽到达时把其中的任务降到下层，第0层的槽到达时任务到期。
+ * 每个任务只保存一个long类型的id和到期刻度，槽内用数组存储，百万级任务不需要为每个任务创建对象。
+ * 超出最上层范围的任务放入溢出槽，最上层转一圈时重新放入
+ * 非线程安全，调用方负责同步
+ */
+public class TimingWheel {
+
+    // 刻度(毫秒)
+    private final long tickMs;
+    // 每层槽数的二进制位数
+    private final int bits;
+    private final int mask;
+    // slots[层][槽]
+    private final Slot[][] slots;
+    // 超出最上层范围的任务
+    private final Slot overflow = new Slot();
+    // 当前已经处理到的刻度
+    private long currentTick;
+    // 任务数
+    private long size;
+
+    /**
+     * @param tickMs    刻度(毫秒)
+     * @param wheelSize 每层槽数，向上取整为2的幂
+     * @param levels    层数
+     * @param startMs   起始时间(毫秒)
+     */
+    public TimingWheel(long tickMs, int wheelSize, int levels, long startMs) {
+        this.tickMs = tickMs;
+        this.bits = 32 - Integer.numberOfLeadingZeros(Math.max(wheelSize, 2) - 1);
+        this.mask = (1 << bits) - 1;
+        this.slots = new Slot[levels][1 << bits];
+        for (Slot[] level : slots) {
+            for (int i = 0; i < level.length; i++) {
+                level[i] = new Slot();
+            }
+        }
+        this.currentTick = startMs / tickMs;
+    }
+
+    /**
+     * 添加定时任务，已经到期的任务直接交给expired
+     *
+     * @param deadlineMs 到期时间(毫秒)
+     * @param id         任务id
+     * @param expired    到期任务的处理
+     */
+    public void add(long deadlineMs, long id, LongConsumer expired) {
+        long tick = deadlineMs / tickMs;
+        if (tick <= currentTick) {
+            expired.accept(id);
+            return;
+        }
+        place(tick, id);
+        size++;
+    }
+
+    /**
+     * 推进到指定时间，依次处理经过的每个刻度，到期任务交给expired
+     *
+     * @param nowMs   当前时间(毫秒)
+     * @param expired 到期任务的处理
+     */
+    public void advance(long nowMs, LongConsumer expired) {
+        long target = nowMs / tickMs;
+        while (currentTick < target) {
+            currentTick++;
+            // 最上层转完一圈，溢出槽的任务重新放入
+            if ((currentTick & ((1L << (bits * slots.length)) - 1)) == 0 && overflow.size > 0) {
+                cascade(overflow, expired);
+            }
+            // 从上往下，刻度对齐到某一层的槽边界时，把该层当前槽的任务降到下层
+            for (int level = slots.length - 1; level > 0; level--) {
+                if ((currentTick & ((1L << (bits * level)) - 1)) == 0) {
+                    cascade(slots[level][(int) (currentTick >>> (bits * level)) & mask], expired);
+                }
+            }
+            // 第0层当前槽的任务到期
+            Slot slot = slots[0][(int) currentTick & mask];
+            for (int i = 0; i < slot.size; i++) {
+                expired.accept(slot.ids[i]);
+            }
+            size -= slot.size;
+            slot.clear();
+        }
+    }
+
+    /**
+     * 当前的任务数
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * 按到期刻度与当前刻度的差选择层：到期刻度与当前刻度在level + 1层以上的位相同，就放在level层
+     */
+    private void place(long tick, long id) {
+        for (int level = 0; level < slots.length; level++) {
+            if ((tick >>> (bits * (level + 1))) == (currentTick >>> (bits * (level + 1)))) {
+                slots[level][(int) (tick >>> (bits * level)) & mask].add(id, tick);
+                return;
+            }
+        }
+        overflow.add(id, tick);
+    }
+
+    /**
+     * 把一个槽的任务重新放入时间轮
+     */
+    private void cascade(Slot slot, LongConsumer expired) {
+        if (slot.size == 0) {
+            return;
+        }
+        long[] ids = slot.ids;
+        long[] ticks = slot.ticks;
+        int n = slot.size;
+        slot.reset();
+        for (int i = 0; i < n; i++) {
+            if (ticks[i] <= currentTick) {
+                expired.accept(ids[i]);
+                size--;
+            } else {
+                place(ticks[i], ids[i]);
+            }
+        }
+    }
+
+    /**
+     * 一个槽：任务id和到期刻度
+     */
+    private static class Slot {
+        private static final long[] EMPTY = new long[0];
+
+        long[] ids = EMPTY;
+        long[] ticks = EMPTY;
+        int size;
+
+        void add(long id, long tick) {
+            if (size == ids.length) {
+                int capacity = Math.max(8, size * 2);
+                long[] newIds = new long[capacity];
+                long[] newTicks = new long[capacity];
+                System.arraycopy(ids, 0, newIds, 0, size);
+                System.arraycopy(ticks, 0, newTicks, 0, size);
+                ids = newIds;
+                ticks = newTicks;
+            }
+            ids[size] = id;
+            ticks[size] = tick;
+            size++;
+        }
+
+        /**
+         * 清空，保留数组供下一圈使用
+         */
+        void clear() {
+            size = 0;
+        }
+
+        /**
+         * 清空并释放数组，数组交给调用方重新放入
+         */
+        void reset() {
+            ids = EMPTY;
+            ticks = EMPTY;
+            size = 0;
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package com.shyx.utils;
+
+/**
+ * 缓存值的编解码：CacheClient写入Redis前编码，读取后直接从字节数组解码
+ * 实现有两种，通过cache.codec选择：
+ * json - hutool JSON，可读性好，与之前写入的缓存兼容(默认)
+ * binary - 带schema版本的紧凑二进制格式，注册了schema的实体使用，其余类型退回JSON；读取时同时兼容JSON
+ * 切换实现后，新实现无法解码的旧缓存视为未命中，重新查询数据库后覆盖
+ */
+public interface ValueCodec {
+
+    /**
+     * 编码缓存值
+     *
+     * @param value 缓存值，不能为null
+     * @return 编码后的字节数组，不为空
+     */
+    byte[] encode(Object value);
+
+    /**
+     * 解码缓存值
+     *
+     * @param bytes 编码后的字节数组
+     * @param type  值的类型
+     * @return 缓存值
+     */
+    <T> T decode(byte[] bytes, Class<T> type);
+
+    /**
+     * 编码带逻辑过期时间的缓存值
+     *
+     * @param data 逻辑过期时间和缓存值
+     * @return 编码后的字节数组
+     */
+    byte[] encodeLogical(RedisData data);
+
+    /**
+     * 解码带逻辑过期时间的缓存值
+     *
+     * @param bytes 编码后的字节数组
+     * @param type  缓存值的类型
+     * @return 逻辑过期时间和已经解码为type的缓存值
+     */
+    <T> RedisData decodeLogical(byte[] bytes, Class<T> type);
+}
@@ -0,0 +1,24 @@
+-- 订单取消后归还Redis中的库存：用户移出下单用户集合，库存加回该用户对应的桶
+-- 只有用户仍在集合中才归还，重复执行不会多加库存
+-- KEYS[1] 下单用户key，KEYS[2] 租约key，KEYS[3]及之后为各个库存桶
+-- ARGV[1] 是否为租约模式(1/0)，ARGV[2] 下单用户是否用bitmap记录(1/0)，ARGV[3]及之后为用户id
+local buckets = #KEYS - 2
+local bitmap = ARGV[2] == '1'
+local returned = 0
+for i = 3, #ARGV do
+    local removed
+    if (bitmap) then
+        removed = redis.call('setbit', KEYS[1], ARGV[i], 0)
+    else
+        removed = redis.call('srem', KEYS[1], ARGV[i])
+    end
+    if (removed == 1) then
+        redis.call('incrby', KEYS[3 + tonumber(ARGV[i]) % buckets], 1)
+        returned = returned + 1
+    end
+end
+-- 租约模式下已租用的库存包含了这些订单，归还的部分从租约中扣除，与核对时的期望库存一致
+if (ARGV[1] == '1' and returned > 0) then
+    redis.call('hincrby', KEYS[2], 'cancelled', -returned)
+end
+return returned
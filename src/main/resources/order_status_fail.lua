@@ -0,0 +1,9 @@
+-- 记录订单持久化失败，已持久化的订单不改为失败
+-- 重复投递的消息在另一个消费者或重启后处理时，不能覆盖之前写入的已持久化状态
+-- KEYS[1] 订单状态hash
+-- ARGV[1] 订单id，ARGV[2] 失败状态
+if (redis.call('hget', KEYS[1], ARGV[1]) == 'p') then
+    return 0
+end
+redis.call('hset', KEYS[1], ARGV[1], ARGV[2])
+return 1
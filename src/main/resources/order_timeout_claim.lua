@@ -0,0 +1,15 @@
+-- 认领到期的未支付订单：到期的订单把超时时间推迟claimTimeout，避免多个节点重复处理，
+-- 处理节点崩溃时订单在推迟后的时间重新到期
+-- KEYS[1] 超时时间索引
+-- ARGV[1] 当前时间，ARGV[2] 认领后的超时时间，ARGV[3]及之后为订单id
+local now = tonumber(ARGV[1])
+local claimed = {}
+for i = 3, #ARGV do
+    local score = redis.call('zscore', KEYS[1], ARGV[i])
+    if (score and tonumber(score) <= now) then
+        redis.call('zadd', KEYS[1], 'XX', ARGV[2], ARGV[i])
+        table.insert(claimed, ARGV[i])
+    end
+end
+-- 返回认领成功的订单id
+return claimed
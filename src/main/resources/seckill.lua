@@ -10,28 +10,55 @@ local voucherId = ARGV[1]
 local userId = ARGV[2]
 -- 1.3 订单ID
 local orderId = ARGV[3]
+-- 1.4 是否写入订单stream，订单队列不是stream时由Java代码在下单成功后入队
+local enqueue = ARGV[4] ~= '0'
+-- 1.5 下单用户是否用bitmap记录(以用户id为偏移量)，否则用set
+local bitmap = ARGV[5] == '1'
 
--- 2. 数据KEY
--- 2.1 库存key
-local stockKey = 'seckill:stock:' .. voucherId
--- 2.2 订单key
-local orderKey = 'seckill:order:' .. voucherId
+-- 2. 数据KEY，全部通过KEYS传入，集群模式下所有key使用相同的hash tag，位于同一个slot
+-- 2.1 订单key
+local orderKey = KEYS[1]
+-- 2.2 订单消息队列
+local streamKey = KEYS[2]
+-- 2.3 库存key，KEYS[3]及之后为各个库存桶，不分桶时只有一个
+local buckets = #KEYS - 2
 -- 3. Lua脚本业务逻辑
--- 3.1 判断库存是否充足
-if (tonumber(redis.call('get', stockKey)) <= 0) then
-    -- 3.2 库存不足，返回下单失败，1
+-- 3.1 从按用户id选中的桶开始，依次找一个还有库存的桶；库存key不存在(活动结束后已过期)视为库存为0
+local start = tonumber(userId) % buckets
+local stockKey = nil
+for i = 0, buckets - 1 do
+    local key = KEYS[3 + (start + i) % buckets]
+    if (tonumber(redis.call('get', key) or '0') > 0) then
+        stockKey = key
+        break
+    end
+end
+if (stockKey == nil) then
+    -- 3.2 所有桶的库存都不足，返回下单失败，1
     return 1
 end
 -- 3.3 判断用户是否下单
-if (redis.call('sismember', orderKey, userId) == 1) then
+local purchased
+if (bitmap) then
+    purchased = redis.call('getbit', orderKey, userId)
+else
+    purchased = redis.call('sismember', orderKey, userId)
+end
+if (purchased == 1) then
     -- 3.4 用户已经下单，返回下单失败，2
     return 2
 end
 -- 3.5 扣减库存
 redis.call('incrby', stockKey, -1)
--- 3.6 下单，将用户加入set集合
-redis.call('sadd', orderKey, userId)
+-- 3.6 下单，记录下单用户
+if (bitmap) then
+    redis.call('setbit', orderKey, userId, 1)
+else
+    redis.call('sadd', orderKey, userId)
+end
 -- 3.7 发送消息到队列中
-redis.call('xadd', 'stream.orders', '*','userId', userId, 'voucherId', voucherId, 'id', orderId)
+if (enqueue) then
+    redis.call('xadd', streamKey, '*','userId', userId, 'voucherId', voucherId, 'id', orderId)
+end
 -- 3.8 返回下单成功，0
 return 0
\ No newline at end of file
@@ -0,0 +1,33 @@
+-- 租约模式下的下单脚本：库存已在节点本地扣减，这里只做一人一单校验和订单入队
+-- KEYS[1] 订单key，KEYS[2] 订单消息队列
+-- ARGV[1] 优惠券ID，ARGV[2] 用户ID，ARGV[3] 订单ID，ARGV[4] 是否写入订单stream(0为否)，ARGV[5] 下单用户是否用bitmap记录(1为是)
+local orderKey = KEYS[1]
+local streamKey = KEYS[2]
+local voucherId = ARGV[1]
+local userId = ARGV[2]
+local orderId = ARGV[3]
+local enqueue = ARGV[4] ~= '0'
+local bitmap = ARGV[5] == '1'
+-- 1. 判断用户是否下单
+local purchased
+if (bitmap) then
+    purchased = redis.call('getbit', orderKey, userId)
+else
+    purchased = redis.call('sismember', orderKey, userId)
+end
+if (purchased == 1) then
+    -- 用户已经下单，返回下单失败，2
+    return 2
+end
+-- 2. 下单，记录下单用户
+if (bitmap) then
+    redis.call('setbit', orderKey, userId, 1)
+else
+    redis.call('sadd', orderKey, userId)
+end
+-- 3. 发送消息到队列中
+if (enqueue) then
+    redis.call('xadd', streamKey, '*', 'userId', userId, 'voucherId', voucherId, 'id', orderId)
+end
+-- 4. 返回下单成功，0
+return 0
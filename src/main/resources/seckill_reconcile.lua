@@ -0,0 +1,53 @@
+-- 核对并修复Redis中的秒杀库存
+-- KEYS[1] 下单用户key，KEYS[2] 租约key，KEYS[3]及之后为各个库存桶
+-- ARGV[1] 初始库存(数据库剩余库存 + 未取消的订单数)
+-- ARGV[2] 修复方式：check只核对；missing只在库存key全部不存在时重建；数字表示偏差仍等于该值时修复
+-- ARGV[3] 下单用户是否用bitmap记录(1为是)
+local total = tonumber(ARGV[1])
+local mode = ARGV[2]
+-- 1. Redis中的剩余库存，库存key不存在按0计算
+local actual = 0
+local missing = 0
+for i = 3, #KEYS do
+    local stock = redis.call('get', KEYS[i])
+    if (stock == false) then
+        missing = missing + 1
+    else
+        actual = actual + tonumber(stock)
+    end
+end
+-- 2. 已经扣减的库存：租约模式下为各节点租用的数量，否则为下单用户数，取较大者
+local sold
+if (ARGV[3] == '1') then
+    sold = redis.call('bitcount', KEYS[1])
+else
+    sold = redis.call('scard', KEYS[1])
+end
+local leased = 0
+for _, n in ipairs(redis.call('hvals', KEYS[2])) do
+    leased = leased + tonumber(n)
+end
+if (leased > sold) then
+    sold = leased
+end
+local expected = math.max(total - sold, 0)
+local drift = actual - expected
+-- 3. 按修复方式决定是否修复，修复时按addSeckillVoucher的方式把库存平均拆分到各个桶
+local repair = false
+if (mode == 'missing') then
+    repair = missing == #KEYS - 2
+elseif (mode ~= 'check') then
+    repair = drift ~= 0 and drift == tonumber(mode)
+end
+if (repair) then
+    local buckets = #KEYS - 2
+    for i = 0, buckets - 1 do
+        local stock = math.floor(expected / buckets)
+        if (i < expected % buckets) then
+            stock = stock + 1
+        end
+        redis.call('set', KEYS[3 + i], stock)
+    end
+end
+-- 4. 返回 Redis库存、期望库存、是否已修复
+return { actual, expected, repair and 1 or 0 }
@@ -0,0 +1,18 @@
+-- 滑动窗口限流：用上一个窗口的计数按时间比例加权，近似滑动窗口内的请求数
+-- KEYS[1] 当前窗口的计数key，KEYS[2] 上一个窗口的计数key
+-- ARGV[1] 窗口内最多放行的请求数，ARGV[2] 窗口长度(毫秒)，ARGV[3] 当前时间在窗口内经过的毫秒数
+local limit = tonumber(ARGV[1])
+local window = tonumber(ARGV[2])
+local elapsed = tonumber(ARGV[3])
+-- 1. 估算滑动窗口内的请求数
+local current = tonumber(redis.call('get', KEYS[1]) or '0')
+local previous = tonumber(redis.call('get', KEYS[2]) or '0')
+local count = previous * (window - elapsed) / window + current
+-- 2. 超过上限，拒绝，返回0
+if (count >= limit) then
+    return 0
+end
+-- 3. 放行，当前窗口计数加一，保留两个窗口的时间
+redis.call('incr', KEYS[1])
+redis.call('pexpire', KEYS[1], window * 2)
+return 1
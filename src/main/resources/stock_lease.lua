@@ -0,0 +1,25 @@
+-- 从Redis库存中租用一批库存到节点本地
+-- KEYS[1] 租约key，KEYS[2]及之后为各个库存桶
+-- ARGV[1] 租用数量，ARGV[2] 节点标识
+local leaseKey = KEYS[1]
+local need = tonumber(ARGV[1])
+local nodeId = ARGV[2]
+-- 1. 依次从各个桶中扣减，直到凑满租用数量或所有桶都为0
+local taken = 0
+for i = 2, #KEYS do
+    if (taken >= need) then
+        break
+    end
+    local stock = tonumber(redis.call('get', KEYS[i]))
+    if (stock ~= nil and stock > 0) then
+        local n = math.min(stock, need - taken)
+        redis.call('incrby', KEYS[i], -n)
+        taken = taken + n
+    end
+end
+-- 2. 记录该节点持有的租约
+if (taken > 0) then
+    redis.call('hincrby', leaseKey, nodeId, taken)
+end
+-- 3. 返回实际租到的数量，0代表库存不足
+return taken
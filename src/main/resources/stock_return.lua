@@ -0,0 +1,11 @@
+-- 将节点未售出的租约归还到Redis库存
+-- KEYS[1] 租约key，KEYS[2] 归还到的库存key
+-- ARGV[1] 归还数量，ARGV[2] 节点标识
+local n = tonumber(ARGV[1])
+-- 1. 加回库存
+redis.call('incrby', KEYS[2], n)
+-- 2. 减少该节点持有的租约，归零后删除
+if (redis.call('hincrby', KEYS[1], ARGV[2], -n) <= 0) then
+    redis.call('hdel', KEYS[1], ARGV[2])
+end
+return n
@@ -0,0 +1,14 @@
+-- 领取等候室排队号：同一用户重复领取时返回原来的排队号
+-- KEYS[1] 等候室hash，用户id -> 排队号，字段_seq为排队号计数
+-- ARGV[1] 用户id，ARGV[2] key的过期时间(毫秒时间戳)
+local ticket = redis.call('hget', KEYS[1], ARGV[1])
+if (ticket) then
+    return tonumber(ticket)
+end
+ticket = redis.call('hincrby', KEYS[1], '_seq', 1)
+redis.call('hset', KEYS[1], ARGV[1], ticket)
+if (ticket == 1) then
+    -- 第一个排队号创建key时设置过期时间
+    redis.call('pexpireat', KEYS[1], ARGV[2])
+end
+return ticket
@@ -1,15 +1,48 @@
 package com.shyx;
 
 
+import com.shyx.config.SeckillProperties;
+import com.shyx.entity.Shop;
+import com.shyx.entity.VoucherOrder;
 import com.shyx.service.impl.ShopServiceImpl;
+import com.shyx.utils.BinaryValueCodec;
+import com.shyx.utils.JsonValueCodec;
+import com.shyx.utils.MappedWalOrderQueue;
+import com.shyx.utils.RedisData;
 import com.shyx.utils.RedisIdWorker;
+import com.shyx.utils.ValueCodec;
 import org.junit.jupiter.api.Test;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.connection.stream.StreamReadOptions;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
 
 import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
 
 @SpringBootTest
 public class HmDianPingApplicationTests {
@@ -26,24 +59,43 @@ public class HmDianPingApplicationTests {
     private RedisIdWorker redisIdWorker;
     private ExecutorService es = Executors.newFixedThreadPool(500);
 
+    @Resource
+    private SeckillProperties seckillProperties;
+
     /**
      * 测试ID生成器性能的测试方法
-     * 使用多线程并发生成ID，并计算总耗时
+     * 分别在每个id一次INCR(segment-size=1)和号段模式下，使用多线程并发生成ID，并计算总耗时
      *
      * @throws InterruptedException 如果线程被中断
      */
     @Test
     void testIdWorker() throws InterruptedException {
+        int segmentSize = seckillProperties.getId().getSegmentSize();
+        try {
+            seckillProperties.getId().setSegmentSize(1);
+            System.out.println("incr time = " + generateIds());
+            seckillProperties.getId().setSegmentSize(Math.max(segmentSize, 1000));
+            System.out.println("segment time = " + generateIds());
+        } finally {
+            seckillProperties.getId().setSegmentSize(segmentSize);
+        }
+    }
+
+    /**
+     * 300个线程各生成100个ID，校验没有重复
+     *
+     * @return 总耗时(毫秒)
+     */
+    private long generateIds() throws InterruptedException {
         // 创建倒计数锁，用于等待所有线程完成
         CountDownLatch latch = new CountDownLatch(300);
+        Set<Long> ids = ConcurrentHashMap.newKeySet();
         // 定义任务，每个线程生成100个ID
         Runnable task = () -> {
             // 循环生成100个ID
             for (int i = 0; i < 100; i++) {
                 // 调用ID生成器生成ID
-                long id = redisIdWorker.nextId("order");
-                // 打印生成的ID
-                System.out.println("id = " + id);
+                ids.add(redisIdWorker.nextId("order"));
             }
             // 线程完成任务，计数器减1
             latch.countDown();
@@ -58,8 +110,241 @@ public class HmDianPingApplicationTests {
         latch.await();
         // 记录结束时间
         long end = System.currentTimeMillis();
-        // 打印总耗时
-        System.out.println("time = " + (end - begin));
+        assertEquals(300 * 100, ids.size());
+        return end - begin;
+    }
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    /**
+     * 对比单个库存key与库存分桶两种布局下秒杀脚本的吞吐量
+     * 校验各桶的库存之和等于总库存，下单成功数与剩余库存之和不变
+     * 使用独立的测试key，不影响真实的优惠券，测试结束后删除
+     *
+     * @throws InterruptedException 如果线程被中断
+     */
+    @Test
+    void testSeckillStockBuckets() throws InterruptedException {
+        DefaultRedisScript<Long> script = new DefaultRedisScript<>();
+        script.setLocation(new ClassPathResource("seckill.lua"));
+        script.setResultType(Long.class);
+        for (int buckets : new int[]{1, 8}) {
+            // 准备库存：30000件平均分到各个桶，每个请求使用不同的用户，保证都能下单成功
+            List<String> keys = new ArrayList<>();
+            keys.add("seckill:order:bench");
+            keys.add("stream.orders.bench");
+            for (int i = 0; i < buckets; i++) {
+                String stockKey = "seckill:stock:bench:" + i;
+                keys.add(stockKey);
+                stringRedisTemplate.opsForValue().set(stockKey, String.valueOf(30000 / buckets));
+            }
+            List<String> stockKeys = keys.subList(2, keys.size());
+            assertEquals(30000, sumStock(stockKeys));
+            AtomicLong userId = new AtomicLong();
+            AtomicLong succeeded = new AtomicLong();
+            CountDownLatch latch = new CountDownLatch(300);
+            // 定义任务，每个线程执行100次秒杀脚本
+            Runnable task = () -> {
+                for (int i = 0; i < 100; i++) {
+                    Long result = stringRedisTemplate.execute(script, keys, "0", String.valueOf(userId.incrementAndGet()), "0");
+                    if (result != null && result == 0) {
+                        succeeded.incrementAndGet();
+                    }
+                }
+                latch.countDown();
+            };
+            long begin = System.currentTimeMillis();
+            for (int i = 0; i < 300; i++) {
+                es.submit(task);
+            }
+            latch.await();
+            long end = System.currentTimeMillis();
+            System.out.println("buckets = " + buckets + ", time = " + (end - begin)
+                    + ", qps = " + 30000 * 1000L / Math.max(end - begin, 1));
+            long remaining = sumStock(stockKeys);
+            stringRedisTemplate.delete(keys);
+            assertEquals(30000, succeeded.get() + remaining);
+        }
+    }
+
+    /**
+     * 各个库存桶的剩余库存之和
+     */
+    private long sumStock(List<String> stockKeys) {
+        List<String> stocks = stringRedisTemplate.opsForValue().multiGet(stockKeys);
+        assertNotNull(stocks);
+        return stocks.stream().mapToLong(Long::parseLong).sum();
+    }
+
+    /**
+     * 对比Redis Stream与本地内存映射预写日志的订单交接延迟和吞吐量
+     * 300个线程各写入100个订单，单个消费线程读取，统计全部消费完的耗时和交接延迟的p99，并校验每个订单恰好交接一次
+     *
+     * @throws Exception 如果线程被中断或临时文件无法创建
+     */
+    @Test
+    void testOrderQueueHandOff() throws Exception {
+        int total = 30000;
+        long[] addedAt = new long[total];
+        long[] latency = new long[total];
+        // 1.本地预写日志
+        AtomicIntegerArray handed = new AtomicIntegerArray(total);
+        Path dir = Files.createTempDirectory("wal-bench");
+        SeckillProperties.Order config = new SeckillProperties.Order();
+        config.setBatchEnabled(true);
+        MappedWalOrderQueue wal = new MappedWalOrderQueue(dir.resolve("orders.wal"), 1 << 16, Duration.ofMillis(100), config);
+        CountDownLatch consumed = new CountDownLatch(total);
+        wal.start(orders -> orders.forEach(order -> {
+            int i = order.getId().intValue();
+            latency[i] = System.nanoTime() - addedAt[i];
+            handed.incrementAndGet(i);
+            consumed.countDown();
+        }));
+        AtomicLong seq = new AtomicLong();
+        long begin = System.currentTimeMillis();
+        runProducers(() -> {
+            int i = (int) seq.getAndIncrement();
+            VoucherOrder order = new VoucherOrder();
+            order.setId((long) i);
+            order.setUserId((long) i);
+            order.setVoucherId(0L);
+            addedAt[i] = System.nanoTime();
+            wal.add(order);
+        });
+        consumed.await();
+        printHandOff("wal", begin, latency);
+        wal.close();
+        assertHandedOffOnce(handed);
+        // 2.Redis Stream，单个消费者用XREAD阻塞读取
+        String stream = "stream.orders.bench";
+        stringRedisTemplate.delete(stream);
+        CountDownLatch read = new CountDownLatch(total);
+        AtomicIntegerArray received = new AtomicIntegerArray(total);
+        Thread consumer = new Thread(() -> {
+            ReadOffset offset = ReadOffset.from("0");
+            while (read.getCount() > 0) {
+                @SuppressWarnings("unchecked") // StreamOffset的可变参数
+                List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
+                        StreamReadOptions.empty().count(1000).block(Duration.ofSeconds(1)), StreamOffset.create(stream, offset));
+                if (list == null || list.isEmpty()) {
+                    continue;
+                }
+                for (MapRecord<String, Object, Object> record : list) {
+                    int i = Integer.parseInt(record.getValue().get("id").toString());
+                    latency[i] = System.nanoTime() - addedAt[i];
+                    received.incrementAndGet(i);
+                    read.countDown();
+                }
+                offset = ReadOffset.from(list.get(list.size() - 1).getId());
+            }
+        });
+        consumer.start();
+        seq.set(0);
+        begin = System.currentTimeMillis();
+        runProducers(() -> {
+            int i = (int) seq.getAndIncrement();
+            Map<String, String> value = new HashMap<>();
+            value.put("userId", String.valueOf(i));
+            value.put("voucherId", "0");
+            value.put("id", String.valueOf(i));
+            addedAt[i] = System.nanoTime();
+            stringRedisTemplate.opsForStream().add(stream, value);
+        });
+        read.await();
+        printHandOff("stream", begin, latency);
+        consumer.join();
+        stringRedisTemplate.delete(stream);
+        assertHandedOffOnce(received);
+    }
+
+    /**
+     * 校验每个订单恰好被消费一次
+     */
+    private void assertHandedOffOnce(AtomicIntegerArray handed) {
+        for (int i = 0; i < handed.length(); i++) {
+            assertEquals(1, handed.get(i), "order " + i);
+        }
+    }
+
+    /**
+     * 300个线程各执行100次写入
+     */
+    private void runProducers(Runnable add) throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(300);
+        for (int i = 0; i < 300; i++) {
+            es.submit(() -> {
+                for (int j = 0; j < 100; j++) {
+                    add.run();
+                }
+                latch.countDown();
+            });
+        }
+        latch.await();
     }
 
+    /**
+     * 打印吞吐量和交接延迟的p99(微秒)
+     */
+    private void printHandOff(String name, long begin, long[] latency) {
+        long time = System.currentTimeMillis() - begin;
+        long[] sorted = latency.clone();
+        Arrays.sort(sorted);
+        System.out.println(name + ": time = " + time + ", qps = " + sorted.length * 1000L / Math.max(time, 1)
+                + ", p99 = " + sorted[sorted.length * 99 / 100] / 1000 + "us");
+    }
+
+    /**
+     * 对比JSON与二进制编码的商铺缓存：编码、解码每次的耗时(纳秒)，编码后的字节数，以及写入Redis后MEMORY USAGE的结果
+     * 先校验两种编码的往返结果与原值相等，包括字段为null的商铺和带逻辑过期时间的缓存值
+     */
+    @Test
+    void testValueCodec() {
+        Shop shop = shopService.getById(1L);
+        ValueCodec[] codecs = {new JsonValueCodec(), new BinaryValueCodec()};
+        int rounds = 200000;
+        for (ValueCodec codec : codecs) {
+            assertRoundTrip(codec, shop);
+            assertRoundTrip(codec, new Shop().setId(2L).setName("空字段"));
+            byte[] bytes = codec.encode(shop);
+            long sink = 0;
+            // 预热
+            for (int i = 0; i < rounds; i++) {
+                sink += codec.encode(shop).length + codec.decode(bytes, Shop.class).getId();
+            }
+            long begin = System.nanoTime();
+            for (int i = 0; i < rounds; i++) {
+                sink += codec.encode(shop).length;
+            }
+            long encode = (System.nanoTime() - begin) / rounds;
+            begin = System.nanoTime();
+            for (int i = 0; i < rounds; i++) {
+                sink += codec.decode(bytes, Shop.class).getId();
+            }
+            long decode = (System.nanoTime() - begin) / rounds;
+            byte[] key = ("codec:bench:" + codec.getClass().getSimpleName()).getBytes(StandardCharsets.UTF_8);
+            Object memory = stringRedisTemplate.execute((RedisCallback<Object>) connection -> {
+                connection.stringCommands().set(key, bytes);
+                Object usage = connection.execute("MEMORY", "USAGE".getBytes(StandardCharsets.UTF_8), key);
+                connection.keyCommands().del(key);
+                return usage;
+            });
+            System.out.println(codec.getClass().getSimpleName() + ": encode = " + encode + "ns, decode = " + decode
+                    + "ns, size = " + bytes.length + ", memory = " + memory + " (" + sink % 2 + ")");
+        }
+    }
+
+    /**
+     * 校验编码后再解码得到相等的值，逻辑过期时间也保持不变
+     */
+    private void assertRoundTrip(ValueCodec codec, Shop shop) {
+        String name = codec.getClass().getSimpleName();
+        assertEquals(shop, codec.decode(codec.encode(shop), Shop.class), name);
+        RedisData data = new RedisData();
+        data.setExpireTime(LocalDateTime.now().withNano(0));
+        data.setData(shop);
+        RedisData decoded = codec.decodeLogical(codec.encodeLogical(data), Shop.class);
+        assertEquals(data.getExpireTime(), decoded.getExpireTime(), name);
+        assertEquals(shop, decoded.getData(), name);
+    }
 }